@@ -1,30 +1,35 @@
 package life.qbic.qpostman.common;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.text.DecimalFormat;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Locale.Category;
 import life.qbic.qpostman.common.structures.FileSize;
 
 /**
  * Formats a file size to human-readable form.
+ * <p>
+ * The value is rounded half-up to two decimals using integer arithmetic. Digits, decimal
+ * separator and minus sign follow the default format locale, like {@link java.text.DecimalFormat}
+ * does.
  */
 public class FileSizeFormatter {
 
   private enum Unit {
-    BYTE(1000, 0, "B"),
-    KILO_BYTE(1000, 1, "KB"),
-    MEGA_BYTE(1000, 2, "MB"),
-    GIGA_BYTE(1000, 3, "GB"),
-    TERA_BYTE(1000, 4, "TB");
+    BYTE(1L, "B"),
+    KILO_BYTE(1_000L, "KB"),
+    MEGA_BYTE(1_000_000L, "MB"),
+    GIGA_BYTE(1_000_000_000L, "GB"),
+    TERA_BYTE(1_000_000_000_000L, "TB");
 
-    private final BigDecimal divisor;
+    private static final Unit[] LARGEST_FIRST = {TERA_BYTE, GIGA_BYTE, MEGA_BYTE, KILO_BYTE};
+
+    private final long divisor;
 
     private final String siSymbol;
 
-    Unit(int base, int power, String siSymbol) {
-      this.divisor = BigDecimal.valueOf(base).pow(power);
+    Unit(long divisor, String siSymbol) {
+      this.divisor = divisor;
       this.siSymbol = siSymbol;
     }
 
@@ -32,19 +37,48 @@ public class FileSizeFormatter {
       return siSymbol;
     }
 
-    static Unit bestFor(FileSize fileSize) {
-      return Arrays.stream(Unit.values())
-          .filter(it -> fileSize.bytes() >= it.divisor.longValueExact())
-          .max(Comparator.comparing((Unit it) ->
-              it.divisor))
-          .orElse(BYTE);
+    static Unit bestFor(long bytes) {
+      for (Unit unit : LARGEST_FIRST) {
+        if (bytes >= unit.divisor) {
+          return unit;
+        }
+      }
+      return BYTE;
     }
 
-    BigDecimal scaledValue(long bytes) {
-      return BigDecimal.valueOf(bytes).divide(divisor, 32, RoundingMode.HALF_UP);
+    /**
+     * @return the scaled value in hundredths, rounded half-up. Only defined for units other than
+     * {@link #BYTE}.
+     */
+    long scaledHundredths(long bytes) {
+      long step = divisor / 100;
+      long hundredths = bytes / step;
+      return (bytes % step) * 2 >= step ? hundredths + 1 : hundredths;
     }
   }
 
+  private record Symbols(Locale locale, char zeroDigit, char decimalSeparator,
+                         String negativePrefix) {
+
+    static Symbols of(Locale locale) {
+      DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+      return new Symbols(locale, symbols.getZeroDigit(), symbols.getDecimalSeparator(),
+          new DecimalFormat("#0.00", symbols).getNegativePrefix());
+    }
+  }
+
+  private static volatile Symbols cachedSymbols = Symbols.of(Locale.getDefault(Category.FORMAT));
+
+  private static Symbols symbols() {
+    Locale locale = Locale.getDefault(Category.FORMAT);
+    Symbols symbols = cachedSymbols;
+    if (!symbols.locale().equals(locale)) {
+      symbols = Symbols.of(locale);
+      cachedSymbols = symbols;
+    }
+    return symbols;
+  }
+
   /**
    * Formats a file size to the respective human-readable unit.
    * <ul>
@@ -57,12 +91,9 @@ public class FileSizeFormatter {
    * @return a string representing the file size in human-readable format
    */
   public static String format(FileSize fileSize, int minWidth) {
-    minWidth = Math.max(minWidth, 1);
-    Unit bestUnit = Unit.bestFor(fileSize);
-    DecimalFormat decimalFormat = new DecimalFormat("#0.00");
-    decimalFormat.setRoundingMode(RoundingMode.HALF_UP);
-    return String.format("%" + minWidth + "s %2s",
-        decimalFormat.format(bestUnit.scaledValue(fileSize.bytes())), bestUnit.symbol());
+    StringBuilder result = new StringBuilder(16);
+    formatTo(result, fileSize.bytes(), minWidth);
+    return result.toString();
   }
 
   /**
@@ -81,4 +112,66 @@ public class FileSizeFormatter {
     return format(fileSize, 1);
   }
 
+  /**
+   * Appends a file size in the respective human-readable unit to the target. The output is the
+   * same as the output of {@link #format(FileSize, int)}, without creating intermediate objects.
+   *
+   * @param target   the builder to append to
+   * @param bytes    the file size in bytes
+   * @param minWidth the minimal width of the number
+   * @return the target
+   * @see #format(FileSize, int)
+   */
+  public static StringBuilder formatTo(StringBuilder target, long bytes, int minWidth) {
+    Symbols symbols = symbols();
+    Unit unit = Unit.bestFor(bytes);
+    // digits are computed on negative values, so Long.MIN_VALUE needs no special treatment
+    long negativeIntegerPart;
+    long fraction;
+    if (unit == Unit.BYTE) {
+      negativeIntegerPart = bytes < 0 ? bytes : -bytes;
+      fraction = 0;
+    } else {
+      long hundredths = unit.scaledHundredths(bytes);
+      negativeIntegerPart = -(hundredths / 100);
+      fraction = hundredths % 100;
+    }
+    int integerDigits = countDigits(negativeIntegerPart);
+    int width = (bytes < 0 ? symbols.negativePrefix().length() : 0) + integerDigits + 3;
+    for (int i = width; i < Math.max(minWidth, 1); i++) {
+      target.append(' ');
+    }
+    if (bytes < 0) {
+      target.append(symbols.negativePrefix());
+    }
+    appendDigits(target, negativeIntegerPart, integerDigits, symbols.zeroDigit());
+    target.append(symbols.decimalSeparator())
+        .append((char) (symbols.zeroDigit() + fraction / 10))
+        .append((char) (symbols.zeroDigit() + fraction % 10))
+        .append(' ');
+    if (unit.symbol().length() < 2) {
+      target.append(' ');
+    }
+    return target.append(unit.symbol());
+  }
+
+  private static int countDigits(long negativeValue) {
+    int digits = 1;
+    for (long value = negativeValue; value <= -10; value /= 10) {
+      digits++;
+    }
+    return digits;
+  }
+
+  private static void appendDigits(StringBuilder target, long negativeValue, int digits,
+      char zeroDigit) {
+    int start = target.length();
+    target.setLength(start + digits);
+    long value = negativeValue;
+    for (int i = start + digits - 1; i >= start; i--) {
+      target.setCharAt(i, (char) (zeroDigit - value % 10));
+      value /= 10;
+    }
+  }
+
 }
@@ -0,0 +1,227 @@
+package life.qbic.qpostman.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Metadata stored on disk between runs.
+ * <p>
+ * Every entry is a serialized value stored in its own file below a namespace directory. An entry
+ * remembers when it was written, so readers can decide whether it is recent enough. Reading an
+ * entry marks it as used. Once the entries take more than the maximal size, the least recently
+ * used entries are deleted by {@link #evict()}.
+ * <p>
+ * The cache never fails a command. Entries that can not be read or written are treated as
+ * missing.
+ * <p>
+ * Only classes of the JDK, of the openBIS API and of postman are deserialized. Entries containing
+ * other classes are treated as unreadable, so a manipulated cache file can not instantiate
+ * arbitrary classes.
+ */
+public final class MetadataCache {
+
+  private static final Logger log = LogManager.getLogger(MetadataCache.class);
+
+  private static final String ENTRY_SUFFIX = ".ser";
+
+  private static final ObjectInputFilter ENTRY_FILTER = ObjectInputFilter.Config.createFilter(
+      "java.**;ch.ethz.sis.openbis.generic.**;life.qbic.qpostman.**;!*");
+
+  private final Path directory;
+  private final long maxBytes;
+
+  /**
+   * @param directory the directory the entries are stored in
+   * @param maxBytes  the size the entries are reduced to by {@link #evict()}
+   */
+  public MetadataCache(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * The cache directory of postman following the XDG base directory specification:
+   * {@code $XDG_CACHE_HOME/postman} if the variable is set and {@code ~/.cache/postman}
+   * otherwise.
+   *
+   * @return the default cache directory
+   */
+  public static Path defaultDirectory() {
+    return Optional.ofNullable(System.getenv("XDG_CACHE_HOME"))
+        .filter(it -> !it.isBlank())
+        .map(Path::of)
+        .orElseGet(() -> Path.of(System.getProperty("user.home"), ".cache"))
+        .resolve("postman");
+  }
+
+  /**
+   * Reads an entry if it was written at most {@code maxAge} ago.
+   *
+   * @param namespace the namespace of the entry
+   * @param key       the key of the entry within the namespace
+   * @param type      the expected type of the value
+   * @param maxAge    the maximal age of the entry; empty to accept entries of any age
+   * @param <T>       the type of the value
+   * @return the value of the entry, empty if there is no recent enough entry
+   */
+  public <T extends Serializable> Optional<T> read(String namespace, String key, Class<T> type,
+      Optional<Duration> maxAge) {
+    Path entryFile = entryFile(namespace, key);
+    Entry entry;
+    try (InputStream inputStream = Files.newInputStream(entryFile);
+        ObjectInputStream objectInputStream = new ObjectInputStream(inputStream)) {
+      objectInputStream.setObjectInputFilter(ENTRY_FILTER);
+      entry = (Entry) objectInputStream.readObject();
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      // e.g. written by a version with incompatible classes or rejected by the filter
+      log.debug("Ignoring unreadable cache entry " + entryFile + ": " + e.getMessage());
+      return Optional.empty();
+    }
+    if (!entry.key().equals(key) || !type.isInstance(entry.value())) {
+      return Optional.empty();
+    }
+    if (maxAge.isPresent() && entry.writtenAt().plus(maxAge.get()).isBefore(Instant.now())) {
+      log.debug("Cache entry " + namespace + "/" + key + " expired");
+      return Optional.empty();
+    }
+    touch(entryFile);
+    return Optional.of(type.cast(entry.value()));
+  }
+
+  /**
+   * Writes an entry, replacing an existing entry with the same key.
+   *
+   * @param namespace the namespace of the entry
+   * @param key       the key of the entry within the namespace
+   * @param value     the value of the entry
+   */
+  public void write(String namespace, String key, Serializable value) {
+    Path entryFile = entryFile(namespace, key);
+    Path temporaryFile = null;
+    try {
+      Files.createDirectories(entryFile.getParent());
+      temporaryFile = Files.createTempFile(entryFile.getParent(), "entry", ".tmp");
+      try (OutputStream outputStream = Files.newOutputStream(temporaryFile);
+          ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream)) {
+        objectOutputStream.writeObject(new Entry(key, Instant.now(), value));
+      }
+      try {
+        Files.move(temporaryFile, entryFile, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporaryFile, entryFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException | RuntimeException e) {
+      log.debug("Could not write cache entry " + entryFile + ": " + e.getMessage());
+      deleteQuietly(temporaryFile);
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries until all entries together take at most the maximal
+   * size.
+   */
+  public void evict() {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    List<CachedFile> cachedFiles = new ArrayList<>();
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.filter(Files::isRegularFile)
+          .filter(file -> file.getFileName().toString().endsWith(ENTRY_SUFFIX))
+          .forEach(file -> {
+            try {
+              cachedFiles.add(new CachedFile(file, Files.size(file), Files.getLastModifiedTime(file)));
+            } catch (IOException e) {
+              // deleted concurrently
+            }
+          });
+    } catch (IOException | RuntimeException e) {
+      log.debug("Could not list cache entries in " + directory + ": " + e.getMessage());
+      return;
+    }
+    long totalBytes = cachedFiles.stream().mapToLong(CachedFile::size).sum();
+    if (totalBytes <= maxBytes) {
+      return;
+    }
+    cachedFiles.sort(Comparator.comparing(CachedFile::lastUsed));
+    for (CachedFile cachedFile : cachedFiles) {
+      if (totalBytes <= maxBytes) {
+        break;
+      }
+      deleteQuietly(cachedFile.file());
+      totalBytes -= cachedFile.size();
+    }
+    log.debug("Evicted cache entries down to " + totalBytes + " bytes");
+  }
+
+  private Path entryFile(String namespace, String key) {
+    return directory.resolve(namespace).resolve(hash(key) + ENTRY_SUFFIX);
+  }
+
+  private static String hash(String key) {
+    try {
+      MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+      return HexFormat.of().formatHex(messageDigest.digest(key.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not supported", e);
+    }
+  }
+
+  private static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+    } catch (IOException e) {
+      // the entry is evicted earlier than necessary
+    }
+  }
+
+  private static void deleteQuietly(Path file) {
+    if (Objects.isNull(file)) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      log.debug("Could not delete " + file + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * The value of an entry together with its key, so hash collisions are detected.
+   */
+  private record Entry(String key, Instant writtenAt, Serializable value) implements Serializable {
+
+  }
+
+  private record CachedFile(Path file, long size, FileTime lastUsed) {
+
+  }
+}
@@ -0,0 +1,14 @@
+package life.qbic.qpostman.common;
+
+/**
+ * Exception to indicate that metadata is not available offline.
+ * <p>
+ * This exception shall be thrown, when a command runs without connecting to openBIS and the
+ * requested metadata was not stored in the metadata cache by a previous run.
+ */
+public class MissingMetadataException extends RuntimeException {
+
+  public MissingMetadataException(String message) {
+    super(message);
+  }
+}
@@ -1,10 +1,5 @@
 package life.qbic.qpostman.common;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.TimeZone;
-import life.qbic.qpostman.common.structures.FileSize;
 
 
 public class ProgressBar {
@@ -20,6 +15,7 @@ public class ProgressBar {
   private Long downloadedSize;
   private final long start;
   private long lastUpdated;
+  private final StringBuilder progressBar = new StringBuilder(TERMINAL_WIDTH * 2);
 
   public ProgressBar(String fileName, long totalFileSize) {
     this.fileName = shortenFileName(fileName);
@@ -83,7 +79,9 @@ public class ProgressBar {
   }
 
   private String buildProgressBar() {
-    StringBuilder progressBar = new StringBuilder("[");
+    StringBuilder progressBar = this.progressBar;
+    progressBar.setLength(0);
+    progressBar.append('[');
     int numberProgressStrings = Math.min((int) (this.downloadedSize / this.stepSize), BARSIZE);
 
     double elapsedTimeSeconds = (System.currentTimeMillis() - this.start) / 1000.0;
@@ -93,26 +91,42 @@ public class ProgressBar {
 
     // Estimate remaining download time
     long remainingDownloadTime = estimateRemainingTime(downloadSpeed * 1000000.0 / 1000.0);
-    DateFormat dateFormat = new SimpleDateFormat("HH:mm:ss");
-    dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-    String remainingTime = dateFormat.format(new Date(remainingDownloadTime));
 
-    progressBar.append("#".repeat(Math.max(0, numberProgressStrings)));
-    progressBar.append(" ".repeat(Math.max(0, BARSIZE - numberProgressStrings)));
+    for (int i = 0; i < BARSIZE; i++) {
+      progressBar.append(i < numberProgressStrings ? '#' : ' ');
+    }
 
     progressBar.append("]\t");
-    FileSize downloadedSize = FileSize.of(this.downloadedSize);
-    FileSize totalSize = FileSize.of(totalFileSize);
-    progressBar.append(
-        String.format(
-            "%s / %s [%s] (%.02f Mb/s)",
-            FileSizeFormatter.format(downloadedSize, 6),
-            FileSizeFormatter.format(totalSize),
-            remainingTime,
-            downloadSpeed));
+    FileSizeFormatter.formatTo(progressBar, this.downloadedSize, 6);
+    progressBar.append(" / ");
+    FileSizeFormatter.formatTo(progressBar, totalFileSize, 1);
+    progressBar.append(" [");
+    appendTimeOfDay(progressBar, remainingDownloadTime);
+    progressBar.append("] (")
+        .append(String.format("%.02f", downloadSpeed))
+        .append(" Mb/s)");
     return progressBar.toString();
   }
 
+  /**
+   * Appends the time of day of the milliseconds since the epoch in UTC as HH:mm:ss.
+   */
+  private static void appendTimeOfDay(StringBuilder target, long epochMillis) {
+    long secondOfDay = Math.floorMod(Math.floorDiv(epochMillis, 1000L), 24 * 60 * 60);
+    appendTwoDigits(target, secondOfDay / 3600);
+    target.append(':');
+    appendTwoDigits(target, secondOfDay / 60 % 60);
+    target.append(':');
+    appendTwoDigits(target, secondOfDay % 60);
+  }
+
+  private static void appendTwoDigits(StringBuilder target, long value) {
+    if (value < 10) {
+      target.append('0');
+    }
+    target.append(value);
+  }
+
   /**
    * Estimates the remaining download time in milliseconds.
    *
@@ -0,0 +1,77 @@
+package life.qbic.qpostman.common;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Objects;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.ConsoleAppender;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+
+/**
+ * Gives exclusive access to the standard output of the process, so that data can be written to
+ * it.
+ * <p>
+ * Once the standard output is claimed, console logging and everything printed to
+ * {@link System#out} goes to the standard error instead.
+ */
+public final class StandardOutput {
+
+  private static final String CONSOLE_APPENDER = "Console";
+
+  private static OutputStream standardOutput;
+
+  private StandardOutput() {
+  }
+
+  /**
+   * Claims the standard output for data. Subsequent calls return the same stream.
+   *
+   * @return an unbuffered stream writing to the standard output
+   */
+  public static synchronized OutputStream claim() {
+    if (Objects.isNull(standardOutput)) {
+      System.out.flush();
+      standardOutput = new FileOutputStream(FileDescriptor.out);
+      System.setOut(System.err);
+      redirectConsoleLogging();
+    }
+    return standardOutput;
+  }
+
+  /**
+   * Replaces the console appender of the root logger with an appender writing to the standard
+   * error. Layout and level of the console appender are kept.
+   */
+  private static void redirectConsoleLogging() {
+    LoggerContext context = (LoggerContext) LogManager.getContext(false);
+    Configuration configuration = context.getConfiguration();
+    Appender console = configuration.getAppender(CONSOLE_APPENDER);
+    if (Objects.isNull(console)) {
+      return;
+    }
+    ConsoleAppender consoleErr = ConsoleAppender.newBuilder()
+        .setName(CONSOLE_APPENDER + "Err")
+        .setTarget(ConsoleAppender.Target.SYSTEM_ERR)
+        .setLayout(console.getLayout())
+        .setConfiguration(configuration)
+        .build();
+    consoleErr.start();
+    configuration.addAppender(consoleErr);
+    LoggerConfig rootLogger = configuration.getRootLogger();
+    Level level = rootLogger.getAppenderRefs().stream()
+        .filter(appenderRef -> CONSOLE_APPENDER.equals(appenderRef.getRef()))
+        .map(AppenderRef::getLevel)
+        .filter(Objects::nonNull)
+        .findFirst()
+        .orElse(null);
+    rootLogger.removeAppender(CONSOLE_APPENDER);
+    rootLogger.addAppender(consoleErr, level, null);
+    context.updateLoggers();
+  }
+}
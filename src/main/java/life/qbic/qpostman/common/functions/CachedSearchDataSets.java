@@ -0,0 +1,101 @@
+package life.qbic.qpostman.common.functions;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet;
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import life.qbic.qpostman.common.MetadataCache;
+import life.qbic.qpostman.common.MissingMetadataException;
+import life.qbic.qpostman.common.structures.DataSetWrapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Searches for datasets using the metadata cache.
+ * <p>
+ * The datasets found for every sample identifier are cached together with their samples, so
+ * changing some identifiers keeps the cached datasets of the others. The cached samples include
+ * the sample parents, so source samples are resolved from the cache as well. Cached datasets are
+ * reused until the time to live elapsed; only the identifiers without recent enough datasets are
+ * passed to the delegate. Offline, cached datasets are reused regardless of their age and the
+ * delegate is never called.
+ */
+public class CachedSearchDataSets implements Function<Collection<String>, Collection<DataSetWrapper>> {
+
+    private static final Logger log = LogManager.getLogger(CachedSearchDataSets.class);
+    private static final String NAMESPACE = "datasets";
+    private final Function<Collection<String>, Map<String, Collection<DataSetWrapper>>> searchDataSets;
+    private final MetadataCache metadataCache;
+    private final String scope;
+    private final Duration timeToLive;
+    private final boolean offline;
+    private final FindSourceSample findSourceSample;
+
+    /**
+     * @param searchDataSets   the search used for identifiers without recent enough cached
+     *                         datasets, returning the datasets of every identifier
+     * @param metadataCache    the cache
+     * @param scope            the user and server the datasets are searched for, as different users
+     *                         may see different datasets
+     * @param timeToLive       how long cached datasets are reused
+     * @param offline          true if only the cache is used
+     * @param findSourceSample finds the source samples of cached datasets
+     */
+    public CachedSearchDataSets(Function<Collection<String>, Map<String, Collection<DataSetWrapper>>> searchDataSets,
+        MetadataCache metadataCache, String scope, Duration timeToLive, boolean offline,
+        FindSourceSample findSourceSample) {
+        this.searchDataSets = searchDataSets;
+        this.findSourceSample = findSourceSample;
+        this.metadataCache = metadataCache;
+        this.scope = scope;
+        this.timeToLive = timeToLive;
+        this.offline = offline;
+    }
+
+    @Override
+    public Collection<DataSetWrapper> apply(Collection<String> sampleIdentifiers) {
+        Set<DataSetWrapper> dataSets = new HashSet<>();
+        Set<String> identifiers = new LinkedHashSet<>(sampleIdentifiers);
+        List<String> uncachedIdentifiers = new ArrayList<>();
+        for (String sampleIdentifier : identifiers) {
+            metadataCache.read(NAMESPACE, key(sampleIdentifier), CachedDataSets.class,
+                    offline ? Optional.empty() : Optional.of(timeToLive))
+                .ifPresentOrElse(
+                    cachedDataSets -> cachedDataSets.dataSets()
+                        .forEach(dataSet -> dataSets.add(new DataSetWrapper(dataSet, findSourceSample))),
+                    () -> uncachedIdentifiers.add(sampleIdentifier));
+        }
+        log.debug("using cached datasets for " + (identifiers.size() - uncachedIdentifiers.size())
+            + " / " + identifiers.size() + " identifiers");
+        if (uncachedIdentifiers.isEmpty()) {
+            return dataSets;
+        }
+        if (offline) {
+            throw new MissingMetadataException("No datasets cached for " + String.join(", ", uncachedIdentifiers));
+        }
+        searchDataSets.apply(uncachedIdentifiers).forEach((sampleIdentifier, foundDataSets) -> {
+            // the datasets of an identifier share their samples, so they are written together
+            ArrayList<DataSet> dataSetsToCache = new ArrayList<>(foundDataSets.size());
+            foundDataSets.forEach(dataSet -> dataSetsToCache.add(dataSet.dataSet()));
+            metadataCache.write(NAMESPACE, key(sampleIdentifier), new CachedDataSets(dataSetsToCache));
+            dataSets.addAll(foundDataSets);
+        });
+        return dataSets;
+    }
+
+    private String key(String sampleIdentifier) {
+        return scope + " " + sampleIdentifier;
+    }
+
+    private record CachedDataSets(ArrayList<DataSet> dataSets) implements Serializable {
+
+    }
+}
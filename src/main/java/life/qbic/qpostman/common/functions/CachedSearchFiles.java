@@ -0,0 +1,165 @@
+package life.qbic.qpostman.common.functions;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet;
+import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import life.qbic.qpostman.common.MetadataCache;
+import life.qbic.qpostman.common.MissingMetadataException;
+import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.common.structures.DataSetWrapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Searches for data files using the metadata cache.
+ * <p>
+ * The files of every dataset are cached by the dataset permId together with the registration and
+ * modification date of the dataset. Cached files are reused as long as both dates are unchanged.
+ * Only the datasets without usable cached files are passed to the delegate. Offline, the delegate
+ * is never called. When publishing, the cached files are published before the delegate starts.
+ * The files found by the delegate are cached as soon as it publishes them.
+ * <p>
+ * After the search, the least recently used entries are evicted from the cache.
+ */
+public class CachedSearchFiles implements FileSearch {
+
+    private static final Logger log = LogManager.getLogger(CachedSearchFiles.class);
+    private static final String NAMESPACE = "files";
+    private final FileSearch searchFiles;
+    private final Collection<IDataStoreServerApi> dataStoreServerApis;
+    private final MetadataCache metadataCache;
+    private final boolean offline;
+
+    /**
+     * @param searchFiles         the search used for datasets without usable cached files
+     * @param dataStoreServerApis the datastore servers the cached files are hosted on
+     * @param metadataCache       the cache
+     * @param offline             true if only the cache is used
+     */
+    public CachedSearchFiles(FileSearch searchFiles,
+        Collection<IDataStoreServerApi> dataStoreServerApis, MetadataCache metadataCache,
+        boolean offline) {
+        this.searchFiles = searchFiles;
+        this.dataStoreServerApis = dataStoreServerApis;
+        this.metadataCache = metadataCache;
+        this.offline = offline;
+    }
+
+    @Override
+    public Collection<DataFile> apply(Collection<DataSetWrapper> dataSets) {
+        // files are published from multiple threads
+        Queue<DataFile> dataFiles = new ConcurrentLinkedQueue<>();
+        publish(dataSets, dataFiles::addAll);
+        return new ArrayList<>(dataFiles);
+    }
+
+    /**
+     * Publishes the cached files first and then the files found by the delegate as it publishes
+     * them.
+     */
+    @Override
+    public void publish(Collection<DataSetWrapper> dataSets, Consumer<List<DataFile>> consumer) {
+        // the datastore servers are known by their url only after a restart
+        Map<String, IDataStoreServerApi> dataStoreServersByUrl = new HashMap<>();
+        dataStoreServerApis.forEach(server -> dataStoreServersByUrl.put(server.toString(), server));
+
+        List<DataFile> cachedDataFiles = new ArrayList<>();
+        List<DataSetWrapper> uncachedDataSets = new ArrayList<>();
+        for (DataSetWrapper dataSet : dataSets) {
+            Optional<List<DataFile>> cachedFiles = metadataCache.read(NAMESPACE,
+                    dataSet.dataSetPermId().getPermId(), CachedFiles.class, Optional.empty())
+                .filter(it -> it.isValidFor(dataSet.dataSet()))
+                .flatMap(it -> it.toDataFiles(dataSet, dataStoreServersByUrl));
+            cachedFiles.ifPresentOrElse(cachedDataFiles::addAll, () -> uncachedDataSets.add(dataSet));
+        }
+        log.debug("using cached files for " + (dataSets.size() - uncachedDataSets.size()) + " / "
+            + dataSets.size() + " datasets");
+        if (!uncachedDataSets.isEmpty() && offline) {
+            throw new MissingMetadataException("No files cached for " + uncachedDataSets.size() + " datasets");
+        }
+        consumer.accept(cachedDataFiles);
+        if (!uncachedDataSets.isEmpty()) {
+            Set<String> cachedPermIds = ConcurrentHashMap.newKeySet();
+            searchFiles.publish(uncachedDataSets, dataFiles -> {
+                cachedPermIds.addAll(write(dataFiles));
+                consumer.accept(dataFiles);
+            });
+            // datasets without files are cached as well
+            uncachedDataSets.stream()
+                .filter(dataSet -> !cachedPermIds.contains(dataSet.dataSetPermId().getPermId()))
+                .forEach(dataSet -> write(dataSet, new ArrayList<>()));
+        }
+        metadataCache.evict();
+    }
+
+    /**
+     * Caches the files of every dataset the files belong to. The files must contain all files of
+     * these datasets.
+     *
+     * @return the permIds of the cached datasets
+     */
+    private Set<String> write(List<DataFile> dataFiles) {
+        Map<DataSetWrapper, ArrayList<CachedFile>> filesByDataSet = new LinkedHashMap<>();
+        for (DataFile dataFile : dataFiles) {
+            filesByDataSet.computeIfAbsent(dataFile.dataSet(), it -> new ArrayList<>())
+                .add(new CachedFile(dataFile.dataSetFile(), dataFile.dataStoreServer().toString()));
+        }
+        filesByDataSet.forEach(this::write);
+        return filesByDataSet.keySet().stream()
+            .map(dataSet -> dataSet.dataSetPermId().getPermId())
+            .collect(Collectors.toSet());
+    }
+
+    private void write(DataSetWrapper dataSet, ArrayList<CachedFile> files) {
+        metadataCache.write(NAMESPACE, dataSet.dataSetPermId().getPermId(), new CachedFiles(
+            dataSet.dataSet().getRegistrationDate(), dataSet.dataSet().getModificationDate(), files));
+    }
+
+    /**
+     * The files of a dataset at the time the dataset had the registration and modification date.
+     */
+    private record CachedFiles(Date registrationDate, Date modificationDate, ArrayList<CachedFile> files)
+        implements Serializable {
+
+        boolean isValidFor(DataSet dataSet) {
+            return Objects.equals(registrationDate, dataSet.getRegistrationDate())
+                && Objects.equals(modificationDate, dataSet.getModificationDate());
+        }
+
+        /**
+         * @return the data files, empty if one of the datastore servers is not configured
+         */
+        Optional<List<DataFile>> toDataFiles(DataSetWrapper dataSet,
+            Map<String, IDataStoreServerApi> dataStoreServersByUrl) {
+            List<DataFile> dataFiles = new ArrayList<>(files.size());
+            for (CachedFile file : files) {
+                IDataStoreServerApi dataStoreServer = dataStoreServersByUrl.get(file.dataStoreServerUrl());
+                if (Objects.isNull(dataStoreServer)) {
+                    return Optional.empty();
+                }
+                dataFiles.add(new DataFile(file.dataSetFile(), dataSet, dataStoreServer));
+            }
+            return Optional.of(dataFiles);
+        }
+    }
+
+    private record CachedFile(DataSetFile dataSetFile, String dataStoreServerUrl) implements Serializable {
+
+    }
+}
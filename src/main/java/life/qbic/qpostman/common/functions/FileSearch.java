@@ -0,0 +1,33 @@
+package life.qbic.qpostman.common.functions;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.common.structures.DataSetWrapper;
+
+/**
+ * Searches for the data files of datasets.
+ * <p>
+ * Besides returning all files at once, a search can publish the files while it is still running,
+ * so that they can be processed before the search finished.
+ */
+@FunctionalInterface
+public interface FileSearch extends Function<Collection<DataSetWrapper>, Collection<DataFile>> {
+
+  /**
+   * Searches for the data files of the datasets and publishes them in parts as they are found.
+   * The consumer may be called from multiple threads and may block to slow down the search. A
+   * published list contains all files of every dataset it has files of, so the files of a
+   * dataset are never split over several lists.
+   * <p>
+   * By default, all files are published at once after the search finished.
+   *
+   * @param dataSets the datasets to search files for
+   * @param consumer receives the found files
+   */
+  default void publish(Collection<DataSetWrapper> dataSets, Consumer<List<DataFile>> consumer) {
+    consumer.accept(List.copyOf(apply(dataSets)));
+  }
+}
@@ -3,12 +3,28 @@ package life.qbic.qpostman.common.functions;
 import static java.util.Objects.requireNonNull;
 
 import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.Sample;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
+/**
+ * Finds the first ancestor of a sample with the source sample type, searching the parents depth
+ * first in their order. If no ancestor has the source sample type, the sample itself is returned.
+ * <p>
+ * The source sample found for every visited sample is remembered by its permId, so samples sharing
+ * ancestors are resolved once. The remembered source samples are shared between threads. Parents
+ * are traversed without recursion, so deep lineages do not overflow the stack.
+ */
 public class FindSourceSample implements Function<Sample, Sample> {
     private final String sourceSampleTypeCode;
+    // samples without a source sample among their ancestors are remembered as empty
+    private final Map<String, Optional<Sample>> sourceSamples = new ConcurrentHashMap<>();
 
     public FindSourceSample(String sourceSampleTypeCode) {
         this.sourceSampleTypeCode = sourceSampleTypeCode;
@@ -21,19 +37,50 @@ public class FindSourceSample implements Function<Sample, Sample> {
     }
 
     private Optional<Sample> findSourceSample(Sample sample) {
-        if (sample.getType().getCode().equals(sourceSampleTypeCode)) {
-            return Optional.of(sample);
+        Optional<Sample> sourceSample = knownSourceSample(sample);
+        if (sourceSample != null) {
+            return sourceSample;
         }
-        List<Sample> parents = sample.getParents();
-        if (parents.isEmpty()) {
-            return Optional.empty();
-        }
-        for (Sample parent : parents) {
-            Optional<Sample> sourceSample = findSourceSample(parent);
-            if (sourceSample.isPresent()) {
-                return sourceSample;
+        Deque<Visit> path = new ArrayDeque<>();
+        Set<String> samplesOnPath = new HashSet<>();
+        path.push(new Visit(sample, sample.getParents().iterator()));
+        samplesOnPath.add(permId(sample));
+        while (!path.isEmpty()) {
+            Visit visit = path.peek();
+            // continue with the next parent unless a source sample was found for the last one
+            if (sourceSample == null || sourceSample.isEmpty()) {
+                if (visit.parents().hasNext()) {
+                    Sample parent = visit.parents().next();
+                    sourceSample = knownSourceSample(parent);
+                    if (sourceSample == null && samplesOnPath.add(permId(parent))) {
+                        path.push(new Visit(parent, parent.getParents().iterator()));
+                    }
+                    continue;
+                }
+                sourceSample = Optional.empty();
             }
+            path.pop();
+            samplesOnPath.remove(permId(visit.sample()));
+            sourceSamples.put(permId(visit.sample()), sourceSample);
         }
-        return Optional.empty();
+        return sourceSample;
+    }
+
+    /**
+     * @return the source sample if it is known without visiting the parents, null otherwise
+     */
+    private Optional<Sample> knownSourceSample(Sample sample) {
+        if (sample.getType().getCode().equals(sourceSampleTypeCode)) {
+            return Optional.of(sample);
+        }
+        return sourceSamples.get(permId(sample));
+    }
+
+    private static String permId(Sample sample) {
+        return sample.getPermId().getPermId();
+    }
+
+    private record Visit(Sample sample, Iterator<Sample> parents) {
+
     }
 }
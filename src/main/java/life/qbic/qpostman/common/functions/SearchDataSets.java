@@ -6,30 +6,47 @@ import ch.ethz.sis.openbis.generic.asapi.v3.IApplicationServerApi;
 import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.Sample;
 import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.fetchoptions.SampleFetchOptions;
 import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.search.SampleSearchCriteria;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
-import java.util.stream.Stream;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import life.qbic.qpostman.common.structures.DataSetWrapper;
+import life.qbic.qpostman.openbis.ConcurrentRequests;
 import life.qbic.qpostman.openbis.OpenBisSessionProvider;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 public class SearchDataSets implements Function<Collection<String>, Collection<DataSetWrapper>> {
     private static final Logger log = LogManager.getLogger(SearchDataSets.class);
+    /**
+     * The maximal number of sample codes searched for in a single request.
+     */
+    private static final int CODES_PER_REQUEST = 100;
+    /**
+     * The maximal number of concurrent sample search requests.
+     */
+    private static final int PARALLEL_REQUESTS = 4;
     private final IApplicationServerApi applicationServerApi;
+    private final FindSourceSample findSourceSample;
 
-    public SearchDataSets(IApplicationServerApi applicationServerApi) {
+    /**
+     * @param applicationServerApi the server to search on
+     * @param findSourceSample     finds the source samples of the found datasets
+     */
+    public SearchDataSets(IApplicationServerApi applicationServerApi, FindSourceSample findSourceSample) {
         this.applicationServerApi = applicationServerApi;
+        this.findSourceSample = findSourceSample;
     }
 
     private Collection<DataSetWrapper> searchDataSets(Collection<String> userInput) {
-        List<Sample> samples = userInput.stream()
-                .map(SampleQuery::new)
-                .flatMap(this::searchSamples)
-                .toList();
+        List<Sample> samples = searchRootSamples(userInput);
         Set<String> processedSampleCodes = new HashSet<>();
         Set<DataSetWrapper> foundDataSets = new HashSet<>();
         for (Sample it : samples) {
@@ -38,9 +55,57 @@ public class SearchDataSets implements Function<Collection<String>, Collection<D
         return foundDataSets;
     }
 
-    private Stream<Sample> searchSamples(SampleQuery sampleQuery) {
+    /**
+     * Searches the datasets of every sample identifier. The identifiers are searched together as
+     * in {@link #apply(Collection)}, and the found samples are assigned to the identifiers matching
+     * their code.
+     *
+     * @param sampleIdentifiers the sample identifiers, may contain {@code *} as wildcard
+     * @return the datasets found for every identifier; identifiers without datasets are mapped to
+     * an empty collection
+     */
+    public Map<String, Collection<DataSetWrapper>> searchByIdentifier(Collection<String> sampleIdentifiers) {
+        List<Sample> samples = searchRootSamples(sampleIdentifiers);
+        Map<String, Collection<DataSetWrapper>> dataSetsByIdentifier = new HashMap<>();
+        for (String sampleIdentifier : new LinkedHashSet<>(sampleIdentifiers)) {
+            Pattern pattern = codePattern(sampleIdentifier);
+            Set<String> processedSampleCodes = new HashSet<>();
+            Set<DataSetWrapper> foundDataSets = new HashSet<>();
+            for (Sample it : samples) {
+                if (pattern.matcher(it.getCode()).matches()) {
+                    addAllDataSets(it, processedSampleCodes, foundDataSets);
+                }
+            }
+            dataSetsByIdentifier.put(sampleIdentifier, foundDataSets);
+        }
+        return dataSetsByIdentifier;
+    }
+
+    /**
+     * @return a pattern matching the sample codes the identifier is searched for
+     */
+    static Pattern codePattern(String sampleIdentifier) {
+        String regex = Arrays.stream(sampleIdentifier.split("\\*", -1))
+            .map(Pattern::quote)
+            .collect(Collectors.joining(".*"));
+        return Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+    }
+
+    private List<Sample> searchRootSamples(Collection<String> userInput) {
+        List<SampleQuery> sampleQueries = ConcurrentRequests.chunks(List.copyOf(new LinkedHashSet<>(userInput)), CODES_PER_REQUEST).stream()
+                .map(SampleQuery::new)
+                .toList();
+        log.debug("searching " + userInput.size() + " sample codes in " + sampleQueries.size() + " requests");
+        // the sample graphs in request order; samples found by several requests are visited once by the callers
+        return ConcurrentRequests.apply(sampleQueries, this::searchSamples, PARALLEL_REQUESTS, "sample-search")
+                .stream()
+                .flatMap(List::stream)
+                .toList();
+    }
+
+    private List<Sample> searchSamples(SampleQuery sampleQuery) {
 
-        return applicationServerApi.searchSamples(OpenBisSessionProvider.get().getToken(), sampleQuery.searchCriteria(), sampleQuery.fetchOptions()).getObjects().stream();
+        return applicationServerApi.searchSamples(OpenBisSessionProvider.get().getToken(), sampleQuery.searchCriteria(), sampleQuery.fetchOptions()).getObjects();
     }
 
     @Override
@@ -48,13 +113,20 @@ public class SearchDataSets implements Function<Collection<String>, Collection<D
         return searchDataSets(strings);
     }
 
-    private record SampleQuery(String sampleCode) {
+    private record SampleQuery(List<String> sampleCodes) {
         SampleQuery {
-            requireNonNull(sampleCode, "sampleCode must not be null");
+            requireNonNull(sampleCodes, "sampleCodes must not be null");
         }
+        /**
+         * Matches any of the sample codes. The codes are or-ed equality criteria instead of a single
+         * code-in-list criterion, so codes containing wildcards keep working.
+         */
         public SampleSearchCriteria searchCriteria() {
             SampleSearchCriteria sampleSearchCriteria = new SampleSearchCriteria();
-            sampleSearchCriteria.withCode().thatEquals(sampleCode);
+            sampleSearchCriteria.withOrOperator();
+            for (String sampleCode : sampleCodes) {
+                sampleSearchCriteria.withCode().thatEquals(sampleCode);
+            }
             return sampleSearchCriteria;
         }
 
@@ -62,9 +134,10 @@ public class SearchDataSets implements Function<Collection<String>, Collection<D
             // for all samples fetch the direct parents with type
             SampleFetchOptions parentFetchOptions = new SampleFetchOptions();
             parentFetchOptions.withType();
-            // fetch dataset with sample, sample type and parents with type, propagate fetch options to children.
+            // fetch dataset with sample and data store, sample type and parents with type, propagate fetch options to children.
             SampleFetchOptions sampleFetchOptions = new SampleFetchOptions();
             sampleFetchOptions.withDataSets().withSample();
+            sampleFetchOptions.withDataSets().withDataStore();
             sampleFetchOptions.withType();
             sampleFetchOptions.withParents();
             sampleFetchOptions.withParentsUsing(parentFetchOptions);
@@ -76,6 +149,7 @@ public class SearchDataSets implements Function<Collection<String>, Collection<D
             // use same fetch options as for all other samples + fetching all parents recursively instead of direct parents.
             SampleFetchOptions rootSampleFetchOptions = new SampleFetchOptions();
             rootSampleFetchOptions.withDataSets().withSample();
+            rootSampleFetchOptions.withDataSets().withDataStore();
             rootSampleFetchOptions.withType();
             rootSampleFetchOptions.withParents();
             rootSampleFetchOptions.withChildrenUsing(sampleFetchOptions);
@@ -92,7 +166,7 @@ public class SearchDataSets implements Function<Collection<String>, Collection<D
             log.trace("visiting " + sample.getCode());
         }
         List<DataSetWrapper> dataSetList = sample.getDataSets().stream()
-                .map(DataSetWrapper::new)
+                .map(dataSet -> new DataSetWrapper(dataSet, findSourceSample))
                 .toList();
         dataSetAccumulator.addAll(dataSetList);
         processedSampleCodes.add(sample.getCode());
@@ -3,16 +3,35 @@ package life.qbic.qpostman.common.functions;
 import static java.util.Objects.requireNonNull;
 
 import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.id.DataSetPermId;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.search.DataSetSearchCriteria;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.datastore.DataStore;
 import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
 import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
 import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.fetchoptions.DataSetFileFetchOptions;
 import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.search.DataSetFileSearchCriteria;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.function.Function;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import life.qbic.qpostman.common.structures.DataFile;
 import life.qbic.qpostman.common.structures.DataSetWrapper;
+import life.qbic.qpostman.openbis.ConcurrentRequests;
 import life.qbic.qpostman.openbis.OpenBisSessionProvider;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -20,11 +39,29 @@ import org.apache.logging.log4j.Logger;
 /**
  * Searches for data files based on a collection of DataSetWrapper objects.
  * It utilizes a collection of IDataStoreServerApi instances to perform the search querying every datastore and aggregating the files.
+ * The datasets are searched in batches, and the requests to all datastores run concurrently.
+ * The datasets of a data store are only searched on the datastore server whose url matches the
+ * download or remote url of the data store. Datasets of other data stores are searched on every
+ * datastore server.
+ * The files of a batch can be published as soon as all its requests finished, see {@link #publish(Collection, Consumer)}.
  */
-public class SearchFiles implements Function<Collection<DataSetWrapper>, Collection<DataFile>> {
+public class SearchFiles implements FileSearch {
 
     private static final Logger log = LogManager.getLogger(SearchFiles.class);
+    /**
+     * The maximal number of datasets whose files are searched in a single request.
+     */
+    private static final int DATASETS_PER_REQUEST = 100;
+    /**
+     * The maximal number of concurrent file search requests over all datastore servers.
+     */
+    private static final int PARALLEL_REQUESTS = 8;
     private final Collection<IDataStoreServerApi> dataStoreServerApis;
+    /**
+     * The datastore servers to search for every data store code, matched by the urls of the data
+     * store.
+     */
+    private final Map<String, Collection<IDataStoreServerApi>> dataStoreServersByCode = new ConcurrentHashMap<>();
     private final DataSetCounterUpdateListener dataSetCounterUpdateListener;
 
     public SearchFiles(Collection<IDataStoreServerApi> dataStoreServerApis,
@@ -36,29 +73,70 @@ public class SearchFiles implements Function<Collection<DataSetWrapper>, Collect
 
     @Override
     public Collection<DataFile> apply(Collection<DataSetWrapper> dataSetWrappers) {
-        return searchFiles(dataSetWrappers, dataSetCounterUpdateListener);
+        // the batches finish in any order but their files are returned in the order of the batches
+        Map<Integer, List<DataFile>> dataFilesByBatch = new ConcurrentSkipListMap<>();
+        searchFiles(dataSetWrappers, dataSetCounterUpdateListener, dataFilesByBatch::put);
+        return dataFilesByBatch.values().stream()
+            .flatMap(List::stream)
+            .toList();
+    }
+
+    /**
+     * Publishes the files of every batch of datasets as soon as all datastore servers of the batch
+     * answered, so every published list contains all files of the datasets it has files of. The
+     * files are not kept after they were published. The consumer is called from the request
+     * threads; while it blocks, the search does not send further requests on that thread.
+     */
+    @Override
+    public void publish(Collection<DataSetWrapper> dataSets, Consumer<List<DataFile>> consumer) {
+        searchFiles(dataSets, dataSetCounterUpdateListener, (batchIndex, dataFiles) -> consumer.accept(dataFiles));
     }
 
     @FunctionalInterface
     public interface DataSetCounterUpdateListener {
 
+        /**
+         * Called once before a search starts.
+         *
+         * @param numberOfDatasets the number of datasets that are searched
+         */
+        default void start(int numberOfDatasets) {
+        }
+
         void updateCounter(int numberOfDatasets);
     }
 
 
 
+    /**
+     * Shows the number of indexed datasets. The counter is updated concurrently by the search
+     * requests.
+     */
     public static class DataSetCounterProgressDisplay implements DataSetCounterUpdateListener {
 
-        final int maxCount;
+        int maxCount;
         int currCount;
 
+        /**
+         * Shows the number of datasets of the search as maximal count.
+         */
+        public DataSetCounterProgressDisplay() {
+            this(0);
+        }
+
         public DataSetCounterProgressDisplay(int maxCount) {
             this.maxCount = maxCount;
             currCount = 0;
         }
 
         @Override
-        public void updateCounter(int numberOfDatasets) {
+        public synchronized void start(int numberOfDatasets) {
+            maxCount = numberOfDatasets;
+            currCount = 0;
+        }
+
+        @Override
+        public synchronized void updateCounter(int numberOfDatasets) {
             currCount += numberOfDatasets;
             System.out.printf("Indexing dataset %4s / %s\r", currCount, maxCount);
         }
@@ -66,49 +144,187 @@ public class SearchFiles implements Function<Collection<DataSetWrapper>, Collect
 
 
 
-    private List<DataFile> searchFiles(Collection<DataSetWrapper> dataSets,
-        DataSetCounterUpdateListener updateListener) {
-        Stream<DataSetFileQuery> dataSetFileQueries = dataSets.stream()
-            .map(DataSetWrapper::dataSetPermId)
-            .map(DataSetFileQuery::new);
-        Stream<DataSetFile> dataSetFiles = dataSetFileQueries
-            .peek(it -> updateListener.updateCounter(1))
-            .flatMap(this::queryDataStoresForFiles);
-        Stream<DataFile> dataFiles = dataSetFiles
-            .map(dataSetFile -> {
-                DataSetPermId dataSetPermId = dataSetFile.getDataSetPermId();
-                DataSetWrapper dataSet = dataSets.stream()
-                    .filter(ds -> ds.dataSetPermId().equals(dataSetPermId)).findFirst()
-                    .orElseThrow();
-                return new DataFile(dataSetFile, dataSet);
-            });
-        return dataFiles.toList();
-    }
-
-    private Stream<DataSetFile> queryDataStoresForFiles(DataSetFileQuery dataSetFileQuery) {
-        return dataStoreServerApis.stream()
-                .flatMap(dataStoreServerApi ->
-                {
-                    List<DataSetFile> files = dataStoreServerApi.searchFiles(OpenBisSessionProvider.get().getToken(),
-                                    dataSetFileQuery.searchCriteria(),
-                                    dataSetFileQuery.fetchOptions())
-                            .getObjects();
-                    log.trace("Found " + files.size() + " files for "
-                        + dataSetFileQuery.dataSetPermId.getPermId() + " on "
-                        + dataStoreServerApi);
-                    return files.stream();
-                })
-                .filter(file -> !file.isDirectory()); // filter out all folders but keeps the files
-    }
-
-    private record DataSetFileQuery(DataSetPermId dataSetPermId) {
+    private void searchFiles(Collection<DataSetWrapper> dataSets,
+        DataSetCounterUpdateListener updateListener, BiConsumer<Integer, List<DataFile>> consumer) {
+        updateListener.start(dataSets.size());
+        Map<DataSetPermId, DataSetWrapper> dataSetsByPermId = indexByPermId(dataSets);
+        Map<Collection<IDataStoreServerApi>, List<DataSetPermId>> dataSetPermIdsByServers = dataSets.stream()
+            .collect(Collectors.groupingBy(this::dataStoreServers, LinkedHashMap::new,
+                Collectors.mapping(DataSetWrapper::dataSetPermId, Collectors.toList())));
+        List<DataSetBatch> batches = new ArrayList<>();
+        dataSetPermIdsByServers.forEach((servers, dataSetPermIds) -> {
+            for (List<DataSetPermId> permIds : ConcurrentRequests.chunks(dataSetPermIds, DATASETS_PER_REQUEST)) {
+                batches.add(new DataSetBatch(batches.size(), servers, permIds));
+            }
+        });
+        queryDataStoresForFiles(batches, updateListener, dataSetsByPermId, consumer);
+    }
+
+    /**
+     * Queries the datastore servers and passes the files of every batch to the consumer together
+     * with the index of the batch once all its requests finished.
+     */
+    private void queryDataStoresForFiles(List<DataSetBatch> batches,
+        DataSetCounterUpdateListener updateListener, Map<DataSetPermId, DataSetWrapper> dataSetsByPermId,
+        BiConsumer<Integer, List<DataFile>> consumer) {
+        List<DataSetFileQuery> dataSetFileQueries = new ArrayList<>();
+        for (DataSetBatch batch : batches) {
+            batch.pendingDataStores().set(batch.dataStoreServers().size());
+            batch.dataStoreServers().forEach(dataStoreServerApi -> dataSetFileQueries.add(new DataSetFileQuery(batch, dataStoreServerApi)));
+        }
+        log.debug("searching files of " + batches.stream().mapToInt(batch -> batch.dataSetPermIds().size()).sum()
+            + " datasets in " + dataSetFileQueries.size() + " requests");
+        ConcurrentRequests.run(dataSetFileQueries,
+            query -> {
+                DataSetBatch batch = query.batch();
+                batch.foundFiles().add(toDataFiles(queryDataStoreForFiles(query).stream(), dataSetsByPermId));
+                if (batch.pendingDataStores().decrementAndGet() == 0) {
+                    updateListener.updateCounter(batch.dataSetPermIds().size());
+                    List<DataFile> dataFiles = batch.foundFiles().stream()
+                        .flatMap(List::stream)
+                        .toList();
+                    batch.foundFiles().clear();
+                    consumer.accept(batch.index(), dataFiles);
+                }
+            }, PARALLEL_REQUESTS, "file-search");
+    }
+
+    /**
+     * @return the datastore server of the data store of the dataset if it is known, every datastore
+     * server otherwise
+     */
+    private Collection<IDataStoreServerApi> dataStoreServers(DataSetWrapper dataSet) {
+        return dataSet.dataStore()
+            .filter(dataStore -> Objects.nonNull(dataStore.getCode()))
+            .map(dataStore -> dataStoreServersByCode.computeIfAbsent(dataStore.getCode(),
+                code -> matchDataStoreServers(dataStore)))
+            .orElse(dataStoreServerApis);
+    }
+
+    private Collection<IDataStoreServerApi> matchDataStoreServers(DataStore dataStore) {
+        Set<String> dataStoreUrls = Stream.of(dataStore.getDownloadUrl(), dataStore.getRemoteUrl())
+            .filter(Objects::nonNull)
+            .map(SearchFiles::normalizeUrl)
+            .collect(Collectors.toSet());
+        // the datastore servers are known by their url
+        List<IDataStoreServerApi> matchingServers = dataStoreServerApis.stream()
+            .filter(server -> dataStoreUrls.contains(normalizeUrl(server.toString())))
+            .toList();
+        if (matchingServers.size() == 1) {
+            log.debug("data store " + dataStore.getCode() + " is served by " + matchingServers.get(0));
+            return matchingServers;
+        }
+        log.warn("Data store %s (%s) matches %s of the configured datastore urls. Its datasets are searched on every datastore."
+            .formatted(dataStore.getCode(), String.join(", ", dataStoreUrls), matchingServers.isEmpty() ? "none" : "several"));
+        return dataStoreServerApis;
+    }
+
+    /**
+     * Normalizes the url for comparison: the scheme and host are lower case, default ports and
+     * trailing slashes are removed.
+     */
+    static String normalizeUrl(String url) {
+        URI uri;
+        try {
+            uri = new URI(url.strip());
+        } catch (URISyntaxException e) {
+            return url.strip();
+        }
+        if (Objects.isNull(uri.getScheme()) || Objects.isNull(uri.getHost())) {
+            return url.strip();
+        }
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        boolean defaultPort = uri.getPort() == -1
+            || (scheme.equals("https") && uri.getPort() == 443)
+            || (scheme.equals("http") && uri.getPort() == 80);
+        String path = Objects.requireNonNullElse(uri.getPath(), "").replaceAll("/+$", "");
+        return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT)
+            + (defaultPort ? "" : ":" + uri.getPort()) + path;
+    }
+
+    /**
+     * Joins the files to the datasets they belong to. The datasets are indexed by their permId
+     * once, so the join takes linear time in the number of files and datasets.
+     *
+     * @param hostedFiles the files found on the datastore servers
+     * @param dataSets    the datasets the files were searched for
+     * @return the data files in the order of the hosted files
+     * @throws NoSuchElementException if a file belongs to none of the datasets
+     */
+    static List<DataFile> toDataFiles(Stream<HostedFile> hostedFiles, Collection<DataSetWrapper> dataSets) {
+        return toDataFiles(hostedFiles, indexByPermId(dataSets));
+    }
+
+    private static List<DataFile> toDataFiles(Stream<HostedFile> hostedFiles,
+        Map<DataSetPermId, DataSetWrapper> dataSetsByPermId) {
+        return hostedFiles
+            .map(hostedFile -> {
+                DataSetPermId dataSetPermId = hostedFile.dataSetFile().getDataSetPermId();
+                DataSetWrapper dataSet = dataSetsByPermId.get(dataSetPermId);
+                if (dataSet == null) {
+                    throw new NoSuchElementException("No dataset found for file " + DataFile.filePermId(hostedFile.dataSetFile()));
+                }
+                return new DataFile(hostedFile.dataSetFile(), dataSet, hostedFile.dataStoreServerApi());
+            })
+            .toList();
+    }
+
+    private List<HostedFile> queryDataStoreForFiles(DataSetFileQuery dataSetFileQuery) {
+        IDataStoreServerApi dataStoreServerApi = dataSetFileQuery.dataStoreServerApi();
+        List<DataSetFile> files = dataStoreServerApi.searchFiles(OpenBisSessionProvider.get().getToken(),
+                        dataSetFileQuery.searchCriteria(),
+                        dataSetFileQuery.fetchOptions())
+                .getObjects();
+        log.trace("Found " + files.size() + " files for "
+            + dataSetFileQuery.batch().dataSetPermIds().size() + " datasets on "
+            + dataStoreServerApi);
+        return files.stream()
+            .filter(file -> !file.isDirectory()) // filter out all folders but keeps the files
+            .map(file -> new HostedFile(file, dataStoreServerApi))
+            .toList();
+    }
+
+    private static Map<DataSetPermId, DataSetWrapper> indexByPermId(Collection<DataSetWrapper> dataSets) {
+        Map<DataSetPermId, DataSetWrapper> dataSetsByPermId = new HashMap<>();
+        for (DataSetWrapper dataSet : dataSets) {
+            dataSetsByPermId.putIfAbsent(dataSet.dataSetPermId(), dataSet);
+        }
+        return dataSetsByPermId;
+    }
+
+    /**
+     * A file together with the datastore server it was found on.
+     */
+    record HostedFile(DataSetFile dataSetFile, IDataStoreServerApi dataStoreServerApi) {
+    }
+
+    /**
+     * Data sets whose files are searched together on the same datastore servers. The batch is
+     * counted as indexed once all queried datastore servers answered. Until then, the files found
+     * by the servers that already answered are kept in the batch.
+     */
+    private record DataSetBatch(int index, Collection<IDataStoreServerApi> dataStoreServers,
+                                List<DataSetPermId> dataSetPermIds, AtomicInteger pendingDataStores,
+                                List<List<DataFile>> foundFiles) {
+        private DataSetBatch(int index, Collection<IDataStoreServerApi> dataStoreServers,
+            List<DataSetPermId> dataSetPermIds) {
+            this(index, dataStoreServers, dataSetPermIds, new AtomicInteger(),
+                Collections.synchronizedList(new ArrayList<>()));
+        }
+    }
+
+    private record DataSetFileQuery(DataSetBatch batch, IDataStoreServerApi dataStoreServerApi) {
         private DataSetFileQuery {
-            requireNonNull(dataSetPermId, "dataSetPermId must not be null");
+            requireNonNull(batch, "batch must not be null");
+            requireNonNull(dataStoreServerApi, "dataStoreServerApi must not be null");
         }
 
         public DataSetFileSearchCriteria searchCriteria() {
             DataSetFileSearchCriteria criteria = new DataSetFileSearchCriteria();
-            criteria.withDataSet().withPermId().thatEquals(dataSetPermId.getPermId());
+            DataSetSearchCriteria dataSetCriteria = criteria.withDataSet().withOrOperator();
+            for (DataSetPermId dataSetPermId : batch.dataSetPermIds()) {
+                dataSetCriteria.withPermId().thatEquals(dataSetPermId.getPermId());
+            }
             return criteria;
         }
 
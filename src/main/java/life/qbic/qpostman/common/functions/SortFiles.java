@@ -1,11 +1,23 @@
 package life.qbic.qpostman.common.functions;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.common.structures.DataSetWrapper;
+import picocli.CommandLine.ITypeConverter;
 
+/**
+ * Orders files for download. The order is determined by a {@link SchedulingPolicy}.
+ */
 public class SortFiles implements Function<Collection<DataFile>, List<DataFile>> {
 
 
@@ -14,14 +26,117 @@ public class SortFiles implements Function<Collection<DataFile>, List<DataFile>>
       .reversed()
       .thenComparing(DataFile::filePath, String::compareToIgnoreCase);
 
+  private final Comparator<DataFile> largestFirst = Comparator
+      .comparingLong((DataFile dataFile) -> dataFile.fileSize().bytes())
+      .reversed()
+      .thenComparing(comparator);
+
+  private final SchedulingPolicy schedulingPolicy;
+
+  public SortFiles() {
+    this(SchedulingPolicy.DEFAULT);
+  }
+
+  public SortFiles(SchedulingPolicy schedulingPolicy) {
+    this.schedulingPolicy = schedulingPolicy;
+  }
+
   @Override
   public List<DataFile> apply(Collection<DataFile> dataFiles) {
-    return dataFiles.stream()
-        .sorted(comparator)
-        .toList();
+    return switch (schedulingPolicy) {
+      case DEFAULT -> dataFiles.stream().sorted(comparator).toList();
+      case LARGEST_FIRST -> dataFiles.stream().sorted(largestFirst).toList();
+      case INTERLEAVED -> interleaved(dataFiles);
+      case PER_DATASET -> perDataSet(dataFiles);
+    };
   }
 
+  /**
+   * The default order: most recently registered datasets first, files of a dataset by path.
+   *
+   * @return the comparator defining the default order
+   */
   public Comparator<DataFile> comparator() {
     return comparator;
   }
+
+  /**
+   * Alternates between the largest and the smallest remaining file.
+   */
+  private List<DataFile> interleaved(Collection<DataFile> dataFiles) {
+    Deque<DataFile> bySize = dataFiles.stream()
+        .sorted(largestFirst)
+        .collect(ArrayDeque::new, ArrayDeque::addLast, ArrayDeque::addAll);
+    List<DataFile> interleaved = new ArrayList<>(bySize.size());
+    boolean takeLarge = true;
+    while (!bySize.isEmpty()) {
+      interleaved.add(takeLarge ? bySize.pollFirst() : bySize.pollLast());
+      takeLarge = !takeLarge;
+    }
+    return interleaved;
+  }
+
+  /**
+   * Keeps the files of a dataset together. Datasets with the most data come first; within a
+   * dataset the default order applies.
+   */
+  private List<DataFile> perDataSet(Collection<DataFile> dataFiles) {
+    Map<DataSetWrapper, List<DataFile>> byDataSet = new LinkedHashMap<>();
+    dataFiles.stream()
+        .sorted(comparator)
+        .forEach(dataFile -> byDataSet
+            .computeIfAbsent(dataFile.dataSet(), it -> new ArrayList<>())
+            .add(dataFile));
+    return byDataSet.values().stream()
+        .sorted(Comparator.comparingLong(SortFiles::totalBytes).reversed())
+        .flatMap(List::stream)
+        .toList();
+  }
+
+  private static long totalBytes(List<DataFile> dataFiles) {
+    return dataFiles.stream().mapToLong(dataFile -> dataFile.fileSize().bytes()).sum();
+  }
+
+  /**
+   * Determines in which order files are downloaded. Starting large files early keeps a single
+   * large file from extending the total download time when downloading in parallel.
+   */
+  public enum SchedulingPolicy {
+    /**
+     * Most recently registered datasets first, files of a dataset by path.
+     */
+    DEFAULT,
+    /**
+     * Largest files first.
+     */
+    LARGEST_FIRST,
+    /**
+     * Alternate between the largest and the smallest remaining files. Small files downloaded in
+     * batches start with the smallest file of their batch.
+     */
+    INTERLEAVED,
+    /**
+     * Keep the files of a dataset together, datasets with the most data first.
+     */
+    PER_DATASET;
+
+    public static class SchedulingPolicyConverter implements ITypeConverter<SchedulingPolicy> {
+
+      @Override
+      public SchedulingPolicy convert(String input) {
+        return Arrays.stream(SchedulingPolicy.values())
+            .filter(policy -> policy.name().equalsIgnoreCase(input.replace('-', '_')))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Unknown scheduling policy " + input));
+      }
+    }
+
+    public static class CompletionCandidates implements Iterable<String> {
+
+      @Override
+      public Iterator<String> iterator() {
+        return Arrays.stream(values()).map(Enum::name).iterator();
+      }
+    }
+  }
 }
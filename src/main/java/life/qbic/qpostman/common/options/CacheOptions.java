@@ -0,0 +1,65 @@
+package life.qbic.qpostman.common.options;
+
+import static picocli.CommandLine.Option;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.StringJoiner;
+import life.qbic.qpostman.common.MetadataCache;
+import picocli.CommandLine.Help.Visibility;
+
+public class CacheOptions {
+
+    @Option(names = "--cache",
+        negatable = true,
+        defaultValue = "true",
+        fallbackValue = "true",
+        description = "reuse sample, dataset and file metadata of previous runs stored in the cache directory",
+        showDefaultValue = Visibility.ALWAYS)
+    public boolean useCache;
+
+    @Option(names = "--cache-ttl",
+        paramLabel = "<minutes>",
+        description = "how long the datasets found for sample identifiers are reused before they are searched again. "
+            + "list reuses them for 60 minutes by default, download only if this option is set")
+    public Long cacheTtlInMinutes;
+
+    @Option(names = "--cache-dir",
+        paramLabel = "<dir>",
+        description = "the cache directory. Defaults to $XDG_CACHE_HOME/postman or ~/.cache/postman",
+        hidden = true)
+    public Path cacheDirectory = MetadataCache.defaultDirectory();
+
+    @Option(names = "--cache-max-size",
+        defaultValue = "536870912",
+        paramLabel = "<bytes>",
+        description = "the size the cache is limited to; the least recently used metadata is removed first",
+        showDefaultValue = Visibility.ALWAYS,
+        hidden = true)
+    public long cacheMaxBytes;
+
+    /**
+     * @param defaultTtl the time to live of the command if {@code --cache-ttl} is not set
+     * @return how long cached datasets are reused
+     */
+    public Duration cacheTtl(Duration defaultTtl) {
+        return Optional.ofNullable(cacheTtlInMinutes)
+            .map(Duration::ofMinutes)
+            .orElse(defaultTtl);
+    }
+
+    public MetadataCache metadataCache() {
+        return new MetadataCache(cacheDirectory, cacheMaxBytes);
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", CacheOptions.class.getSimpleName() + "[", "]")
+            .add("useCache=" + useCache)
+            .add("cacheTtlInMinutes=" + cacheTtlInMinutes)
+            .add("cacheDirectory=" + cacheDirectory)
+            .add("cacheMaxBytes=" + cacheMaxBytes)
+            .toString();
+    }
+}
@@ -1,20 +1,32 @@
 package life.qbic.qpostman.common.structures;
 
+import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
 import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
 import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.id.DataSetFilePermId;
 
 /**
  * A file stored in our datastore. This class provides information about the sample the data is
  * attached to as well as about the source of the attached data.
+ * <p>
+ * The file remembers the datastore server it was found on, so it can be downloaded from there.
  */
 public final class DataFile {
 
     private final DataSetFile file;
     private final DataSetWrapper dataSet;
+    private final IDataStoreServerApi dataStoreServer;
 
-    public DataFile(DataSetFile dataSetFile, DataSetWrapper dataSet) {
+    public DataFile(DataSetFile dataSetFile, DataSetWrapper dataSet, IDataStoreServerApi dataStoreServer) {
         this.file = dataSetFile;
         this.dataSet = dataSet;
+        this.dataStoreServer = dataStoreServer;
+    }
+
+    /**
+     * @return the file as returned by the datastore
+     */
+    public DataSetFile dataSetFile() {
+        return file;
     }
 
     public FileSize fileSize() {
@@ -29,6 +41,24 @@ public final class DataFile {
         return file.getPermId();
     }
 
+    /**
+     * A unique identifier of this file, combining the dataset perm id and the path of the file
+     * within the dataset.
+     *
+     * @return the identifier of this file
+     */
+    public String filePermId() {
+        return filePermId(file);
+    }
+
+    /**
+     * @param dataSetFile a file returned by the datastore
+     * @return the identifier of the file as returned by {@link #filePermId()}
+     */
+    public static String filePermId(DataSetFile dataSetFile) {
+        return dataSetFile.getDataSetPermId().getPermId() + ":" + dataSetFile.getPath();
+    }
+
     public String fileName() {
         return filePath().substring(filePath().lastIndexOf("/") + 1);
     }
@@ -37,6 +67,13 @@ public final class DataFile {
         return dataSet;
     }
 
+    /**
+     * @return the datastore server hosting this file
+     */
+    public IDataStoreServerApi dataStoreServer() {
+        return dataStoreServer;
+    }
+
     public long crc32() {
         return Integer.toUnsignedLong(file.getChecksumCRC32());
     }
@@ -1,12 +1,14 @@
 package life.qbic.qpostman.common.structures;
 
-import static java.util.Objects.nonNull;
 import static java.util.Objects.requireNonNull;
 
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.fetchoptions.DataSetFetchOptions;
 import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.id.DataSetPermId;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.datastore.DataStore;
 import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.Sample;
 import java.time.Instant;
-import life.qbic.qpostman.common.functions.FindSourceSample;
+import java.util.Optional;
+import java.util.function.Function;
 
 /**
  * Wraps a DataSet as the openBis DTOs do not guarantee equals and hash code implementation.
@@ -14,13 +16,28 @@ import life.qbic.qpostman.common.functions.FindSourceSample;
 public final class DataSetWrapper {
 
 
-    private static FindSourceSample findSourceSample;
     private final ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet dataSet;
-    private Sample sourceSample = null;
+    private final Function<Sample, Sample> findSourceSample;
 
-    public DataSetWrapper(ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet dataSet) {
+    /**
+     * @param dataSet          the wrapped dataset
+     * @param findSourceSample finds the source sample of the dataset sample. It is shared by all
+     *                         datasets, so it should remember the source samples it found.
+     */
+    public DataSetWrapper(ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet dataSet,
+        Function<Sample, Sample> findSourceSample) {
         requireNonNull(dataSet, "dataSet must not be null");
+        requireNonNull(findSourceSample, "findSourceSample must not be null");
         this.dataSet = dataSet;
+        this.findSourceSample = findSourceSample;
+    }
+
+    /**
+     * <b>DO NOT USE FOR EQUALS AND HASH CODE</b>
+     * @return the wrapped dataset
+     */
+    public ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet dataSet() {
+        return dataSet;
     }
 
     public DataSetPermId dataSetPermId() {
@@ -31,6 +48,24 @@ public final class DataSetWrapper {
         return dataSet.getRegistrationDate().toInstant();
     }
 
+    /**
+     * @return the code of the data store hosting this dataset, if it was fetched
+     */
+    public Optional<String> dataStoreCode() {
+        return dataStore().map(DataStore::getCode);
+    }
+
+    /**
+     * @return the data store hosting this dataset, if it was fetched
+     */
+    public Optional<DataStore> dataStore() {
+        DataSetFetchOptions fetchOptions = dataSet.getFetchOptions();
+        if (fetchOptions == null || !fetchOptions.hasDataStore()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(dataSet.getDataStore());
+    }
+
     public String sampleCode() {
         return dataSet.getSample().getCode();
     }
@@ -44,15 +79,7 @@ public final class DataSetWrapper {
     }
 
     public Sample sourceSample() {
-        if (nonNull(sourceSample)) {
-            return sourceSample;
-        }
-        this.sourceSample = findSourceSample.apply(sample());
-        return sourceSample;
-    }
-
-    public static void setFindSourceFunction(FindSourceSample findSourceSample) {
-        DataSetWrapper.findSourceSample = findSourceSample;
+        return findSourceSample.apply(sample());
     }
 
     @Override
@@ -0,0 +1,186 @@
+package life.qbic.qpostman.download;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import life.qbic.qpostman.common.FileSizeFormatter;
+import life.qbic.qpostman.common.structures.FileSize;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Adjusts the number of concurrent transfers based on the observed aggregate throughput and
+ * latency.
+ * <p>
+ * The controller follows an additive increase, multiplicative decrease scheme. Every sampling
+ * interval it compares the throughput with the previous interval. While the throughput improves,
+ * one more transfer is allowed. When transfers failed, the throughput dropped considerably or the
+ * servers answer considerably slower than before, the limit is reduced to three quarters.
+ * Otherwise, the limit stays unchanged. The latency is the average time from the request of a
+ * batch to its first byte; it is compared with the lowest average latency seen so far. Transfers
+ * report their progress using the listeners created by {@link #progressListener()}.
+ * <p>
+ * Sampling starts with the first transfer, so time spent before downloading, e.g. searching for
+ * files, is not taken for a drop in throughput.
+ */
+public class AdaptiveConcurrency implements AutoCloseable {
+
+  private static final Logger log = LogManager.getLogger(AdaptiveConcurrency.class);
+
+  static final long SAMPLE_INTERVAL_MILLIS = 5_000;
+  private static final double IMPROVEMENT_FACTOR = 1.05;
+  private static final double DROP_FACTOR = 0.8;
+  private static final double LATENCY_RISE_FACTOR = 2;
+
+  private final int maxConcurrency;
+  private final LongAdder transferredBytes = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder latencyNanos = new LongAdder();
+  private final LongAdder latencySamples = new LongAdder();
+  // set by acquire, so only the first transfer of a batch measures the latency of the request
+  private final ThreadLocal<Boolean> measureLatency = ThreadLocal.withInitial(() -> false);
+  private final ScheduledExecutorService sampler;
+
+  private int limit;
+  private int inFlight = 0;
+  private double previousThroughput = 0;
+  private int peakInFlight = 0;
+  private double lowestLatencyNanos = -1;
+  private boolean sampling = false;
+
+  public AdaptiveConcurrency(int maxConcurrency) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException(
+          "maxConcurrency must be at least 1 but was " + maxConcurrency);
+    }
+    this.maxConcurrency = maxConcurrency;
+    this.limit = 1;
+    this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "concurrency-controller");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Blocks until another transfer may start.
+   *
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  public synchronized void acquire() throws InterruptedException {
+    if (!sampling) {
+      sampler.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS,
+          TimeUnit.MILLISECONDS);
+      sampling = true;
+    }
+    while (inFlight >= limit) {
+      wait();
+    }
+    inFlight++;
+    peakInFlight = Math.max(peakInFlight, inFlight);
+    measureLatency.set(true);
+  }
+
+  /**
+   * Marks a transfer started with {@link #acquire()} as finished.
+   */
+  public synchronized void release() {
+    inFlight--;
+    notifyAll();
+  }
+
+  /**
+   * Records a failed transfer.
+   */
+  public void recordFailure() {
+    failures.increment();
+  }
+
+  /**
+   * Creates a listener for a single transfer. The first listener created on a thread after
+   * {@link #acquire()} measures the time from its creation to its first byte, so it is expected to
+   * be created right before the request is sent.
+   *
+   * @return a listener reporting transferred bytes to this controller
+   */
+  public WriteProgressListener progressListener() {
+    boolean measuresLatency = measureLatency.get();
+    measureLatency.set(false);
+    long startNanos = System.nanoTime();
+    return new WriteProgressListener() {
+      private boolean started = !measuresLatency;
+
+      @Override
+      public void update(long bytesWritten) {
+        if (!started) {
+          started = true;
+          latencyNanos.add(System.nanoTime() - startNanos);
+          latencySamples.increment();
+        }
+        transferredBytes.add(bytesWritten);
+      }
+
+      @Override
+      public void finish() {
+      }
+    };
+  }
+
+  public int maxConcurrency() {
+    return maxConcurrency;
+  }
+
+  synchronized int limit() {
+    return limit;
+  }
+
+  synchronized void sample() {
+    double throughput = transferredBytes.sumThenReset() * 1000.0 / SAMPLE_INTERVAL_MILLIS;
+    long failureCount = failures.sumThenReset();
+    long latencySampleCount = latencySamples.sumThenReset();
+    double latency = latencySampleCount > 0
+        ? (double) latencyNanos.sumThenReset() / latencySampleCount
+        : -1;
+    // only consider more transfers if the current limit was used
+    boolean limitReached = peakInFlight >= limit;
+    peakInFlight = inFlight;
+    int newLimit = limit;
+    String reason;
+    if (failureCount > 0) {
+      newLimit = Math.max(1, limit * 3 / 4);
+      reason = failureCount + " failed transfers";
+    } else if (latency > 0 && lowestLatencyNanos > 0
+        && latency > lowestLatencyNanos * LATENCY_RISE_FACTOR) {
+      newLimit = Math.max(1, limit * 3 / 4);
+      reason = "latency rose from %s ms to %s ms".formatted(
+          Math.round(lowestLatencyNanos / 1e6), Math.round(latency / 1e6));
+    } else if (previousThroughput > 0 && throughput < previousThroughput * DROP_FACTOR) {
+      newLimit = Math.max(1, limit * 3 / 4);
+      reason = "throughput dropped";
+    } else if (limitReached && throughput >= previousThroughput * IMPROVEMENT_FACTOR) {
+      newLimit = Math.min(maxConcurrency, limit + 1);
+      reason = "throughput improved";
+    } else {
+      reason = limitReached ? "throughput stable" : "limit not reached";
+    }
+    String message = "%s/s with %s concurrent transfers (limit %s): %s".formatted(
+        FileSizeFormatter.format(FileSize.of((long) throughput)), inFlight, limit, reason);
+    if (newLimit != limit) {
+      log.info(message + ", changing limit to " + newLimit);
+      limit = newLimit;
+      notifyAll();
+    } else {
+      log.debug(message);
+    }
+    previousThroughput = throughput;
+    if (latency > 0 && (lowestLatencyNanos < 0 || latency < lowestLatencyNanos)) {
+      lowestLatencyNanos = latency;
+    }
+  }
+
+  @Override
+  public void close() {
+    sampler.shutdownNow();
+  }
+}
@@ -0,0 +1,218 @@
+package life.qbic.qpostman.download;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import life.qbic.qpostman.common.FileSizeFormatter;
+import life.qbic.qpostman.common.structures.FileSize;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import picocli.CommandLine.ITypeConverter;
+
+/**
+ * A token bucket limiting the bandwidth of all transfers drawing from it.
+ * <p>
+ * Transfers acquire the bytes they read before writing them. Every transfer reserves its bytes and
+ * waits until all bytes reserved before and by it are paid for, so waiting transfers are served in
+ * the order they arrived and every active transfer gets a fair share of the bandwidth. The bucket
+ * holds at most one second worth of tokens. The rate can be changed at runtime, e.g. by watching a
+ * control file, see {@link #watch(Path)}. A changed rate applies to waiting transfers at once.
+ */
+public class BandwidthLimiter {
+
+  private static final Logger log = LogManager.getLogger(BandwidthLimiter.class);
+
+  private static final long CONTROL_FILE_POLL_SECONDS = 5;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition rateChanged = lock.newCondition();
+  private volatile long bytesPerSecond;
+  // guarded by the lock; both count bytes since the creation of the limiter
+  private double reservedBytes = 0;
+  private double paidBytes;
+  private long lastRefillNanos;
+
+  private BandwidthLimiter(long bytesPerSecond) {
+    this.bytesPerSecond = bytesPerSecond;
+    this.paidBytes = Math.max(bytesPerSecond, 0);
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  /**
+   * @param bytesPerSecond the maximal bandwidth; zero or less for unlimited bandwidth
+   * @return a limiter restricting transfers to the provided bandwidth
+   */
+  public static BandwidthLimiter of(long bytesPerSecond) {
+    return new BandwidthLimiter(bytesPerSecond);
+  }
+
+  public static BandwidthLimiter unlimited() {
+    return new BandwidthLimiter(0);
+  }
+
+  /**
+   * Blocks until the provided number of bytes may be transferred. The wait is computed under a lock,
+   * but the lock is released while waiting.
+   *
+   * @param bytes the number of bytes to transfer
+   * @throws InterruptedIOException if the thread was interrupted while waiting
+   */
+  public void acquire(long bytes) throws InterruptedIOException {
+    if (bytesPerSecond <= 0 || bytes <= 0) {
+      return;
+    }
+    try {
+      lock.lockInterruptibly();
+      try {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+          return;
+        }
+        refill(rate);
+        reservedBytes += bytes;
+        double reservedUntil = reservedBytes;
+        while (paidBytes < reservedUntil) {
+          // woken up early if the rate changes
+          rateChanged.awaitNanos((long) Math.ceil((reservedUntil - paidBytes) * 1e9 / rate));
+          rate = bytesPerSecond;
+          if (rate <= 0) {
+            return;
+          }
+          refill(rate);
+        }
+      } finally {
+        lock.unlock();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+    }
+  }
+
+  /**
+   * Pays for reserved bytes at the given rate for the time since the last refill. At most one
+   * second worth of bytes is paid in advance.
+   */
+  private void refill(long rate) {
+    long now = System.nanoTime();
+    paidBytes = Math.min(reservedBytes + rate, paidBytes + (now - lastRefillNanos) * rate / 1e9);
+    lastRefillNanos = now;
+  }
+
+  /**
+   * Changes the bandwidth for all transfers, including the transfers waiting right now.
+   *
+   * @param bytesPerSecond the maximal bandwidth; zero or less for unlimited bandwidth
+   */
+  public void setBytesPerSecond(long bytesPerSecond) {
+    lock.lock();
+    try {
+      long previousBytesPerSecond = this.bytesPerSecond;
+      if (previousBytesPerSecond == bytesPerSecond) {
+        return;
+      }
+      if (previousBytesPerSecond > 0) {
+        // the time so far is paid at the previous rate
+        refill(previousBytesPerSecond);
+      } else {
+        // nothing was reserved without limit, so the bucket starts full
+        paidBytes = reservedBytes + Math.max(bytesPerSecond, 0);
+        lastRefillNanos = System.nanoTime();
+      }
+      this.bytesPerSecond = bytesPerSecond;
+      rateChanged.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    log.info("Maximal bandwidth set to " + describe(bytesPerSecond));
+  }
+
+  /**
+   * Watches the control file and applies the bandwidth it contains whenever the file changes. The
+   * file contains a single bandwidth as accepted by {@link BandwidthConverter}.
+   *
+   * @param controlFile the file to watch
+   */
+  public void watch(Path controlFile) {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "bandwidth-control");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(new ControlFileWatcher(controlFile), 0,
+        CONTROL_FILE_POLL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private static String describe(long bytesPerSecond) {
+    return bytesPerSecond <= 0
+        ? "unlimited"
+        : FileSizeFormatter.format(FileSize.of(bytesPerSecond)) + "/s";
+  }
+
+  private class ControlFileWatcher implements Runnable {
+
+    private final Path controlFile;
+    private FileTime lastModified = null;
+
+    ControlFileWatcher(Path controlFile) {
+      this.controlFile = controlFile;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (!Files.isRegularFile(controlFile)) {
+          return;
+        }
+        FileTime modified = Files.getLastModifiedTime(controlFile);
+        if (Objects.equals(modified, lastModified)) {
+          return;
+        }
+        lastModified = modified;
+        setBytesPerSecond(BandwidthConverter.parse(Files.readString(controlFile)));
+      } catch (IOException | IllegalArgumentException e) {
+        log.warn("Could not read the bandwidth from " + controlFile + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Converts bandwidths like <code>500K</code>, <code>50M</code> or <code>1G</code> to bytes per
+   * second using base 1000. <code>0</code> and <code>unlimited</code> disable the limit.
+   */
+  public static class BandwidthConverter implements ITypeConverter<Long> {
+
+    @Override
+    public Long convert(String input) {
+      return parse(input);
+    }
+
+    static long parse(String input) {
+      String value = input.strip().toUpperCase(Locale.ROOT);
+      if (value.isEmpty() || value.equals("UNLIMITED")) {
+        return 0L;
+      }
+      long multiplier = switch (value.charAt(value.length() - 1)) {
+        case 'K' -> 1000L;
+        case 'M' -> 1000L * 1000;
+        case 'G' -> 1000L * 1000 * 1000;
+        default -> 1L;
+      };
+      String number = multiplier == 1 ? value : value.substring(0, value.length() - 1);
+      try {
+        return Math.round(Double.parseDouble(number) * multiplier);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Unknown bandwidth " + input);
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package life.qbic.qpostman.download;
+
+import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import life.qbic.qpostman.common.structures.DataFile;
+
+/**
+ * Groups data files into batches that can be requested from the datastore in a single call.
+ * <p>
+ * Small files are packed together until a batch reaches either {@link #MAX_BATCH_BYTES} or
+ * {@link #MAX_BATCH_FILES}. Files larger than {@link #SMALL_FILE_THRESHOLD} are transferred on
+ * their own, as the request latency is negligible compared to their transfer time. A batch only
+ * contains files hosted on the same datastore server.
+ * <p>
+ * A batch takes the place of its first file in the download order. Files keep their order within
+ * a batch, and batches and large files keep the order of their first files. Only the later small
+ * files of a batch move forward to the first one, e.g. when small files alternate with large files.
+ */
+public class DownloadBatches implements Function<List<DataFile>, List<List<DataFile>>> {
+
+  static final long SMALL_FILE_THRESHOLD = 8L * 1024 * 1024;
+  static final long MAX_BATCH_BYTES = 64L * 1024 * 1024;
+  static final int MAX_BATCH_FILES = 500;
+
+  @Override
+  public List<List<DataFile>> apply(List<DataFile> dataFiles) {
+    List<List<DataFile>> batches = new ArrayList<>();
+    // the server stubs do not implement equals, we want to group by instance
+    Map<IDataStoreServerApi, OpenBatch> openBatches = new IdentityHashMap<>();
+    for (DataFile dataFile : dataFiles) {
+      long fileSize = dataFile.fileSize().bytes();
+      if (fileSize >= SMALL_FILE_THRESHOLD) {
+        batches.add(List.of(dataFile));
+        continue;
+      }
+      // the batch is scheduled where its first file is and filled afterwards
+      OpenBatch openBatch = openBatches.computeIfAbsent(dataFile.dataStoreServer(), it -> {
+        OpenBatch newBatch = new OpenBatch();
+        batches.add(newBatch.files);
+        return newBatch;
+      });
+      openBatch.add(dataFile);
+      if (openBatch.isFull()) {
+        openBatches.remove(dataFile.dataStoreServer());
+      }
+    }
+    return batches;
+  }
+
+  private static class OpenBatch {
+
+    private final List<DataFile> files = new ArrayList<>();
+    private long bytes = 0;
+
+    void add(DataFile dataFile) {
+      files.add(dataFile);
+      bytes += dataFile.fileSize().bytes();
+    }
+
+    boolean isFull() {
+      return bytes >= MAX_BATCH_BYTES || files.size() >= MAX_BATCH_FILES;
+    }
+  }
+}
@@ -5,19 +5,39 @@ import static picocli.CommandLine.Mixin;
 
 import ch.ethz.sis.openbis.generic.asapi.v3.IApplicationServerApi;
 import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import life.qbic.qpostman.common.AuthenticationException;
 import life.qbic.qpostman.common.FileSizeFormatter;
+import life.qbic.qpostman.common.MetadataCache;
+import life.qbic.qpostman.common.StandardOutput;
+import life.qbic.qpostman.common.functions.CachedSearchDataSets;
+import life.qbic.qpostman.common.functions.CachedSearchFiles;
 import life.qbic.qpostman.common.functions.FileFilter;
+import life.qbic.qpostman.common.functions.FileSearch;
 import life.qbic.qpostman.common.functions.FindSourceSample;
 import life.qbic.qpostman.common.functions.SearchDataSets;
 import life.qbic.qpostman.common.functions.SearchFiles;
 import life.qbic.qpostman.common.functions.SearchFiles.DataSetCounterProgressDisplay;
 import life.qbic.qpostman.common.functions.SortFiles;
 import life.qbic.qpostman.common.options.AuthenticationOptions;
+import life.qbic.qpostman.common.options.CacheOptions;
 import life.qbic.qpostman.common.options.FilterOptions;
 import life.qbic.qpostman.common.options.SampleIdentifierOptions;
 import life.qbic.qpostman.common.options.ServerOptions;
@@ -28,6 +48,7 @@ import life.qbic.qpostman.download.WriteFileToDisk.DownloadReport;
 import life.qbic.qpostman.openbis.ConnectionException;
 import life.qbic.qpostman.openbis.OpenBisSessionProvider;
 import life.qbic.qpostman.openbis.ServerFactory;
+import life.qbic.qpostman.openbis.ServerUnavailableException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.remoting.RemoteAccessException;
@@ -38,6 +59,7 @@ public class DownloadCommand implements Runnable {
     private static final Logger log = LogManager.getLogger(DownloadCommand.class);
     private static final String LOG_PATH = Optional.ofNullable(System.getProperty("log.path"))
         .orElse("logs");
+    private static final String STANDARD_OUTPUT = "-";
     @Mixin
     AuthenticationOptions authenticationOptions;
     @Mixin
@@ -48,35 +70,66 @@ public class DownloadCommand implements Runnable {
     ServerOptions serverOptions;
     @Mixin
     DownloadOptions downloadOptions;
+    @Mixin
+    CacheOptions cacheOptions;
 
     @Override
     public void run() {
         try {
+            if (downloadOptions.toStdout && Objects.nonNull(downloadOptions.archive)) {
+                log.error("--to-stdout can not be combined with --archive.");
+                System.exit(2);
+            }
+            if (downloadOptions.streaming && !downloadsToOutputDirectory()) {
+                log.error("--streaming can only be used to download into the output directory.");
+                System.exit(2);
+            }
+            if (Objects.nonNull(downloadOptions.since) && downloadOptions.since.isAuto() && !downloadsToOutputDirectory()) {
+                log.error("--since auto can only be used to download into the output directory. Use a timestamp instead.");
+                System.exit(2);
+            }
+            if (downloadOptions.parallelDownloads < 1) {
+                log.error("--parallel must be at least 1 but was " + downloadOptions.parallelDownloads + ".");
+                System.exit(2);
+            }
+            if (downloadOptions.adaptiveConcurrency && downloadOptions.parallelDownloads == 1) {
+                log.warn("--adaptive has no effect with --parallel 1. Use --parallel to set the maximal number of files downloaded at the same time.");
+            }
+            if (downloadOptions.toStdout || STANDARD_OUTPUT.equals(downloadOptions.archive)) {
+                // nothing but the downloaded data must be written to the standard output
+                StandardOutput.claim();
+            }
             Functions functions = functions();
 
-            Collection<DataFile> dataSetFiles = functions.searchDataSets()
-                .andThen(it -> searchFiles(it).apply(it))
+            // the cursor is kept with the downloaded files only
+            Optional<RegistrationCursor> registrationCursor = Optional.ofNullable(downloadOptions.since)
+                .filter(it -> downloadsToOutputDirectory())
+                .map(it -> RegistrationCursor.of(Path.of(downloadOptions.outputPath), sampleIdentifierOptions.getIds()));
+            Collection<DataSetWrapper> dataSets = functions.searchDataSets()
                 .apply(sampleIdentifierOptions.getIds());
+            List<DownloadReport> downloadReports;
+            if (downloadOptions.streaming) {
+                downloadReports = downloadStreaming(registeredAfter(dataSets, registrationCursor), functions);
+            } else {
+                Collection<DataFile> dataSetFiles = functions.searchFiles()
+                    .apply(registeredAfter(dataSets, registrationCursor));
 
-            List<DataFile> sortedFiles = dataSetFiles.stream()
-                .filter(functions.fileFilter())
-                .sorted(functions.sortFiles().comparator())
-                .toList();
+                List<DataFile> sortedFiles = functions.sortFiles().apply(dataSetFiles.stream()
+                    .filter(functions.fileFilter())
+                    .toList());
 
-            log.info(
-                "Downloading %s files (%s)".formatted(sortedFiles.size(), FileSizeFormatter.format(
-                    FileSize.of(sortedFiles.stream().mapToLong(file -> file.fileSize().bytes()
-                    ).sum()), 6)));
-            List<DownloadReport> downloadReports = sortedFiles.stream()
-                .map(functions.writeFileToDisk())
-                .peek(downloadReport -> {
-                    if (downloadReport.isSuccess()) {
-                        log.info("Download successful for " + downloadReport.outputPath());
-                    } else {
-                        log.warn("Failed to download " + downloadReport.outputPath());
-                    }
-                })
-                .toList();
+                log.info(
+                    "Downloading %s files (%s)".formatted(sortedFiles.size(), FileSizeFormatter.format(
+                        FileSize.of(sortedFiles.stream().mapToLong(file -> file.fileSize().bytes()
+                        ).sum()), 6)));
+                if (downloadOptions.toStdout) {
+                    downloadReports = downloadToStandardOutput(sortedFiles);
+                } else if (Objects.nonNull(downloadOptions.archive)) {
+                    downloadReports = downloadToArchive(sortedFiles);
+                } else {
+                    downloadReports = downloadToDirectory(sortedFiles, functions);
+                }
+            }
             List<DownloadReport> successfulDownloads = downloadReports.stream()
                 .filter(DownloadReport::isSuccess).toList();
             List<DownloadReport> failedDownloads = downloadReports.stream()
@@ -85,6 +138,11 @@ public class DownloadCommand implements Runnable {
             if (!failedDownloads.isEmpty()) {
                 log.warn("Failed to download %s / %s files.".formatted(failedDownloads.size(), downloadReports.size()));
             }
+            registrationCursor.ifPresent(cursor -> advance(cursor, dataSets, failedDownloads));
+            if (downloadOptions.toStdout && !failedDownloads.isEmpty()) {
+                // the data written to the standard output is incomplete
+                System.exit(1);
+            }
 
 
         } catch (RemoteAccessException remoteAccessException) {
@@ -98,6 +156,10 @@ public class DownloadCommand implements Runnable {
                     authenticationException.username()));
             log.debug(authenticationException.getMessage(), authenticationException);
             System.exit(1);
+        } catch (ServerUnavailableException e) {
+            log.error(e.getMessage() + " Requests to it were paused after repeated failures. Please try again later.");
+            log.debug(e.getMessage(), e);
+            System.exit(1);
         }  catch (ConnectionException e) {
             log.error("Could not connect to QBiC's data source. Have you requested access to the "
                 + "server? If not please write to support@qbic.zendesk.com");
@@ -109,8 +171,229 @@ public class DownloadCommand implements Runnable {
         }
     }
 
-    private SearchFiles searchFiles(Collection<DataSetWrapper> it) {
-        return new SearchFiles(dataStoreServerApis(), new DataSetCounterProgressDisplay(it.size()));
+    /**
+     * @return true if the files are downloaded into the output directory; false if they are written
+     * to an archive or to the standard output
+     */
+    private boolean downloadsToOutputDirectory() {
+        return !downloadOptions.toStdout && Objects.isNull(downloadOptions.archive);
+    }
+
+    /**
+     * @return the datasets registered after the time given by {@code --since}, all datasets if the
+     * option is not set or no registration time was stored before
+     */
+    private Collection<DataSetWrapper> registeredAfter(Collection<DataSetWrapper> dataSets,
+        Optional<RegistrationCursor> registrationCursor) {
+        if (Objects.isNull(downloadOptions.since)) {
+            return dataSets;
+        }
+        Optional<Instant> since = downloadOptions.since.isAuto()
+            ? registrationCursor.flatMap(RegistrationCursor::lastRegistration)
+            : downloadOptions.since.timestamp();
+        if (since.isEmpty()) {
+            log.info("No previous download found, downloading all datasets.");
+            return dataSets;
+        }
+        List<DataSetWrapper> newDataSets = dataSets.stream()
+            .filter(dataSet -> dataSet.registrationTime().isAfter(since.get()))
+            .toList();
+        log.info("%s of %s datasets were registered after %s".formatted(newDataSets.size(),
+            dataSets.size(), since.get()));
+        return newDataSets;
+    }
+
+    /**
+     * Stores the latest registration time of the datasets, unless a download failed. Failed files
+     * are then downloaded again by the next run.
+     */
+    private static void advance(RegistrationCursor registrationCursor,
+        Collection<DataSetWrapper> dataSets, List<DownloadReport> failedDownloads) {
+        if (!failedDownloads.isEmpty()) {
+            log.warn("Not all files were downloaded; the next run with --since auto starts from the previous registration time.");
+            return;
+        }
+        dataSets.stream()
+            .map(DataSetWrapper::registrationTime)
+            .max(Comparator.naturalOrder())
+            .ifPresent(registrationCursor::advance);
+    }
+
+    private List<DownloadReport> downloadToDirectory(List<DataFile> dataFiles, Functions functions) {
+        WriteUtils.setParallelChecksumThreshold(downloadOptions.parallelChecksumThreshold);
+        try (DownloadJournal downloadJournal = DownloadJournal.open(Path.of(downloadOptions.outputPath),
+            downloadOptions.journalPolicy);
+            DownloadProgress downloadProgress = new DownloadProgress(dataFiles.size(),
+                dataFiles.stream().mapToLong(file -> file.fileSize().bytes()).sum())) {
+            WriteFileToDisk writeFileToDisk = writeFileToDisk(downloadJournal, downloadProgress, functions);
+            if (!downloadOptions.deduplicate) {
+                return download(dataFiles, writeFileToDisk, functions,
+                    (dataFile, report) -> downloadProgress.completed(dataFile));
+            }
+            return downloadDeduplicated(dataFiles, writeFileToDisk, functions, downloadProgress);
+        }
+    }
+
+    /**
+     * Downloads the files of the datasets into the output directory while the files of other
+     * datasets are still searched. The files are downloaded in the order they are found.
+     */
+    private List<DownloadReport> downloadStreaming(Collection<DataSetWrapper> dataSets, Functions functions) {
+        WriteUtils.setParallelChecksumThreshold(downloadOptions.parallelChecksumThreshold);
+        if (downloadOptions.deduplicate) {
+            log.info("Files with identical content are not deduplicated when streaming.");
+        }
+        try (DownloadJournal downloadJournal = DownloadJournal.open(Path.of(downloadOptions.outputPath),
+            downloadOptions.journalPolicy);
+            DownloadProgress downloadProgress = new DownloadProgress(0, 0)) {
+            WriteFileToDisk writeFileToDisk = writeFileToDisk(downloadJournal, downloadProgress, functions);
+            LongAdder foundFiles = new LongAdder();
+            LongAdder foundBytes = new LongAdder();
+            List<DownloadReport> downloadReports = download(writeFileToDisk, functions,
+                (dataFile, report) -> downloadProgress.completed(dataFile),
+                parallelDownload -> parallelDownload.applyStreaming(
+                    publish -> functions.searchFiles().publish(dataSets, dataFiles -> {
+                        List<DataFile> filteredFiles = dataFiles.stream()
+                            .filter(functions.fileFilter())
+                            .toList();
+                        foundFiles.add(filteredFiles.size());
+                        foundBytes.add(filteredFiles.stream().mapToLong(file -> file.fileSize().bytes()).sum());
+                        downloadProgress.discovered(filteredFiles);
+                        publish.accept(filteredFiles);
+                    })));
+            log.info("Found %s files (%s)".formatted(foundFiles.sum(),
+                FileSizeFormatter.format(FileSize.of(foundBytes.sum()), 6)));
+            return downloadReports;
+        }
+    }
+
+    private WriteFileToDisk writeFileToDisk(DownloadJournal downloadJournal,
+        DownloadProgress downloadProgress, Functions functions) {
+        return new WriteFileToDisk(downloadOptions.bufferSize, Path.of(downloadOptions.outputPath), downloadOptions.successiveDownloadAttempts,
+            downloadOptions.ignoreSubDirectories,
+            dataFile -> progressListener(dataFile, downloadProgress, functions.adaptiveConcurrency()),
+            downloadJournal, downloadOptions.durabilityPolicy, downloadOptions.pipelined, bandwidthLimiter());
+    }
+
+    /**
+     * Transfers identical files only once and creates the other copies from the transferred file.
+     * The copies are created in a second pass in parallel, as their identical files must be
+     * downloaded first. Copies of files that failed are downloaded on their own.
+     */
+    private List<DownloadReport> downloadDeduplicated(List<DataFile> dataFiles,
+        WriteFileToDisk writeFileToDisk, Functions functions, DownloadProgress downloadProgress) {
+        DuplicateFiles duplicateFiles = DuplicateFiles.find(dataFiles);
+        if (!duplicateFiles.originalsByDuplicate().isEmpty()) {
+            log.info("%s files are identical to other files and are not transferred again (%s)".formatted(
+                duplicateFiles.originalsByDuplicate().size(),
+                FileSizeFormatter.format(FileSize.of(duplicateFiles.duplicateBytes()), 6)));
+        }
+        Map<DataFile, DownloadReport> reports = new ConcurrentHashMap<>();
+        List<DownloadReport> downloadReports = new ArrayList<>(
+            download(duplicateFiles.uniqueFiles(), writeFileToDisk, functions,
+                (dataFile, report) -> {
+                    reports.put(dataFile, report);
+                    downloadProgress.completed(dataFile);
+                }));
+        Function<List<DataFile>, List<DownloadReport>> createDuplicates = duplicates -> duplicates.stream()
+            .map(duplicate -> {
+                DataFile original = duplicateFiles.originalsByDuplicate().get(duplicate);
+                DownloadReport report = writeFileToDisk.applyDuplicate(duplicate, reports.get(original));
+                downloadProgress.completed(duplicate);
+                return logReport(report);
+            })
+            .toList();
+        // every duplicate is created on its own, so a paused datastore only defers this duplicate
+        downloadReports.addAll(new ParallelDownload(createDuplicates,
+            duplicates -> duplicates.stream().map(List::of).toList(), downloadOptions.parallelDownloads)
+            .apply(List.copyOf(duplicateFiles.originalsByDuplicate().keySet())));
+        return downloadReports;
+    }
+
+    /**
+     * @param reportConsumer is called with every data file and its download report once the file
+     *                       is downloaded. It is called from multiple threads.
+     */
+    private List<DownloadReport> download(List<DataFile> dataFiles, WriteFileToDisk writeFileToDisk,
+        Functions functions, BiConsumer<DataFile, DownloadReport> reportConsumer) {
+        return download(writeFileToDisk, functions, reportConsumer,
+            parallelDownload -> parallelDownload.apply(dataFiles));
+    }
+
+    /**
+     * @param reportConsumer is called with every data file and its download report once the file
+     *                       is downloaded. It is called from multiple threads.
+     * @param downloads      starts the downloads using the parallel download
+     */
+    private List<DownloadReport> download(WriteFileToDisk writeFileToDisk, Functions functions,
+        BiConsumer<DataFile, DownloadReport> reportConsumer,
+        Function<ParallelDownload, List<DownloadReport>> downloads) {
+        Function<List<DataFile>, List<DownloadReport>> downloadBatch = batch -> {
+            List<DownloadReport> batchReports = writeFileToDisk.applyBatch(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                reportConsumer.accept(batch.get(i), batchReports.get(i));
+            }
+            return batchReports.stream()
+                .map(DownloadCommand::logReport)
+                .toList();
+        };
+        if (functions.adaptiveConcurrency().isPresent()) {
+            try (AdaptiveConcurrency adaptiveConcurrency = functions.adaptiveConcurrency().get()) {
+                return downloads.apply(
+                    new ParallelDownload(downloadBatch, new DownloadBatches(), adaptiveConcurrency));
+            }
+        }
+        return downloads.apply(new ParallelDownload(downloadBatch, new DownloadBatches(),
+            downloadOptions.parallelDownloads));
+    }
+
+    private List<DownloadReport> downloadToArchive(List<DataFile> dataFiles) {
+        if (downloadOptions.parallelDownloads > 1) {
+            log.info("Files are written to the archive one after the other.");
+        }
+        WriteFileToArchive writeFileToArchive = new WriteFileToArchive(downloadOptions.bufferSize,
+            archiveOutputStream(), downloadOptions.successiveDownloadAttempts,
+            downloadOptions.ignoreSubDirectories,
+            dataFile -> new DownloadProgressListener(dataFile.fileName(), dataFile.fileSize().bytes()),
+            bandwidthLimiter());
+        return writeFileToArchive.apply(dataFiles).stream()
+            .map(DownloadCommand::logReport)
+            .toList();
+    }
+
+    private List<DownloadReport> downloadToStandardOutput(List<DataFile> dataFiles) {
+        WriteFileToStream writeFileToStream = new WriteFileToStream(downloadOptions.bufferSize,
+            StandardOutput.claim(), downloadOptions.ignoreSubDirectories,
+            dataFile -> WriteProgressListener.noOp(), bandwidthLimiter());
+        return dataFiles.stream()
+            .map(writeFileToStream)
+            .map(DownloadCommand::logReport)
+            .toList();
+    }
+
+    private OutputStream archiveOutputStream() {
+        if (STANDARD_OUTPUT.equals(downloadOptions.archive)) {
+            return StandardOutput.claim();
+        }
+        try {
+            Path archive = Path.of(downloadOptions.archive);
+            if (Objects.nonNull(archive.getParent())) {
+                Files.createDirectories(archive.getParent());
+            }
+            return Files.newOutputStream(archive);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create archive " + downloadOptions.archive, e);
+        }
+    }
+
+    private static DownloadReport logReport(DownloadReport downloadReport) {
+        if (downloadReport.isSuccess()) {
+            log.info("Download successful for " + downloadReport.outputPath());
+        } else {
+            log.warn("Failed to download " + downloadReport.outputPath());
+            log.debug("Checksum mismatch (expected, actual, file): " + downloadReport);
+        }
+        return downloadReport;
     }
 
     private Collection<IDataStoreServerApi> dataStoreServerApis() {
@@ -121,19 +404,63 @@ public class DownloadCommand implements Runnable {
     private Functions functions() {
         IApplicationServerApi applicationServerApi = ServerFactory.applicationServer(serverOptions.as_url, serverOptions.timeoutInMillis);
         OpenBisSessionProvider.init(applicationServerApi, authenticationOptions.user, new String(authenticationOptions.getPassword()));
-        SearchDataSets searchDataSets = new SearchDataSets(applicationServerApi);
-        FileFilter myAwesomeFileFilter = FileFilter.create().withSuffixes(filterOptions.suffixes);
-        WriteFileToDisk writeFileToDisk = new WriteFileToDisk(dataStoreServerApis().toArray(IDataStoreServerApi[]::new)[0],
-            downloadOptions.bufferSize, Path.of(downloadOptions.outputPath), downloadOptions.successiveDownloadAttempts,
-            downloadOptions.ignoreSubDirectories);
+        Collection<IDataStoreServerApi> dataStoreServerApis = dataStoreServerApis();
+        // shared by all datasets, so every sample is resolved once
         FindSourceSample findSourceSample = new FindSourceSample(serverOptions.sourceSampleType);
-        SortFiles sortFiles = new SortFiles();
-        DataSetWrapper.setFindSourceFunction(findSourceSample);
+        SearchDataSets searchOpenBis = new SearchDataSets(applicationServerApi, findSourceSample);
+        Function<Collection<String>, Collection<DataSetWrapper>> searchDataSets = searchOpenBis;
+        // the download progress replaces the dataset counter when streaming
+        FileSearch searchFiles = new SearchFiles(dataStoreServerApis,
+            downloadOptions.streaming ? number -> {} : new DataSetCounterProgressDisplay());
+        if (cacheOptions.useCache) {
+            MetadataCache metadataCache = cacheOptions.metadataCache();
+            searchDataSets = new CachedSearchDataSets(searchOpenBis::searchByIdentifier, metadataCache,
+                authenticationOptions.user + "@" + serverOptions.as_url, dataSetCacheTtl(), false, findSourceSample);
+            searchFiles = new CachedSearchFiles(searchFiles, dataStoreServerApis, metadataCache, false);
+        }
+        FileFilter myAwesomeFileFilter = FileFilter.create().withSuffixes(filterOptions.suffixes);
+        // archives and the standard output are written one file after the other
+        Optional<AdaptiveConcurrency> adaptiveConcurrency = downloadOptions.adaptiveConcurrency
+            && downloadsToOutputDirectory()
+            ? Optional.of(new AdaptiveConcurrency(downloadOptions.parallelDownloads))
+            : Optional.empty();
+        SortFiles sortFiles = new SortFiles(downloadOptions.schedulingPolicy);
+
+        return new Functions(searchDataSets, searchFiles, sortFiles, myAwesomeFileFilter, adaptiveConcurrency);
+    }
+
+    /**
+     * Datasets registered since the last run would be missed if cached datasets were reused. They
+     * are reused only if the user asked for it, and never to find new datasets with
+     * {@code --since}. The found datasets are cached regardless, e.g. for {@code list --offline}.
+     */
+    private Duration dataSetCacheTtl() {
+        if (Objects.nonNull(downloadOptions.since)) {
+            return Duration.ZERO;
+        }
+        return cacheOptions.cacheTtl(Duration.ZERO);
+    }
+
+    private BandwidthLimiter bandwidthLimiter() {
+        BandwidthLimiter bandwidthLimiter = BandwidthLimiter.of(downloadOptions.maxBandwidth);
+        if (Objects.nonNull(downloadOptions.bandwidthControlFile)) {
+            bandwidthLimiter.watch(downloadOptions.bandwidthControlFile);
+        }
+        return bandwidthLimiter;
+    }
 
-        return new Functions(searchDataSets, writeFileToDisk, sortFiles, myAwesomeFileFilter);
+    private WriteProgressListener progressListener(DataFile dataFile,
+        DownloadProgress downloadProgress, Optional<AdaptiveConcurrency> adaptiveConcurrency) {
+        WriteProgressListener progressListener = downloadProgress.listener(dataFile);
+        return adaptiveConcurrency
+            .map(controller -> progressListener.andThen(controller.progressListener()))
+            .orElse(progressListener);
     }
 
-    private record Functions(SearchDataSets searchDataSets, WriteFileToDisk writeFileToDisk, SortFiles sortFiles, FileFilter fileFilter) {
+    private record Functions(Function<Collection<String>, Collection<DataSetWrapper>> searchDataSets,
+                             FileSearch searchFiles,
+                             SortFiles sortFiles, FileFilter fileFilter,
+                             Optional<AdaptiveConcurrency> adaptiveConcurrency) {
 
     }
 }
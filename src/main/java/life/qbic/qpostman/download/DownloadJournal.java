@@ -0,0 +1,249 @@
+package life.qbic.qpostman.download;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import life.qbic.qpostman.common.structures.DataFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import picocli.CommandLine.ITypeConverter;
+
+/**
+ * An append-only journal of completed downloads stored in the output directory.
+ * <p>
+ * The journal is read once when opened and kept in memory, so that files downloaded by a previous
+ * run can be skipped without reading checksum files or hashing the downloaded data again. How much
+ * the journal is trusted is controlled by the {@link VerificationPolicy}.
+ * <p>
+ * Every line of the journal contains the tab separated file perm id, the file size in bytes, the
+ * hexadecimal CRC32 checksum, the last modification time in milliseconds and the path of the file
+ * relative to the output directory. Later lines take precedence over earlier lines.
+ */
+public class DownloadJournal implements AutoCloseable {
+
+  private static final Logger log = LogManager.getLogger(DownloadJournal.class);
+
+  static final String JOURNAL_FILE_NAME = ".postman-journal.tsv";
+
+  private final Path outputDirectory;
+  private final VerificationPolicy verificationPolicy;
+  private final Map<String, Entry> entries;
+  private final BufferedWriter writer;
+  private final Thread shutdownHook;
+
+  private DownloadJournal(Path outputDirectory, VerificationPolicy verificationPolicy,
+      Map<String, Entry> entries, BufferedWriter writer) {
+    this.outputDirectory = outputDirectory;
+    this.verificationPolicy = verificationPolicy;
+    this.entries = entries;
+    this.writer = writer;
+    // an interrupted run must not lose the files it completed
+    this.shutdownHook = new Thread(this::flush, "download-journal-flush");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * Opens the journal in the output directory. Creates the journal if it does not exist yet.
+   *
+   * @param outputDirectory    the directory files are downloaded to
+   * @param verificationPolicy how journal entries are verified against the file system
+   * @return the opened journal
+   */
+  public static DownloadJournal open(Path outputDirectory, VerificationPolicy verificationPolicy) {
+    requireNonNull(outputDirectory, "outputDirectory must not be null");
+    requireNonNull(verificationPolicy, "verificationPolicy must not be null");
+    Path journalFile = outputDirectory.resolve(JOURNAL_FILE_NAME);
+    Map<String, Entry> entries = new ConcurrentHashMap<>();
+    try {
+      Files.createDirectories(outputDirectory);
+      if (Files.exists(journalFile)) {
+        try (Stream<String> lines = Files.lines(journalFile, StandardCharsets.UTF_8)) {
+          lines.map(Entry::parse)
+              .filter(Objects::nonNull)
+              .forEach(entry -> entries.put(entry.filePermId(), entry));
+        }
+        log.debug("Loaded %s entries from %s".formatted(entries.size(), journalFile));
+      }
+      BufferedWriter writer = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      return new DownloadJournal(outputDirectory, verificationPolicy, entries, writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not open download journal " + journalFile, e);
+    }
+  }
+
+  /**
+   * Checks whether the data file was completely downloaded to the output path before.
+   *
+   * @param dataFile   the data file to download
+   * @param outputPath the path the file is downloaded to
+   * @return true if the journal contains a valid entry for the file; false otherwise
+   */
+  public boolean isComplete(DataFile dataFile, Path outputPath) {
+    Entry entry = entries.get(dataFile.filePermId());
+    if (Objects.isNull(entry)
+        || entry.size() != dataFile.fileSize().bytes()
+        || entry.crc32() != dataFile.crc32()
+        || !entry.relativePath().equals(relativePath(outputPath))) {
+      return false;
+    }
+    return switch (verificationPolicy) {
+      case TRUST -> true;
+      case SIZE_MTIME -> hasSizeAndModificationTime(outputPath, entry);
+      case REHASH -> Files.isRegularFile(outputPath)
+          && WriteUtils.calculateCrc32(outputPath) == entry.crc32();
+    };
+  }
+
+  private static boolean hasSizeAndModificationTime(Path file, Entry entry) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      return attributes.isRegularFile()
+          && attributes.size() == entry.size()
+          && attributes.lastModifiedTime().toMillis() == entry.modifiedMillis();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Records a completed download. The output file is expected to be written completely.
+   *
+   * @param dataFile   the downloaded data file
+   * @param outputPath the path the file was written to
+   */
+  public void record(DataFile dataFile, Path outputPath) {
+    long modifiedMillis;
+    try {
+      modifiedMillis = Files.getLastModifiedTime(outputPath).toMillis();
+    } catch (IOException e) {
+      log.warn("Could not record " + outputPath + " in the download journal: " + e.getMessage());
+      return;
+    }
+    Entry entry = new Entry(dataFile.filePermId(), dataFile.fileSize().bytes(), dataFile.crc32(),
+        modifiedMillis, relativePath(outputPath));
+    entries.put(entry.filePermId(), entry);
+    synchronized (writer) {
+      try {
+        writer.write(entry.toLine());
+        writer.newLine();
+      } catch (IOException e) {
+        log.warn("Could not record " + outputPath + " in the download journal: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Writes all recorded entries to the journal file.
+   */
+  public void flush() {
+    synchronized (writer) {
+      try {
+        writer.flush();
+      } catch (IOException e) {
+        log.warn("Could not write the download journal: " + e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    flush();
+    synchronized (writer) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        log.warn("Could not close the download journal: " + e.getMessage());
+      }
+    }
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // the virtual machine is already shutting down
+    }
+  }
+
+  private String relativePath(Path outputPath) {
+    return outputDirectory.toAbsolutePath().normalize()
+        .relativize(outputPath.toAbsolutePath().normalize())
+        .toString();
+  }
+
+  private record Entry(String filePermId, long size, long crc32, long modifiedMillis,
+                       String relativePath) {
+
+    private static final String DELIMITER = "\t";
+
+    /**
+     * @return the parsed entry or null if the line is not a valid entry, e.g. written partially
+     */
+    static Entry parse(String line) {
+      String[] values = line.split(DELIMITER, 5);
+      if (values.length != 5) {
+        return null;
+      }
+      try {
+        return new Entry(values[0], Long.parseLong(values[1]), Long.parseLong(values[2], 16),
+            Long.parseLong(values[3]), values[4]);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    String toLine() {
+      return String.join(DELIMITER, filePermId, Long.toString(size), Long.toHexString(crc32),
+          Long.toString(modifiedMillis), relativePath);
+    }
+  }
+
+  /**
+   * Determines how much a journal entry is trusted when deciding whether a file can be skipped.
+   */
+  public enum VerificationPolicy {
+    /**
+     * Trust the journal without touching the file system.
+     */
+    TRUST,
+    /**
+     * Check that the file exists with the recorded size and modification time.
+     */
+    SIZE_MTIME,
+    /**
+     * Compute the checksum of the file and compare it to the recorded checksum.
+     */
+    REHASH;
+
+    public static class VerificationPolicyConverter implements ITypeConverter<VerificationPolicy> {
+
+      @Override
+      public VerificationPolicy convert(String input) {
+        return Arrays.stream(VerificationPolicy.values())
+            .filter(policy -> policy.name().replace("_", "-").equalsIgnoreCase(input)
+                || policy.name().equalsIgnoreCase(input))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Unknown journal policy " + input));
+      }
+    }
+
+    public static class CompletionCandidates implements Iterable<String> {
+
+      @Override
+      public Iterator<String> iterator() {
+        return Arrays.stream(values()).map(Enum::name).iterator();
+      }
+    }
+  }
+}
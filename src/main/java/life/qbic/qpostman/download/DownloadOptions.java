@@ -3,16 +3,25 @@ package life.qbic.qpostman.download;
 import static picocli.CommandLine.Help;
 import static picocli.CommandLine.Option;
 
+import java.nio.file.Path;
 import java.util.Optional;
 import java.util.StringJoiner;
+import life.qbic.qpostman.common.functions.SortFiles.SchedulingPolicy;
+import life.qbic.qpostman.common.functions.SortFiles.SchedulingPolicy.SchedulingPolicyConverter;
+import life.qbic.qpostman.download.BandwidthLimiter.BandwidthConverter;
+import life.qbic.qpostman.download.DownloadJournal.VerificationPolicy;
+import life.qbic.qpostman.download.DurabilityPolicy.DurabilityPolicyConverter;
+import life.qbic.qpostman.download.RegistrationCursor.Since;
+import life.qbic.qpostman.download.RegistrationCursor.SinceConverter;
+import life.qbic.qpostman.download.DownloadJournal.VerificationPolicy.VerificationPolicyConverter;
 import picocli.CommandLine.Help.Visibility;
 
 public class DownloadOptions {
     @Option(names = {"--buffer-size"},
-            defaultValue = "1024",
+            defaultValue = "1048576",
             showDefaultValue = Help.Visibility.ALWAYS,
             description =
-                    "dataset download performance can be improved by increasing this value with a multiple of 1024 (default)."
+                    "the size of the buffer data is collected in before it is written to disk. Use a multiple of 1024."
                             + " Only change this if you know what you are doing.",
             hidden = true)
     public int bufferSize;
@@ -32,11 +41,130 @@ public class DownloadOptions {
         showDefaultValue = Visibility.ON_DEMAND)
     public boolean ignoreSubDirectories;
 
+    @Option(names = "--since",
+        converter = SinceConverter.class,
+        paramLabel = "<timestamp|auto>",
+        description = "only download datasets registered after this time, e.g. 2024-05-01 or 2024-05-01T12:00:00Z. "
+            + "Use auto to download the datasets registered since the last download of the same identifiers into the output directory. "
+            + "auto can not be combined with --archive or --to-stdout")
+    public Since since;
+
+    @Option(names = "--archive",
+        paramLabel = "<file>",
+        description = "write all files into a single tar archive instead of the output directory. Use - to write the archive to the standard output")
+    public String archive;
+
+    @Option(names = "--to-stdout",
+        defaultValue = "false",
+        description = "write the content of all files one after the other to the standard output instead of the output directory",
+        showDefaultValue = Visibility.ON_DEMAND)
+    public boolean toStdout;
+
+    @Option(names = "--streaming",
+        defaultValue = "false",
+        description = "start downloading files while the files of other datasets are still searched. "
+            + "Files are downloaded in the order they are found and are not deduplicated",
+        showDefaultValue = Visibility.ON_DEMAND)
+    public boolean streaming;
+
+    @Option(names = "--deduplicate",
+        negatable = true,
+        defaultValue = "true",
+        fallbackValue = "true",
+        description = "transfer files with identical content only once and create the other files as hard links or copies",
+        showDefaultValue = Visibility.ALWAYS)
+    public boolean deduplicate;
+
+    @Option(names = "--parallel",
+        defaultValue = "1",
+        paramLabel = "<N>",
+        description = "how many files to download at the same time",
+        showDefaultValue = Visibility.ALWAYS)
+    public int parallelDownloads;
+
+    @Option(names = "--adaptive",
+        defaultValue = "false",
+        description = "adjust the number of files downloaded at the same time to the observed throughput, using at most the value of --parallel",
+        showDefaultValue = Visibility.ON_DEMAND)
+    public boolean adaptiveConcurrency;
+
+    @Option(names = "--schedule",
+        defaultValue = "DEFAULT",
+        converter = SchedulingPolicyConverter.class,
+        completionCandidates = SchedulingPolicy.CompletionCandidates.class,
+        paramLabel = "<policy>",
+        description = "the order in which files are downloaded. Case-insensitive. "
+            + "Possible values: ${COMPLETION-CANDIDATES}",
+        showDefaultValue = Visibility.ALWAYS)
+    public SchedulingPolicy schedulingPolicy;
+
+    @Option(names = "--max-bandwidth",
+        defaultValue = "unlimited",
+        converter = BandwidthConverter.class,
+        paramLabel = "<bandwidth>",
+        description = "the maximal bandwidth shared by all downloads in bytes per second, e.g. 500K, 50M or 1G",
+        showDefaultValue = Visibility.ALWAYS)
+    public long maxBandwidth;
+
+    @Option(names = "--bandwidth-control-file",
+        paramLabel = "<file>",
+        description = "a file containing the maximal bandwidth; changes to the file are applied while downloading")
+    public Path bandwidthControlFile;
+
+    @Option(names = "--sync",
+        defaultValue = "NONE",
+        converter = DurabilityPolicyConverter.class,
+        completionCandidates = DurabilityPolicy.CompletionCandidates.class,
+        paramLabel = "<policy>",
+        description = "when downloaded data is forced to the storage device. Case-insensitive. "
+            + "Possible values: ${COMPLETION-CANDIDATES}",
+        showDefaultValue = Visibility.ALWAYS,
+        hidden = true)
+    public DurabilityPolicy durabilityPolicy;
+
+    @Option(names = "--pipelined",
+        defaultValue = "false",
+        description = "read from the network, compute checksums and write to disk on separate threads for each download",
+        showDefaultValue = Visibility.ON_DEMAND,
+        hidden = true)
+    public boolean pipelined;
+
+    @Option(names = "--parallel-checksum-threshold",
+        defaultValue = "1073741824",
+        paramLabel = "<bytes>",
+        description = "existing files of at least this size are checksummed using multiple threads",
+        showDefaultValue = Visibility.ALWAYS,
+        hidden = true)
+    public long parallelChecksumThreshold;
+
+    @Option(names = "--journal-policy",
+        defaultValue = "SIZE_MTIME",
+        converter = VerificationPolicyConverter.class,
+        completionCandidates = VerificationPolicy.CompletionCandidates.class,
+        paramLabel = "<policy>",
+        description = "how files recorded as downloaded by a previous run are verified before they are skipped. "
+            + "Case-insensitive. Possible values: ${COMPLETION-CANDIDATES}",
+        showDefaultValue = Visibility.ALWAYS)
+    public VerificationPolicy journalPolicy;
+
     @Override
     public String toString() {
         return new StringJoiner(", ", DownloadOptions.class.getSimpleName() + "[", "]")
                 .add("bufferSize=" + bufferSize)
                 .add("outputPath='" + outputPath + "'")
+                .add("since=" + since)
+                .add("archive='" + archive + "'")
+                .add("toStdout=" + toStdout)
+                .add("streaming=" + streaming)
+                .add("deduplicate=" + deduplicate)
+                .add("parallelDownloads=" + parallelDownloads)
+                .add("adaptiveConcurrency=" + adaptiveConcurrency)
+                .add("schedulingPolicy=" + schedulingPolicy)
+                .add("maxBandwidth=" + maxBandwidth)
+                .add("bandwidthControlFile=" + bandwidthControlFile)
+                .add("journalPolicy=" + journalPolicy)
+                .add("durabilityPolicy=" + durabilityPolicy)
+                .add("pipelined=" + pipelined)
                 .toString();
     }
 }
@@ -0,0 +1,295 @@
+package life.qbic.qpostman.download;
+
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import life.qbic.qpostman.common.FileSizeFormatter;
+import life.qbic.qpostman.common.structures.DataFile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Shows the progress of all downloads of a run in a single status line.
+ * <p>
+ * Transfers report into this class using the listeners created by {@link #listener(DataFile)}.
+ * Reporting does not lock, so many concurrent transfers can report at the same time. The status
+ * line shows the completed files and bytes, the aggregate throughput, the estimated remaining
+ * time and the most active transfers. It is redrawn by a timer thread once per second. If the
+ * standard output is not a terminal, the status is logged every 30 seconds instead.
+ * <p>
+ * The remaining time is estimated from an exponentially weighted moving average of the
+ * throughput, so short stalls do not make the estimate jump. If files are added while downloading,
+ * the totals and the estimate cover the files found so far.
+ */
+public class DownloadProgress implements AutoCloseable {
+
+  private static final Logger log = LogManager.getLogger(DownloadProgress.class);
+
+  private static final long REDRAW_INTERVAL_MILLIS = 1_000;
+  private static final long LOG_INTERVAL_MILLIS = 30_000;
+  private static final double EWMA_WEIGHT = 0.2;
+  private static final int SHOWN_TRANSFERS = 3;
+  private static final int MAX_NAME_LENGTH = 20;
+  private static final int LINE_WIDTH = 150;
+
+  private final LongAdder totalFiles = new LongAdder();
+  private final LongAdder totalBytes = new LongAdder();
+  private final PrintStream out;
+  private final boolean interactive;
+  private final LongAdder transferredBytes = new LongAdder();
+  private final LongAdder completedFiles = new LongAdder();
+  private final LongAdder completedBytes = new LongAdder();
+  private final Set<Transfer> transfers = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService renderer;
+
+  // only accessed by the renderer thread
+  private final StringBuilder line = new StringBuilder(LINE_WIDTH);
+  private final long startNanos = System.nanoTime();
+  private long lastSampleNanos = startNanos;
+  private long lastTransferredBytes = 0;
+  private double bytesPerSecond = -1;
+  private long lastLogNanos = startNanos;
+  private int lastLineLength = 0;
+
+  /**
+   * Shows the progress on the standard output. Whether the standard output is a terminal is
+   * decided using {@link System#console()}.
+   *
+   * @param totalFiles the number of files of the run
+   * @param totalBytes the number of bytes of the run
+   */
+  public DownloadProgress(int totalFiles, long totalBytes) {
+    this(totalFiles, totalBytes, System.out, Objects.nonNull(System.console()));
+  }
+
+  /**
+   * @param totalFiles  the number of files of the run
+   * @param totalBytes  the number of bytes of the run
+   * @param out         the stream the status line is drawn on
+   * @param interactive true if the status line is redrawn; false if the status is logged
+   */
+  public DownloadProgress(int totalFiles, long totalBytes, PrintStream out, boolean interactive) {
+    this.totalFiles.add(totalFiles);
+    this.totalBytes.add(totalBytes);
+    this.out = out;
+    this.interactive = interactive;
+    this.renderer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "progress-renderer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    renderer.scheduleAtFixedRate(this::render, REDRAW_INTERVAL_MILLIS, REDRAW_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Creates a listener for a single transfer of the data file. The transfer is shown as active
+   * from its first update until the listener is finished, so a transfer failing before it received
+   * any data is never shown.
+   *
+   * @param dataFile the data file that is transferred
+   * @return a listener reporting into this progress
+   */
+  public WriteProgressListener listener(DataFile dataFile) {
+    Transfer transfer = new Transfer(dataFile.fileName(), dataFile.fileSize().bytes());
+    return new WriteProgressListener() {
+      private boolean started = false;
+
+      @Override
+      public void update(long bytesWritten) {
+        if (!started) {
+          transfers.add(transfer);
+          started = true;
+        }
+        transfer.writtenBytes.addAndGet(bytesWritten);
+        transferredBytes.add(bytesWritten);
+      }
+
+      @Override
+      public void finish() {
+        transfers.remove(transfer);
+      }
+    };
+  }
+
+  /**
+   * Adds data files to the run, e.g. when the files are downloaded while they are still searched.
+   *
+   * @param dataFiles the data files found
+   */
+  public void discovered(Collection<DataFile> dataFiles) {
+    totalFiles.add(dataFiles.size());
+    dataFiles.forEach(dataFile -> totalBytes.add(dataFile.fileSize().bytes()));
+  }
+
+  /**
+   * Marks the data file as completed, regardless of whether it was transferred or skipped.
+   *
+   * @param dataFile the completed data file
+   */
+  public void completed(DataFile dataFile) {
+    completedFiles.increment();
+    completedBytes.add(dataFile.fileSize().bytes());
+  }
+
+  /**
+   * Stops redrawing and removes the status line.
+   */
+  @Override
+  public void close() {
+    renderer.shutdownNow();
+    try {
+      renderer.awaitTermination(REDRAW_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (interactive && lastLineLength > 0) {
+      out.print("\r" + " ".repeat(lastLineLength) + "\r");
+      out.flush();
+    }
+  }
+
+  private void render() {
+    long now = System.nanoTime();
+    updateThroughput(now);
+    // the written bytes change while sorting, so the activity is taken once per transfer
+    List<Transfer> activeTransfers = transfers.stream()
+        .map(transfer -> new Activity(transfer, transfer.takeRecentBytes()))
+        .sorted(Comparator.comparingLong(Activity::recentBytes).reversed())
+        .limit(SHOWN_TRANSFERS)
+        .map(Activity::transfer)
+        .toList();
+    if (interactive) {
+      buildStatus(activeTransfers);
+      int length = line.length();
+      if (length < lastLineLength) {
+        line.append(" ".repeat(lastLineLength - length));
+      }
+      out.print("\r");
+      out.print(line);
+      out.flush();
+      lastLineLength = length;
+    } else if (now - lastLogNanos >= TimeUnit.MILLISECONDS.toNanos(LOG_INTERVAL_MILLIS)) {
+      buildStatus(activeTransfers);
+      log.info(line.toString());
+      lastLogNanos = now;
+    }
+  }
+
+  private void updateThroughput(long now) {
+    long transferred = transferredBytes.sum();
+    double seconds = (now - lastSampleNanos) / 1e9;
+    if (seconds <= 0) {
+      return;
+    }
+    double sample = (transferred - lastTransferredBytes) / seconds;
+    bytesPerSecond = bytesPerSecond < 0
+        ? sample
+        : EWMA_WEIGHT * sample + (1 - EWMA_WEIGHT) * bytesPerSecond;
+    lastTransferredBytes = transferred;
+    lastSampleNanos = now;
+  }
+
+  /**
+   * @return the number of transfers shown as active
+   */
+  int activeTransfers() {
+    return transfers.size();
+  }
+
+  /**
+   * @return the bytes written by the active transfers
+   */
+  long inFlightBytes() {
+    return transfers.stream().mapToLong(transfer -> transfer.writtenBytes.get()).sum();
+  }
+
+  private void buildStatus(List<Transfer> activeTransfers) {
+    long inFlightBytes = inFlightBytes();
+    long total = totalBytes.sum();
+    long doneBytes = Math.min(completedBytes.sum() + inFlightBytes, total);
+    line.setLength(0);
+    line.append(completedFiles.sum()).append(" / ").append(totalFiles.sum()).append(" files  ");
+    FileSizeFormatter.formatTo(line, doneBytes, 1).append(" / ");
+    FileSizeFormatter.formatTo(line, total, 1).append("  ");
+    FileSizeFormatter.formatTo(line, (long) Math.max(bytesPerSecond, 0), 1).append("/s  ETA ");
+    appendRemainingTime(total - doneBytes);
+    for (Transfer transfer : activeTransfers) {
+      line.append("  | ");
+      appendName(transfer.name);
+      line.append(' ').append(transfer.percentage()).append('%');
+    }
+    if (line.length() > LINE_WIDTH) {
+      line.setLength(LINE_WIDTH);
+    }
+  }
+
+  private void appendRemainingTime(long remainingBytes) {
+    if (bytesPerSecond <= 0) {
+      line.append("--:--:--");
+      return;
+    }
+    long seconds = (long) (remainingBytes / bytesPerSecond);
+    appendTwoDigits(seconds / 3600);
+    line.append(':');
+    appendTwoDigits(seconds / 60 % 60);
+    line.append(':');
+    appendTwoDigits(seconds % 60);
+  }
+
+  private void appendTwoDigits(long value) {
+    if (value < 10) {
+      line.append('0');
+    }
+    line.append(value);
+  }
+
+  private void appendName(String name) {
+    if (name.length() > MAX_NAME_LENGTH) {
+      line.append(name, 0, MAX_NAME_LENGTH - 3).append("...");
+    } else {
+      line.append(name);
+    }
+  }
+
+  private record Activity(Transfer transfer, long recentBytes) {
+
+  }
+
+  private static final class Transfer {
+
+    private final String name;
+    private final long size;
+    private final AtomicLong writtenBytes = new AtomicLong();
+    // only accessed by the renderer thread
+    private long renderedBytes = 0;
+
+    private Transfer(String name, long size) {
+      this.name = name;
+      this.size = size;
+    }
+
+    /**
+     * @return the bytes written since the last call
+     */
+    private long takeRecentBytes() {
+      long written = writtenBytes.get();
+      long recentBytes = written - renderedBytes;
+      renderedBytes = written;
+      return recentBytes;
+    }
+
+    private long percentage() {
+      return size > 0 ? Math.min(100, writtenBytes.get() * 100 / size) : 100;
+    }
+  }
+}
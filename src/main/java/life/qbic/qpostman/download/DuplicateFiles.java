@@ -0,0 +1,80 @@
+package life.qbic.qpostman.download;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import life.qbic.qpostman.common.structures.DataFile;
+
+/**
+ * Files of a download with identical content. Files are considered identical if their size and
+ * their CRC32 checksum are equal. The content itself is not compared, so two different files of
+ * equal size with colliding CRC32 checksums are trusted to be identical.
+ * <p>
+ * Of every group of identical files only the first one in download order needs to be transferred.
+ * The other files are duplicates of it.
+ */
+final class DuplicateFiles {
+
+  private final List<DataFile> uniqueFiles;
+  private final Map<DataFile, DataFile> originals;
+
+  private DuplicateFiles(List<DataFile> uniqueFiles, Map<DataFile, DataFile> originals) {
+    this.uniqueFiles = uniqueFiles;
+    this.originals = originals;
+  }
+
+  /**
+   * Finds identical files. Empty files are never considered duplicates.
+   *
+   * @param dataFiles the files to download in download order
+   * @return the duplicate files
+   */
+  static DuplicateFiles find(List<DataFile> dataFiles) {
+    Map<Content, DataFile> firstFiles = new HashMap<>();
+    List<DataFile> uniqueFiles = new ArrayList<>();
+    Map<DataFile, DataFile> originals = new LinkedHashMap<>();
+    for (DataFile dataFile : dataFiles) {
+      long size = dataFile.fileSize().bytes();
+      if (size == 0) {
+        uniqueFiles.add(dataFile);
+        continue;
+      }
+      DataFile original = firstFiles.putIfAbsent(new Content(size, dataFile.crc32()), dataFile);
+      if (original == null) {
+        uniqueFiles.add(dataFile);
+      } else {
+        originals.put(dataFile, original);
+      }
+    }
+    return new DuplicateFiles(Collections.unmodifiableList(uniqueFiles),
+        Collections.unmodifiableMap(originals));
+  }
+
+  /**
+   * @return the files that need to be transferred in download order
+   */
+  List<DataFile> uniqueFiles() {
+    return uniqueFiles;
+  }
+
+  /**
+   * @return every duplicate mapped to the unique file with identical content
+   */
+  Map<DataFile, DataFile> originalsByDuplicate() {
+    return originals;
+  }
+
+  /**
+   * @return the number of bytes that do not need to be transferred
+   */
+  long duplicateBytes() {
+    return originals.keySet().stream().mapToLong(dataFile -> dataFile.fileSize().bytes()).sum();
+  }
+
+  private record Content(long size, long crc32) {
+
+  }
+}
@@ -0,0 +1,47 @@
+package life.qbic.qpostman.download;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import picocli.CommandLine.ITypeConverter;
+
+/**
+ * Determines when written data is forced to the storage device.
+ */
+public enum DurabilityPolicy {
+  /**
+   * Leave it to the operating system when to write data to the storage device.
+   */
+  NONE,
+  /**
+   * Force all data to the storage device once the file is written completely.
+   */
+  END,
+  /**
+   * Force data to the storage device every {@link #PERIODIC_SYNC_BYTES} bytes and once the file
+   * is written completely.
+   */
+  PERIODIC;
+
+  static final long PERIODIC_SYNC_BYTES = 256L * 1024 * 1024;
+
+  public static class DurabilityPolicyConverter implements ITypeConverter<DurabilityPolicy> {
+
+    @Override
+    public DurabilityPolicy convert(String input) {
+      return Arrays.stream(DurabilityPolicy.values())
+          .map(Enum::name)
+          .filter(name -> name.equalsIgnoreCase(input))
+          .map(DurabilityPolicy::valueOf)
+          .findFirst()
+          .orElseThrow(() -> new IllegalArgumentException("Unknown sync policy " + input));
+    }
+  }
+
+  public static class CompletionCandidates implements Iterable<String> {
+
+    @Override
+    public Iterator<String> iterator() {
+      return Arrays.stream(values()).map(Enum::name).iterator();
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package life.qbic.qpostman.download;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+
+/**
+ * Computes the CRC32 checksum of a local file by splitting it into ranges that are checksummed in
+ * parallel on the common {@link ForkJoinPool}.
+ * <p>
+ * Each range is memory-mapped and checksummed on its own. The partial checksums are combined
+ * mathematically as described in zlib's <code>crc32_combine</code>, so the result equals the
+ * checksum of the whole file computed sequentially.
+ */
+final class ParallelCrc32 {
+
+  static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+
+  private static final int GF2_DIM = 32;
+  private static final long CRC32_POLYNOMIAL = 0xedb88320L;
+
+  private ParallelCrc32() {
+  }
+
+  static long calculate(Path file) {
+    return calculate(file, DEFAULT_CHUNK_SIZE);
+  }
+
+  static long calculate(Path file, long chunkSize) {
+    if (chunkSize < 1 || chunkSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          "chunkSize must be between 1 and %s but was %s".formatted(Integer.MAX_VALUE, chunkSize));
+    }
+    try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return ForkJoinPool.commonPool()
+          .invoke(new RangeChecksum(fileChannel, 0, fileChannel.size(), chunkSize));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Combines the checksums of two consecutive byte sequences.
+   *
+   * @param crc1   the checksum of the first sequence
+   * @param crc2   the checksum of the second sequence
+   * @param length2 the length of the second sequence in bytes
+   * @return the checksum of the concatenation of both sequences
+   */
+  static long combine(long crc1, long crc2, long length2) {
+    if (length2 <= 0) {
+      return crc1;
+    }
+    long[] even = new long[GF2_DIM];
+    long[] odd = new long[GF2_DIM];
+    // the operator for one zero bit
+    odd[0] = CRC32_POLYNOMIAL;
+    long row = 1;
+    for (int n = 1; n < GF2_DIM; n++) {
+      odd[n] = row;
+      row <<= 1;
+    }
+    // two zero bits
+    square(even, odd);
+    // four zero bits
+    square(odd, even);
+    // apply length2 zero bytes to crc1, the first square yields the operator for one zero byte
+    long remaining = length2;
+    long crc = crc1;
+    do {
+      square(even, odd);
+      if ((remaining & 1) != 0) {
+        crc = times(even, crc);
+      }
+      remaining >>= 1;
+      if (remaining == 0) {
+        break;
+      }
+      square(odd, even);
+      if ((remaining & 1) != 0) {
+        crc = times(odd, crc);
+      }
+      remaining >>= 1;
+    } while (remaining != 0);
+    return (crc ^ crc2) & 0xffffffffL;
+  }
+
+  private static long times(long[] matrix, long vector) {
+    long sum = 0;
+    int i = 0;
+    long remaining = vector & 0xffffffffL;
+    while (remaining != 0) {
+      if ((remaining & 1) != 0) {
+        sum ^= matrix[i];
+      }
+      remaining >>= 1;
+      i++;
+    }
+    return sum;
+  }
+
+  private static void square(long[] square, long[] matrix) {
+    for (int n = 0; n < GF2_DIM; n++) {
+      square[n] = times(matrix, matrix[n]);
+    }
+  }
+
+  private static class RangeChecksum extends RecursiveTask<Long> {
+
+    private final FileChannel fileChannel;
+    private final long start;
+    private final long length;
+    private final long chunkSize;
+
+    RangeChecksum(FileChannel fileChannel, long start, long length, long chunkSize) {
+      this.fileChannel = fileChannel;
+      this.start = start;
+      this.length = length;
+      this.chunkSize = chunkSize;
+    }
+
+    @Override
+    protected Long compute() {
+      if (length <= chunkSize) {
+        return checksum();
+      }
+      // split at a chunk boundary so all leaves but the last have the full chunk size
+      long chunks = (length + chunkSize - 1) / chunkSize;
+      long firstLength = (chunks / 2) * chunkSize;
+      RangeChecksum first = new RangeChecksum(fileChannel, start, firstLength, chunkSize);
+      RangeChecksum second = new RangeChecksum(fileChannel, start + firstLength,
+          length - firstLength, chunkSize);
+      second.fork();
+      long firstCrc = first.compute();
+      long secondCrc = second.join();
+      return combine(firstCrc, secondCrc, second.length);
+    }
+
+    private long checksum() {
+      CRC32 crc32 = new CRC32();
+      if (length == 0) {
+        return crc32.getValue();
+      }
+      try {
+        MappedByteBuffer range = fileChannel.map(MapMode.READ_ONLY, start, length);
+        crc32.update(range);
+        return crc32.getValue();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
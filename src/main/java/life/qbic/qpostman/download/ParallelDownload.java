@@ -0,0 +1,303 @@
+package life.qbic.qpostman.download;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.download.WriteFileToDisk.DownloadReport;
+import life.qbic.qpostman.openbis.ServerUnavailableException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Downloads batches of data files concurrently on a bounded pool of worker threads.
+ * <p>
+ * The returned reports are in the order of the batches regardless of the order in which the
+ * downloads finished. If an {@link AdaptiveConcurrency} controller is provided, it decides how
+ * many of the worker threads may download at the same time.
+ * <p>
+ * Data files can also be downloaded while they are still being searched, see
+ * {@link #applyStreaming(Consumer)}.
+ * <p>
+ * If a datastore is temporarily unavailable, its batches are put aside and downloaded later while
+ * the workers continue with the batches of other datastores.
+ */
+public class ParallelDownload implements Function<List<DataFile>, List<DownloadReport>> {
+
+  private static final Logger log = LogManager.getLogger(ParallelDownload.class);
+
+  /**
+   * The maximal number of batches waiting for a worker when streaming.
+   */
+  static final int QUEUED_BATCHES = 16;
+  /**
+   * The time a batch of a temporarily unavailable datastore is put aside.
+   */
+  static final long REQUEUE_DELAY_MILLIS = 5_000;
+  private static final long POLL_INTERVAL_MILLIS = 100;
+  /**
+   * Tells a worker that no more batches follow. Compared by identity.
+   */
+  private static final Work END_OF_WORK = new Work(List.of(), reports -> {
+  });
+
+  private final Function<List<DataFile>, List<DownloadReport>> download;
+  private final Function<List<DataFile>, List<List<DataFile>>> batching;
+  private final int parallelism;
+  private final AdaptiveConcurrency adaptiveConcurrency;
+
+  public ParallelDownload(Function<List<DataFile>, List<DownloadReport>> download,
+      Function<List<DataFile>, List<List<DataFile>>> batching, int parallelism) {
+    this(download, batching, parallelism, null);
+  }
+
+  public ParallelDownload(Function<List<DataFile>, List<DownloadReport>> download,
+      Function<List<DataFile>, List<List<DataFile>>> batching,
+      AdaptiveConcurrency adaptiveConcurrency) {
+    this(download, batching, adaptiveConcurrency.maxConcurrency(), adaptiveConcurrency);
+  }
+
+  private ParallelDownload(Function<List<DataFile>, List<DownloadReport>> download,
+      Function<List<DataFile>, List<List<DataFile>>> batching, int parallelism,
+      AdaptiveConcurrency adaptiveConcurrency) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1 but was " + parallelism);
+    }
+    this.download = download;
+    this.batching = batching;
+    this.parallelism = parallelism;
+    this.adaptiveConcurrency = adaptiveConcurrency;
+  }
+
+  @Override
+  public List<DownloadReport> apply(List<DataFile> dataFiles) {
+    List<List<DataFile>> batches = batching.apply(dataFiles);
+    log.debug("Downloading %s files in %s batches".formatted(dataFiles.size(), batches.size()));
+    AtomicReferenceArray<List<DownloadReport>> batchReports =
+        new AtomicReferenceArray<>(batches.size());
+    int workerCount = Math.max(1, Math.min(parallelism, batches.size()));
+    BlockingQueue<Work> queue = new LinkedBlockingQueue<>();
+    for (int i = 0; i < batches.size(); i++) {
+      int index = i;
+      queue.add(new Work(batches.get(i), reports -> batchReports.set(index, reports)));
+    }
+    for (int i = 0; i < workerCount; i++) {
+      queue.add(END_OF_WORK);
+    }
+    DelayQueue<DeferredWork> deferredWork = new DelayQueue<>();
+    if (workerCount == 1) {
+      try {
+        work(queue, deferredWork);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for downloads to finish.", e);
+      }
+    } else {
+      log.debug("Downloading %s batches using %s threads".formatted(batches.size(), workerCount));
+      runWorkers(workerCount, queue, deferredWork, workers -> {});
+    }
+    List<DownloadReport> downloadReports = new ArrayList<>(dataFiles.size());
+    for (int i = 0; i < batches.size(); i++) {
+      downloadReports.addAll(batchReports.get(i));
+    }
+    return downloadReports;
+  }
+
+  /**
+   * Downloads data files while they are still being searched.
+   * <p>
+   * The producer runs on the calling thread and publishes data files to the consumer it is given.
+   * The published files are batched and queued for the worker threads. While
+   * {@link #QUEUED_BATCHES} batches are waiting, publishing blocks until a worker takes the next
+   * batch, so the search does not run far ahead of the downloads. The returned reports are in the
+   * order in which the downloads finished.
+   *
+   * @param producer publishes the data files to download; may publish from multiple threads
+   * @return the reports of all published data files
+   */
+  public List<DownloadReport> applyStreaming(Consumer<Consumer<List<DataFile>>> producer) {
+    BlockingQueue<Work> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+    Queue<DownloadReport> downloadReports = new ConcurrentLinkedQueue<>();
+    runWorkers(parallelism, queue, new DelayQueue<>(), workers -> {
+      producer.accept(dataFiles -> {
+        for (List<DataFile> batch : batching.apply(dataFiles)) {
+          enqueue(queue, new Work(batch, downloadReports::addAll), workers);
+        }
+      });
+      for (int i = 0; i < parallelism; i++) {
+        enqueue(queue, END_OF_WORK, workers);
+      }
+    });
+    log.debug("Downloaded %s streamed files".formatted(downloadReports.size()));
+    return new ArrayList<>(downloadReports);
+  }
+
+  /**
+   * Runs the workers on a new thread pool and waits until all of them are done.
+   *
+   * @param producer queues the work on the calling thread once the workers are started
+   */
+  private void runWorkers(int workerCount, BlockingQueue<Work> queue,
+      DelayQueue<DeferredWork> deferredWork, Consumer<List<Future<Void>>> producer) {
+    ExecutorService executorService = Executors.newFixedThreadPool(workerCount,
+        new DownloadThreadFactory());
+    try {
+      List<Future<Void>> workers = new ArrayList<>(workerCount);
+      for (int i = 0; i < workerCount; i++) {
+        workers.add(executorService.submit(() -> {
+          work(queue, deferredWork);
+          return null;
+        }));
+      }
+      producer.accept(workers);
+      for (Future<Void> worker : workers) {
+        worker.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for downloads to finish.", e);
+    } catch (ExecutionException e) {
+      throw rethrow(e);
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  /**
+   * Downloads the queued batches until the end of the work was taken from the queue and no batch
+   * is put aside anymore.
+   * <p>
+   * Batches of a temporarily unavailable datastore are put aside for
+   * {@link #REQUEUE_DELAY_MILLIS}, so the worker continues with the batches of other datastores
+   * meanwhile instead of waiting for the datastore to recover.
+   */
+  private void work(BlockingQueue<Work> queue, DelayQueue<DeferredWork> deferredWork)
+      throws InterruptedException {
+    boolean endOfWork = false;
+    while (!endOfWork || !deferredWork.isEmpty()) {
+      // once the end was taken, the queue is left to the other workers
+      DeferredWork deferred = endOfWork
+          ? deferredWork.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)
+          : deferredWork.poll();
+      Work work;
+      if (Objects.nonNull(deferred)) {
+        work = deferred.work();
+      } else if (endOfWork) {
+        continue;
+      } else {
+        work = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        if (Objects.isNull(work)) {
+          continue;
+        }
+        if (work == END_OF_WORK) {
+          endOfWork = true;
+          continue;
+        }
+      }
+      try {
+        work.reports().accept(downloadBatch(work.batch()));
+      } catch (ServerUnavailableException e) {
+        log.debug("%s Downloading %s files later.".formatted(e.getMessage(), work.batch().size()));
+        deferredWork.add(new DeferredWork(work,
+            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REQUEUE_DELAY_MILLIS)));
+      }
+    }
+  }
+
+  /**
+   * Waits until the batch is queued. Fails if a worker failed, as the queue might never be taken
+   * from again.
+   */
+  private static void enqueue(BlockingQueue<Work> queue, Work work, List<Future<Void>> workers) {
+    try {
+      while (!queue.offer(work, 1, TimeUnit.SECONDS)) {
+        for (Future<Void> worker : workers) {
+          if (worker.isDone()) {
+            worker.get();
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for downloads to finish.", e);
+    } catch (ExecutionException e) {
+      throw rethrow(e);
+    }
+  }
+
+  private static RuntimeException rethrow(ExecutionException e) {
+    if (e.getCause() instanceof RuntimeException runtimeException) {
+      return runtimeException;
+    }
+    return new RuntimeException(e.getCause());
+  }
+
+  private List<DownloadReport> downloadBatch(List<DataFile> batch) throws InterruptedException {
+    if (Objects.isNull(adaptiveConcurrency)) {
+      return download.apply(batch);
+    }
+    adaptiveConcurrency.acquire();
+    try {
+      List<DownloadReport> downloadReports = download.apply(batch);
+      downloadReports.stream()
+          .filter(DownloadReport::isFailure)
+          .forEach(it -> adaptiveConcurrency.recordFailure());
+      return downloadReports;
+    } finally {
+      adaptiveConcurrency.release();
+    }
+  }
+
+  /**
+   * @param batch   the data files to download together
+   * @param reports receives the download reports of the batch
+   */
+  private record Work(List<DataFile> batch, Consumer<List<DownloadReport>> reports) {
+
+  }
+
+  /**
+   * Work that is put aside until the due time.
+   */
+  private record DeferredWork(Work work, long dueNanos) implements Delayed {
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+  }
+
+  private static class DownloadThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadCount = new AtomicInteger(0);
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "download-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package life.qbic.qpostman.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Transfers an input stream to a file channel in three stages running on separate threads.
+ * <p>
+ * The calling thread drains the input stream into a fixed ring of direct buffers. A second stage
+ * computes the CRC32 checksum and a third stage writes the buffers to the file channel before
+ * handing them back to the first stage. Thus, a slow disk does not stall reading from the network
+ * until all buffers are in use. The memory used per transfer is bounded by the number and size of
+ * the buffers.
+ * <p>
+ * The stages are never interrupted, as interrupting a thread writing to a file channel closes the
+ * channel. Instead, every stage hands on a marker telling the next stage to stop.
+ */
+class PipelinedWrite {
+
+  static final int DEFAULT_BUFFER_COUNT = 4;
+
+  private static final long POLL_INTERVAL_MILLIS = 100;
+
+  /**
+   * Marks the end of the stream. Compared by identity.
+   */
+  private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+  /**
+   * Marks that the transfer failed and the remaining buffers are discarded. Compared by identity.
+   */
+  private static final ByteBuffer STOP = ByteBuffer.allocate(0);
+
+  private static final ExecutorService STAGE_EXECUTOR = Executors.newCachedThreadPool(
+      new StageThreadFactory());
+
+  private PipelinedWrite() {
+  }
+
+  /**
+   * Writes the input stream to the file channel starting at the current position of the channel.
+   *
+   * @param bufferSize       the size of each buffer in bytes
+   * @param bufferCount      the number of buffers shared by the stages
+   * @param inputStream      the stream to read from
+   * @param fileChannel      the channel to write to
+   * @param durabilityPolicy when to force written data to the storage device
+   * @param bandwidthLimiter the limiter every read is drawn from
+   * @param progressListener the listener informed about read bytes, finished also if writing fails
+   * @return the CRC32 checksum of the written data
+   * @throws IOException in case reading or writing fails
+   */
+  static long write(int bufferSize, int bufferCount, InputStream inputStream,
+      FileChannel fileChannel, DurabilityPolicy durabilityPolicy,
+      BandwidthLimiter bandwidthLimiter, WriteProgressListener progressListener)
+      throws IOException {
+    BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+    // every queue can hold all buffers and the end marker, so putting never blocks
+    BlockingQueue<ByteBuffer> checksumQueue = new ArrayBlockingQueue<>(bufferCount + 1);
+    BlockingQueue<ByteBuffer> writeQueue = new ArrayBlockingQueue<>(bufferCount + 1);
+    for (int i = 0; i < bufferCount; i++) {
+      freeBuffers.add(ByteBuffer.allocateDirect(Math.max(bufferSize, 1)));
+    }
+    Future<Long> checksum = STAGE_EXECUTOR.submit(() -> checksum(checksumQueue, writeQueue));
+    Future<Void> write = STAGE_EXECUTOR.submit(
+        () -> write(writeQueue, freeBuffers, fileChannel, durabilityPolicy));
+    try {
+      read(inputStream, freeBuffers, checksumQueue, checksum, write, bandwidthLimiter,
+          progressListener);
+      write.get();
+      return checksum.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException ioException) {
+        throw ioException;
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      // the stages use the file channel until they received the marker put by the first stage
+      awaitStage(checksum);
+      awaitStage(write);
+      progressListener.finish();
+    }
+  }
+
+  /**
+   * Waits for the stage to finish, also if the calling thread is interrupted. The interrupt is
+   * restored afterwards.
+   */
+  private static void awaitStage(Future<?> stage) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        stage.get();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException e) {
+        // reported by the caller
+        break;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void read(InputStream inputStream, BlockingQueue<ByteBuffer> freeBuffers,
+      BlockingQueue<ByteBuffer> checksumQueue, Future<?> checksum, Future<?> write,
+      BandwidthLimiter bandwidthLimiter, WriteProgressListener progressListener) throws IOException, InterruptedException {
+    ReadableByteChannel source = Channels.newChannel(inputStream);
+    ByteBuffer marker = STOP;
+    try {
+      boolean endOfStream = false;
+      while (!endOfStream) {
+        ByteBuffer buffer = freeBuffers.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        if (buffer == null) {
+          if (checksum.isDone() || write.isDone()) {
+            // a later stage failed and will not hand back buffers
+            return;
+          }
+          continue;
+        }
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+          int bytesRead = source.read(buffer);
+          if (bytesRead < 0) {
+            endOfStream = true;
+            break;
+          }
+          // reported before throttling, so throttling is not taken for latency of the server
+          progressListener.update(bytesRead);
+          bandwidthLimiter.acquire(bytesRead);
+        }
+        buffer.flip();
+        checksumQueue.put(buffer);
+      }
+      marker = END_OF_STREAM;
+    } finally {
+      checksumQueue.add(marker);
+    }
+  }
+
+  private static long checksum(BlockingQueue<ByteBuffer> checksumQueue,
+      BlockingQueue<ByteBuffer> writeQueue) throws InterruptedException {
+    CRC32 crc32 = new CRC32();
+    ByteBuffer marker = STOP;
+    try {
+      ByteBuffer buffer;
+      while ((buffer = checksumQueue.take()) != END_OF_STREAM && buffer != STOP) {
+        crc32.update(buffer.duplicate());
+        writeQueue.put(buffer);
+      }
+      marker = buffer;
+    } finally {
+      writeQueue.add(marker);
+    }
+    return crc32.getValue();
+  }
+
+  private static Void write(BlockingQueue<ByteBuffer> writeQueue,
+      BlockingQueue<ByteBuffer> freeBuffers, FileChannel fileChannel,
+      DurabilityPolicy durabilityPolicy) throws IOException, InterruptedException {
+    long bytesSinceSync = 0;
+    ByteBuffer buffer;
+    while ((buffer = writeQueue.take()) != END_OF_STREAM) {
+      if (buffer == STOP) {
+        return null;
+      }
+      bytesSinceSync += buffer.remaining();
+      while (buffer.hasRemaining()) {
+        fileChannel.write(buffer);
+      }
+      freeBuffers.put(buffer);
+      if (durabilityPolicy == DurabilityPolicy.PERIODIC
+          && bytesSinceSync >= DurabilityPolicy.PERIODIC_SYNC_BYTES) {
+        fileChannel.force(false);
+        bytesSinceSync = 0;
+      }
+    }
+    if (durabilityPolicy != DurabilityPolicy.NONE) {
+      fileChannel.force(false);
+    }
+    return null;
+  }
+
+  private static class StageThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadCount = new AtomicInteger(0);
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "transfer-stage-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
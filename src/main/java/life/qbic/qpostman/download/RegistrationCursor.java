@@ -0,0 +1,158 @@
+package life.qbic.qpostman.download;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import picocli.CommandLine.ITypeConverter;
+
+/**
+ * The latest dataset registration time seen by a previous download, stored in the output
+ * directory.
+ * <p>
+ * A cursor is kept for every set of sample identifiers, so that polling several projects into the
+ * same output directory keeps one cursor per project. Every line of the cursor file contains the
+ * comma separated sample identifiers and the tab separated registration time in ISO-8601 format.
+ */
+public class RegistrationCursor {
+
+  private static final Logger log = LogManager.getLogger(RegistrationCursor.class);
+
+  static final String CURSOR_FILE_NAME = ".postman-cursors.tsv";
+  private static final String DELIMITER = "\t";
+
+  private final Path cursorFile;
+  private final String key;
+
+  private RegistrationCursor(Path cursorFile, String key) {
+    this.cursorFile = cursorFile;
+    this.key = key;
+  }
+
+  /**
+   * @param outputDirectory   the directory files are downloaded to
+   * @param sampleIdentifiers the sample identifiers of the download
+   * @return the cursor of the sample identifiers in the output directory
+   */
+  public static RegistrationCursor of(Path outputDirectory, Collection<String> sampleIdentifiers) {
+    requireNonNull(outputDirectory, "outputDirectory must not be null");
+    requireNonNull(sampleIdentifiers, "sampleIdentifiers must not be null");
+    return new RegistrationCursor(outputDirectory.resolve(CURSOR_FILE_NAME),
+        String.join(",", new TreeSet<>(sampleIdentifiers)));
+  }
+
+  /**
+   * @return the latest registration time stored by a previous download, empty if there was none
+   */
+  public Optional<Instant> lastRegistration() {
+    return Optional.ofNullable(readCursors().get(key));
+  }
+
+  /**
+   * Stores the registration time unless a later registration time is stored already.
+   *
+   * @param registration the latest registration time seen
+   */
+  public void advance(Instant registration) {
+    Map<String, Instant> cursors = readCursors();
+    cursors.merge(key, registration, (stored, seen) -> stored.isAfter(seen) ? stored : seen);
+    List<String> lines = cursors.entrySet().stream()
+        .map(entry -> entry.getKey() + DELIMITER + entry.getValue())
+        .toList();
+    try {
+      Files.createDirectories(cursorFile.getParent());
+      Path temporaryFile = Files.createTempFile(cursorFile.getParent(), CURSOR_FILE_NAME, ".tmp");
+      Files.write(temporaryFile, lines, StandardCharsets.UTF_8);
+      Files.move(temporaryFile, cursorFile, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write registration cursor " + cursorFile, e);
+    }
+    log.debug("Stored registration cursor %s for %s".formatted(cursors.get(key), key));
+  }
+
+  private Map<String, Instant> readCursors() {
+    if (!Files.exists(cursorFile)) {
+      return new TreeMap<>();
+    }
+    try {
+      return Files.readAllLines(cursorFile, StandardCharsets.UTF_8).stream()
+          .map(line -> line.split(DELIMITER))
+          .filter(fields -> fields.length == 2)
+          .collect(Collectors.toMap(fields -> fields[0], fields -> Instant.parse(fields[1]),
+              (first, second) -> second, TreeMap::new));
+    } catch (IOException | DateTimeParseException e) {
+      log.warn("Ignoring unreadable registration cursor %s: %s".formatted(cursorFile, e.getMessage()));
+      return new TreeMap<>();
+    }
+  }
+
+  /**
+   * The value of the {@code --since} option: either a point in time or the registration time
+   * stored by the previous download.
+   *
+   * @param timestamp the point in time, empty for the stored registration time
+   */
+  public record Since(Optional<Instant> timestamp) {
+
+    static final Since AUTO = new Since(Optional.empty());
+
+    public boolean isAuto() {
+      return timestamp.isEmpty();
+    }
+  }
+
+  public static class SinceConverter implements ITypeConverter<Since> {
+
+    @Override
+    public Since convert(String input) {
+      return parse(input);
+    }
+
+    /**
+     * Parses {@code auto}, an ISO-8601 instant or date and time with offset, or a local date and
+     * time or date in the system time zone.
+     */
+    static Since parse(String input) {
+      String value = input.strip();
+      if (value.equalsIgnoreCase("auto")) {
+        return Since.AUTO;
+      }
+      ZoneId zone = ZoneId.systemDefault();
+      try {
+        return new Since(Optional.of(OffsetDateTime.parse(value).toInstant()));
+      } catch (DateTimeParseException e) {
+        // try the next format
+      }
+      try {
+        return new Since(Optional.of(LocalDateTime.parse(value).atZone(zone).toInstant()));
+      } catch (DateTimeParseException e) {
+        // try the next format
+      }
+      try {
+        return new Since(Optional.of(LocalDate.parse(value).atStartOfDay(zone).toInstant()));
+      } catch (DateTimeParseException e) {
+        throw new IllegalArgumentException("Unknown timestamp " + input
+            + ". Use auto, a date like 2024-05-01 or a time like 2024-05-01T12:00:00Z");
+      }
+    }
+  }
+}
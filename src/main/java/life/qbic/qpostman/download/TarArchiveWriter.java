@@ -0,0 +1,221 @@
+package life.qbic.qpostman.download;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes a tar archive in the POSIX ustar format to an output stream. Paths that do not fit into
+ * the ustar header and files larger than 8 GiB are described by PAX extended headers.
+ * <p>
+ * The archive is written strictly sequentially, so it can be written to a pipe. The size of every
+ * entry must be known before its content is written. An entry whose content falls short of the
+ * announced size is padded with zeros, so the archive stays readable.
+ * <p>
+ * This class is not thread-safe.
+ */
+final class TarArchiveWriter implements Closeable {
+
+  private static final int BLOCK_SIZE = 512;
+  private static final int NAME_LENGTH = 100;
+  private static final long MAX_USTAR_SIZE = 077777777777L;
+  private static final byte[] ZEROS = new byte[BLOCK_SIZE];
+
+  private final OutputStream outputStream;
+  private long remainingEntryBytes;
+  private long entryBytes;
+  private boolean entryOpen;
+
+  /**
+   * @param outputStream the stream the archive is written to. It is closed together with this
+   *                     writer.
+   * @param bufferSize   the size of the write buffer in bytes
+   */
+  TarArchiveWriter(OutputStream outputStream, int bufferSize) {
+    this.outputStream = new BufferedOutputStream(outputStream, bufferSize);
+  }
+
+  /**
+   * Starts a new entry. Write exactly {@code size} bytes to the returned stream and call
+   * {@link #closeEntry()} afterwards.
+   * <p>
+   * Failures writing to the archive are thrown as {@link UncheckedIOException} by this method and
+   * by the returned stream, so they can be told apart from failures reading the content of the
+   * entry.
+   *
+   * @param name                the path of the entry within the archive, separated by '/'
+   * @param size                the size of the content in bytes
+   * @param modificationSeconds the modification time in seconds since the epoch
+   * @return the stream to write the content of the entry to
+   * @throws UncheckedIOException in case the header could not be written
+   */
+  OutputStream putEntry(String name, long size, long modificationSeconds) {
+    try {
+      writeEntryHeaders(name, size, modificationSeconds);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write to the archive", e);
+    }
+    remainingEntryBytes = size;
+    entryBytes = size;
+    entryOpen = true;
+    return new EntryOutputStream();
+  }
+
+  private void writeEntryHeaders(String name, long size, long modificationSeconds)
+      throws IOException {
+    if (entryOpen) {
+      throw new IllegalStateException("The previous entry was not closed.");
+    }
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    boolean needsPaxHeader = nameBytes.length > NAME_LENGTH
+        || nameBytes.length != name.length()
+        || size > MAX_USTAR_SIZE;
+    if (needsPaxHeader) {
+      byte[] paxRecords = (paxRecord("path", name) + paxRecord("size", Long.toString(size)))
+          .getBytes(StandardCharsets.UTF_8);
+      writeHeader(asciiName("PaxHeaders/" + name), paxRecords.length, modificationSeconds, 'x');
+      outputStream.write(paxRecords);
+      pad(paxRecords.length);
+    }
+    writeHeader(asciiName(name), size > MAX_USTAR_SIZE ? 0 : size, modificationSeconds, '0');
+  }
+
+  /**
+   * Completes the current entry. Missing content is filled with zeros.
+   *
+   * @throws UncheckedIOException in case writing to the archive fails
+   */
+  void closeEntry() {
+    if (!entryOpen) {
+      return;
+    }
+    try {
+      while (remainingEntryBytes > 0) {
+        int length = (int) Math.min(remainingEntryBytes, ZEROS.length);
+        outputStream.write(ZEROS, 0, length);
+        remainingEntryBytes -= length;
+      }
+      pad(entryBytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write to the archive", e);
+    }
+    entryOpen = false;
+  }
+
+  /**
+   * Completes the current entry, writes the end-of-archive marker and closes the underlying
+   * stream.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      closeEntry();
+      outputStream.write(ZEROS);
+      outputStream.write(ZEROS);
+      outputStream.flush();
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  private void pad(long length) throws IOException {
+    int remainder = (int) (length % BLOCK_SIZE);
+    if (remainder > 0) {
+      outputStream.write(ZEROS, 0, BLOCK_SIZE - remainder);
+    }
+  }
+
+  private void writeHeader(String name, long size, long modificationSeconds, char type)
+      throws IOException {
+    byte[] header = new byte[BLOCK_SIZE];
+    putString(header, 0, NAME_LENGTH, name);
+    putOctal(header, 100, 8, 0644);
+    putOctal(header, 108, 8, 0);
+    putOctal(header, 116, 8, 0);
+    putOctal(header, 124, 12, size);
+    putOctal(header, 136, 12, Math.max(modificationSeconds, 0));
+    header[156] = (byte) type;
+    putString(header, 257, 6, "ustar");
+    putString(header, 263, 2, "00");
+    // the checksum is computed with the checksum field filled with spaces
+    Arrays.fill(header, 148, 156, (byte) ' ');
+    long checksum = 0;
+    for (byte b : header) {
+      checksum += b & 0xff;
+    }
+    putOctal(header, 148, 7, checksum);
+    header[155] = ' ';
+    outputStream.write(header);
+  }
+
+  private static void putString(byte[] header, int offset, int length, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+    System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+  }
+
+  /**
+   * Writes the value as zero-padded octal number followed by a NUL byte.
+   */
+  private static void putOctal(byte[] header, int offset, int length, long value) {
+    String octal = Long.toOctalString(value);
+    String padded = "0".repeat(Math.max(length - 1 - octal.length(), 0)) + octal;
+    putString(header, offset, length - 1, padded);
+    header[offset + length - 1] = 0;
+  }
+
+  /**
+   * The name written to the ustar header. If the name does not fit, the PAX header contains the
+   * full name.
+   */
+  private static String asciiName(String name) {
+    String ascii = name.codePoints()
+        .map(codePoint -> codePoint < 0x80 ? codePoint : '_')
+        .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append)
+        .toString();
+    return ascii.length() > NAME_LENGTH ? ascii.substring(ascii.length() - NAME_LENGTH) : ascii;
+  }
+
+  /**
+   * A PAX record has the form "length key=value\n", where length includes its own digits.
+   */
+  private static String paxRecord(String key, String value) {
+    int contentLength = key.length() + value.getBytes(StandardCharsets.UTF_8).length + 3;
+    int length = contentLength + Integer.toString(contentLength).length();
+    if (Integer.toString(length).length() > Integer.toString(contentLength).length()) {
+      length++;
+    }
+    return length + " " + key + "=" + value + "\n";
+  }
+
+  private class EntryOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * Content exceeding the announced size is dropped. The checksum of the content tells whether
+     * the entry is complete.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) {
+      int length = (int) Math.min(len, remainingEntryBytes);
+      try {
+        outputStream.write(b, off, length);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not write to the archive", e);
+      }
+      remainingEntryBytes -= length;
+    }
+
+    @Override
+    public void flush() {
+      // the archive is flushed once it is closed
+    }
+  }
+}
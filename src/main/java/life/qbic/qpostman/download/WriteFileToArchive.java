@@ -0,0 +1,191 @@
+package life.qbic.qpostman.download;
+
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.download.DataSetFileDownload;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.download.WriteFileToDisk.AutoClosableDataSetFileDownloadReader;
+import life.qbic.qpostman.download.WriteFileToDisk.DownloadReport;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A function writing data files into a single tar archive and returning the write reports.
+ * <p>
+ * Every file is added with the path it would have in the output directory, see
+ * {@link WriteFileToDisk}. The checksum of every file is verified while it is written. A file
+ * that fails verification is downloaded again and added to the archive another time; when the
+ * archive is extracted, the later entry replaces the earlier one. The last entry of the archive
+ * is a manifest listing the expected and the actual checksum of every file.
+ * <p>
+ * Files are written one after the other, as the archive is written sequentially.
+ */
+public class WriteFileToArchive implements Function<List<DataFile>, List<DownloadReport>> {
+
+    static final String MANIFEST_NAME = "postman-checksums.tsv";
+
+    private static final Logger log = LogManager.getLogger(WriteFileToArchive.class);
+
+    private final int bufferSize;
+    private final OutputStream outputStream;
+    private final int downloadAttempts;
+    private final boolean ignoreDirectories;
+    private final Function<DataFile, WriteProgressListener> progressListenerFactory;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final Function<List<DataFile>, AutoClosableDataSetFileDownloadReader> readerFactory;
+
+    /**
+     * @param bufferSize              the size of the read and write buffers in bytes
+     * @param outputStream            the stream the archive is written to. It is closed once the
+     *                                archive is complete.
+     * @param downloadAttempts        how often a file is downloaded at most
+     * @param ignoreDirectories       whether the directory structure on the server is dropped
+     * @param progressListenerFactory provides a progress listener for every written file
+     * @param bandwidthLimiter        the limiter every read is drawn from
+     */
+    public WriteFileToArchive(int bufferSize, OutputStream outputStream, int downloadAttempts,
+        boolean ignoreDirectories,
+        Function<DataFile, WriteProgressListener> progressListenerFactory,
+        BandwidthLimiter bandwidthLimiter) {
+        this(bufferSize, outputStream, downloadAttempts, ignoreDirectories, progressListenerFactory,
+            bandwidthLimiter, WriteFileToDisk::toReader);
+    }
+
+    /**
+     * @param readerFactory requests a batch of files from the datastore hosting them
+     */
+    WriteFileToArchive(int bufferSize, OutputStream outputStream, int downloadAttempts,
+        boolean ignoreDirectories,
+        Function<DataFile, WriteProgressListener> progressListenerFactory,
+        BandwidthLimiter bandwidthLimiter,
+        Function<List<DataFile>, AutoClosableDataSetFileDownloadReader> readerFactory) {
+        this.bufferSize = bufferSize;
+        this.outputStream = outputStream;
+        this.downloadAttempts = downloadAttempts;
+        this.ignoreDirectories = ignoreDirectories;
+        this.progressListenerFactory = progressListenerFactory;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.readerFactory = readerFactory;
+    }
+
+    /**
+     * Writes all data files into the archive.
+     *
+     * @param dataFiles the data files to download
+     * @return the download reports in the order of the provided data files
+     * @throws UncheckedIOException in case writing the archive fails
+     */
+    @Override
+    public List<DownloadReport> apply(List<DataFile> dataFiles) {
+        Map<String, DownloadReport> downloadReports = new HashMap<>();
+        try (TarArchiveWriter archive = new TarArchiveWriter(outputStream, bufferSize)) {
+            for (List<DataFile> batch : new DownloadBatches().apply(dataFiles)) {
+                downloadReports.putAll(writeBatch(archive, batch));
+            }
+            for (int attempt = 2; attempt <= downloadAttempts; attempt++) {
+                List<DataFile> failedFiles = dataFiles.stream()
+                    .filter(dataFile -> !isSuccess(downloadReports.get(dataFile.filePermId())))
+                    .toList();
+                if (failedFiles.isEmpty()) {
+                    break;
+                }
+                log.warn("Download attempt %s / %s for %s files".formatted(attempt, downloadAttempts,
+                    failedFiles.size()));
+                for (DataFile failedFile : failedFiles) {
+                    downloadReports.putAll(writeBatch(archive, List.of(failedFile)));
+                }
+            }
+            List<DownloadReport> orderedReports = dataFiles.stream()
+                .map(dataFile -> Objects.requireNonNullElseGet(
+                    downloadReports.get(dataFile.filePermId()),
+                    () -> new DownloadReport(dataFile.crc32(), 0, entryPath(dataFile))))
+                .toList();
+            writeManifest(archive, orderedReports);
+            return orderedReports;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the archive", e);
+        }
+    }
+
+    private static boolean isSuccess(DownloadReport downloadReport) {
+        return Objects.nonNull(downloadReport) && downloadReport.isSuccess();
+    }
+
+    /**
+     * Downloads the files of the batch with a single request to the datastore hosting them. Files
+     * that were not received are missing from the returned reports.
+     */
+    private Map<String, DownloadReport> writeBatch(TarArchiveWriter archive, List<DataFile> batch) {
+        Map<String, DataFile> pendingFiles = batch.stream()
+            .collect(Collectors.toMap(DataFile::filePermId, Function.identity()));
+        Map<String, DownloadReport> downloadReports = new HashMap<>();
+        try (AutoClosableDataSetFileDownloadReader reader = readerFactory.apply(batch)) {
+            DataSetFileDownload download;
+            while (Objects.nonNull(download = reader.read())) {
+                DataSetFile dataSetFile = download.getDataSetFile();
+                if (dataSetFile.isDirectory()) {
+                    continue;
+                }
+                DataFile dataFile = pendingFiles.remove(DataFile.filePermId(dataSetFile));
+                if (Objects.isNull(dataFile)) {
+                    log.warn("Received unexpected file " + dataSetFile.getPath() + " from the datastore.");
+                    download.getInputStream().transferTo(OutputStream.nullOutputStream());
+                    continue;
+                }
+                DownloadReport downloadReport = writeEntry(archive, dataFile, download.getInputStream());
+                downloadReports.put(dataFile.filePermId(), downloadReport);
+            }
+        } catch (UncheckedIOException e) {
+            // the archive can not be written
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // the entry that was written when the failure occurred is completed with zeros
+            archive.closeEntry();
+            log.warn("Download of %s files was interrupted: %s".formatted(batch.size(), e.getMessage()));
+            log.debug(e.getMessage(), e);
+        }
+        return downloadReports;
+    }
+
+    private DownloadReport writeEntry(TarArchiveWriter archive, DataFile dataFile,
+        InputStream inputStream) throws IOException {
+        OutputStream entry = archive.putEntry(entryName(dataFile), dataFile.fileSize().bytes(),
+            dataFile.dataSet().registrationTime().getEpochSecond());
+        int bufferSize = (int) Math.max(1, Math.min(dataFile.fileSize().bytes(), this.bufferSize));
+        long writtenCrc32 = WriteUtils.write(bufferSize, inputStream, entry, bandwidthLimiter,
+            progressListenerFactory.apply(dataFile));
+        archive.closeEntry();
+        return new DownloadReport(dataFile.crc32(), writtenCrc32, entryPath(dataFile));
+    }
+
+    private void writeManifest(TarArchiveWriter archive, List<DownloadReport> downloadReports)
+        throws IOException {
+        byte[] manifest = downloadReports.stream()
+            .map(downloadReport -> downloadReport + "\n")
+            .collect(Collectors.joining())
+            .getBytes(StandardCharsets.UTF_8);
+        OutputStream entry = archive.putEntry(MANIFEST_NAME, manifest.length,
+            System.currentTimeMillis() / 1000);
+        entry.write(manifest);
+        archive.closeEntry();
+    }
+
+    private String entryName(DataFile dataFile) {
+        return WriteFileToDisk.toRelativePath(dataFile, ignoreDirectories);
+    }
+
+    private Path entryPath(DataFile dataFile) {
+        return Path.of(entryName(dataFile));
+    }
+}
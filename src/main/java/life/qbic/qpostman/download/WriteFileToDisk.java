@@ -1,23 +1,40 @@
 package life.qbic.qpostman.download;
 
 import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.download.DataSetFileDownload;
 import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.download.DataSetFileDownloadOptions;
 import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.download.DataSetFileDownloadReader;
-import java.io.BufferedWriter;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.id.DataSetFilePermId;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.function.Function;
 import life.qbic.qpostman.common.structures.DataFile;
 import life.qbic.qpostman.download.WriteFileToDisk.DownloadReport;
+import life.qbic.qpostman.openbis.Backoff;
+import life.qbic.qpostman.openbis.ConnectionException;
 import life.qbic.qpostman.openbis.OpenBisSessionProvider;
+import life.qbic.qpostman.openbis.ServerUnavailableException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.remoting.RemoteAccessException;
 
 /**
  * A function writing a DataFile to disk and returning the write report.
@@ -26,59 +43,97 @@ public class WriteFileToDisk implements Function<DataFile, DownloadReport> {
 
     private static final String LOG_PATH = System.getProperty("log.path", "logs");
 
-    private final IDataStoreServerApi dataStoreServerApi;
     private final int bufferSize;
     private final Path outputDirectory;
     private final int downloadAttempts;
 
     private final boolean ignoreDirectories;
 
+    private final Function<DataFile, WriteProgressListener> progressListenerFactory;
+
+    private final DownloadJournal downloadJournal;
+
+    private final DurabilityPolicy durabilityPolicy;
+
+    private final boolean pipelined;
+
+    private final BandwidthLimiter bandwidthLimiter;
+
+    private static final Object CHECKSUM_MISMATCH_LOCK = new Object();
+
     private static final Logger log = LogManager.getLogger(WriteFileToDisk.class);
-    public WriteFileToDisk(IDataStoreServerApi dataStoreServerApi, int bufferSize, Path outputDirectory,
-        int downloadAttempts, boolean ignoreDirectories) {
-        this.dataStoreServerApi = dataStoreServerApi;
+    public WriteFileToDisk(int bufferSize, Path outputDirectory,
+        int downloadAttempts, boolean ignoreDirectories,
+        Function<DataFile, WriteProgressListener> progressListenerFactory,
+        DownloadJournal downloadJournal, DurabilityPolicy durabilityPolicy, boolean pipelined,
+        BandwidthLimiter bandwidthLimiter) {
         this.bufferSize = bufferSize;
         this.outputDirectory = outputDirectory;
         this.downloadAttempts = downloadAttempts;
         this.ignoreDirectories = ignoreDirectories;
+        this.progressListenerFactory = progressListenerFactory;
+        this.downloadJournal = downloadJournal;
+        this.durabilityPolicy = durabilityPolicy;
+        this.pipelined = pipelined;
+        this.bandwidthLimiter = bandwidthLimiter;
     }
 
     private Path toOutputPath(DataFile dataFile, Path outputDirectory) {
-        Path dataSetDirectory = outputDirectory.resolve(dataFile.dataSet().sampleCode());
-        String fileSpecific = ignoreDirectories ? dataFile.fileName() :dataFile.filePath();
-      return dataSetDirectory.resolve(fileSpecific);
+        return outputDirectory.resolve(toRelativePath(dataFile, ignoreDirectories));
+    }
+
+    /**
+     * @param dataFile          the data file
+     * @param ignoreDirectories whether the directory structure on the server is dropped
+     * @return the path of the data file relative to the output directory
+     */
+    static String toRelativePath(DataFile dataFile, boolean ignoreDirectories) {
+        String fileSpecific = ignoreDirectories ? dataFile.fileName() : dataFile.filePath();
+        return dataFile.dataSet().sampleCode() + "/" + fileSpecific;
+    }
+
+    static AutoClosableDataSetFileDownloadReader toReader(DataFile dataFile) {
+        return toReader(Collections.singletonList(dataFile));
     }
 
-    private AutoClosableDataSetFileDownloadReader toReader(DataFile dataFile) {
+    /**
+     * Requests the data files from the datastore server hosting them. All files are expected to
+     * be hosted on the same datastore server.
+     */
+    static AutoClosableDataSetFileDownloadReader toReader(Collection<DataFile> dataFiles) {
+        List<DataSetFilePermId> fileIds = dataFiles.stream()
+            .map(DataFile::fileId)
+            .toList();
+        IDataStoreServerApi dataStoreServerApi = dataFiles.iterator().next().dataStoreServer();
         return new AutoClosableDataSetFileDownloadReader(
             dataStoreServerApi.downloadFiles(OpenBisSessionProvider.get().getToken(),
-                Collections.singletonList(dataFile.fileId()),
+                fileIds,
                 new DataSetFileDownloadOptions()));
     }
 
-    private InputStream toInputStream(DataSetFileDownloadReader reader) {
+    static InputStream toInputStream(DataSetFileDownloadReader reader) {
         return reader.read().getInputStream();
     }
 
     /**
      * Download the specific data file.
+     * <p>
+     * This method is safe to be called from multiple threads for distinct data files.
      *
      * @param dataFile the data file to be applied
      * @return the download report
+     * @throws ServerUnavailableException if requests to the datastore are paused; the data file
+     *                                    can be downloaded again later
      */
     @Override
     public DownloadReport apply(DataFile dataFile) {
-        int bufferSize = (dataFile.fileSize().bytes() < this.bufferSize)
-            ? (int) dataFile.fileSize().bytes()
-            : this.bufferSize;
-        Path outputPath = toOutputPath(dataFile, outputDirectory);
-        if (WriteUtils.doesExistWithCrc32(outputPath, dataFile.crc32(), bufferSize)) {
-            log.info("File " + outputPath + " exists on your machine.");
-            return new DownloadReport(dataFile.crc32(), dataFile.crc32(), outputPath.toAbsolutePath());
+        Optional<DownloadReport> existingFile = existingFileReport(dataFile);
+        if (existingFile.isPresent()) {
+            return existingFile.get();
         }
         DownloadReport downloadReport = null;
         for (int attempt = 1; attempt <= downloadAttempts; attempt++) {
-            downloadReport = writeToDisk(dataFile, new DownloadProgressListener(dataFile.fileName(), dataFile.fileSize().bytes()));
+            downloadReport = writeToDisk(dataFile, progressListenerFactory.apply(dataFile));
 
             if (downloadReport.isSuccess()) {
                 return downloadReport;
@@ -86,18 +141,147 @@ public class WriteFileToDisk implements Function<DataFile, DownloadReport> {
                 log.warn("Download attempt %s / %s failed for %s".formatted(attempt, downloadAttempts, downloadReport.outputPath()));
                 log.trace(downloadReport);
             }
+            if (attempt < downloadAttempts && !awaitNextAttempt(attempt)) {
+                break;
+            }
         }
         try {
             Path file = Path.of(LOG_PATH, "checksum-mismatch.log");
             assert downloadReport != null : "download report is null";
-            Files.writeString(file, downloadReport + "\n", StandardOpenOption.CREATE,
-                StandardOpenOption.APPEND);
+            synchronized (CHECKSUM_MISMATCH_LOCK) {
+                Files.writeString(file, downloadReport + "\n", StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
         return downloadReport;
     }
 
+    /**
+     * @return false if the thread was interrupted while waiting; true otherwise
+     */
+    private static boolean awaitNextAttempt(int failedAttempts) {
+        try {
+            Backoff.DEFAULT.await(failedAttempts);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Downloads multiple data files with a single request to the datastore.
+     * <p>
+     * The files are demultiplexed from the response stream and verified individually. Files that
+     * could not be downloaded successfully as part of the batch are downloaded on their own
+     * afterwards, see {@link #apply(DataFile)}.
+     *
+     * @param dataFiles the data files to download
+     * @return the download reports in the order of the provided data files
+     * @throws ServerUnavailableException if requests to the datastore are paused; the data files
+     *                                    can be downloaded again later
+     */
+    public List<DownloadReport> applyBatch(List<DataFile> dataFiles) {
+        if (dataFiles.size() == 1) {
+            return List.of(apply(dataFiles.get(0)));
+        }
+        Map<String, DownloadReport> downloadReports = new HashMap<>();
+        Map<String, DataFile> pendingFiles = new LinkedHashMap<>();
+        for (DataFile dataFile : dataFiles) {
+            existingFileReport(dataFile).ifPresentOrElse(
+                report -> downloadReports.put(dataFile.filePermId(), report),
+                () -> pendingFiles.put(dataFile.filePermId(), dataFile));
+        }
+        if (!pendingFiles.isEmpty()) {
+            downloadReports.putAll(writeBatchToDisk(pendingFiles));
+        }
+        return dataFiles.stream()
+            .map(dataFile -> {
+                DownloadReport downloadReport = downloadReports.get(dataFile.filePermId());
+                if (Objects.nonNull(downloadReport) && downloadReport.isSuccess()) {
+                    return downloadReport;
+                }
+                log.debug("Batched download failed for %s. Downloading the file on its own.".formatted(dataFile.filePath()));
+                return apply(dataFile);
+            })
+            .toList();
+    }
+
+    /**
+     * Creates a data file from an identical file that was downloaded before. The data file becomes
+     * a hard link to the downloaded file. If the file system does not support hard links, the
+     * downloaded file is copied. If the identical file was not downloaded successfully, the data
+     * file is downloaded on its own, see {@link #apply(DataFile)}.
+     * <p>
+     * The content of the data file is not hashed. Files with equal size and CRC32 checksum are
+     * trusted to be identical, see {@link DuplicateFiles}, so a CRC32 collision of two different
+     * files of equal size goes unnoticed. The report carries the checksum of the identical file.
+     *
+     * @param duplicate      the data file to create
+     * @param originalReport the download report of the identical file
+     * @return the download report of the duplicate
+     * @throws ServerUnavailableException if the data file is downloaded on its own and requests to
+     *                                    the datastore are paused; the data file can be created
+     *                                    again later
+     */
+    public DownloadReport applyDuplicate(DataFile duplicate, DownloadReport originalReport) {
+        Optional<DownloadReport> existingFile = existingFileReport(duplicate);
+        if (existingFile.isPresent()) {
+            return existingFile.get();
+        }
+        if (originalReport.isFailure()) {
+            return apply(duplicate);
+        }
+        Path outFile = toOutputPath(duplicate, outputDirectory);
+        Path tempFile = temporaryFile(outFile);
+        try {
+            Files.createDirectories(outFile.getParent());
+            Files.deleteIfExists(tempFile);
+            linkOrCopy(originalReport.outputPath(), tempFile, Files::createLink);
+            commit(duplicate, tempFile, outFile, originalReport.actualCrc32());
+        } catch (IOException e) {
+            log.warn("Could not create %s from identical file %s: %s".formatted(outFile,
+                originalReport.outputPath(), e.getMessage()));
+            log.debug(e.getMessage(), e);
+            deleteQuietly(tempFile);
+            return apply(duplicate);
+        }
+        log.debug("Created %s from identical file %s".formatted(outFile, originalReport.outputPath()));
+        return new DownloadReport(duplicate.crc32(), originalReport.actualCrc32(), outFile.toAbsolutePath());
+    }
+
+    /**
+     * Links the target to the source file, copying the source file if it cannot be linked.
+     */
+    static void linkOrCopy(Path source, Path target, FileLink fileLink) throws IOException {
+        try {
+            fileLink.link(target, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            log.debug("Could not link %s to %s, copying instead: %s".formatted(target, source, e.getMessage()));
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Optional<DownloadReport> existingFileReport(DataFile dataFile) {
+        int bufferSize = (dataFile.fileSize().bytes() < this.bufferSize)
+            ? (int) dataFile.fileSize().bytes()
+            : this.bufferSize;
+        Path outputPath = toOutputPath(dataFile, outputDirectory);
+        if (downloadJournal.isComplete(dataFile, outputPath)) {
+            log.info("File " + outputPath + " exists on your machine.");
+            return Optional.of(new DownloadReport(dataFile.crc32(), dataFile.crc32(), outputPath.toAbsolutePath()));
+        }
+        if (WriteUtils.doesExistWithCrc32(outputPath, dataFile.crc32(), bufferSize)) {
+            log.info("File " + outputPath + " exists on your machine.");
+            // files downloaded without journal are added, so they are not checked again
+            downloadJournal.record(dataFile, outputPath);
+            return Optional.of(new DownloadReport(dataFile.crc32(), dataFile.crc32(), outputPath.toAbsolutePath()));
+        }
+        return Optional.empty();
+    }
+
     public record DownloadReport(long expectedCrc32, long actualCrc32, Path outputPath) {
         public boolean isSuccess() {
             return expectedCrc32 == actualCrc32;
@@ -114,43 +298,191 @@ public class WriteFileToDisk implements Function<DataFile, DownloadReport> {
         }
     }
 
+    private Map<String, DownloadReport> writeBatchToDisk(Map<String, DataFile> dataFiles) {
+        Map<String, DownloadReport> downloadReports = new HashMap<>();
+        // the transfers start with the request, so the listeners are created before sending it
+        Map<String, WriteProgressListener> progressListeners = new HashMap<>();
+        dataFiles.forEach((filePermId, dataFile) ->
+            progressListeners.put(filePermId, progressListenerFactory.apply(dataFile)));
+        try (AutoClosableDataSetFileDownloadReader reader = toReader(dataFiles.values())) {
+            DataSetFileDownload download;
+            while (Objects.nonNull(download = reader.read())) {
+                DataSetFile dataSetFile = download.getDataSetFile();
+                if (dataSetFile.isDirectory()) {
+                    continue;
+                }
+                DataFile dataFile = dataFiles.get(DataFile.filePermId(dataSetFile));
+                if (Objects.isNull(dataFile)) {
+                    log.warn("Received unexpected file " + dataSetFile.getPath() + " from the datastore.");
+                    download.getInputStream().transferTo(OutputStream.nullOutputStream());
+                    continue;
+                }
+                downloadReports.put(dataFile.filePermId(),
+                    writeStreamToDisk(dataFile, download.getInputStream(), progressListeners.get(dataFile.filePermId())));
+            }
+        } catch (ServerUnavailableException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // the remaining files of this batch are downloaded one by one
+            log.warn("Batched download of %s files was interrupted: %s".formatted(dataFiles.size(), e.getMessage()));
+            log.debug(e.getMessage(), e);
+            // the session might have expired
+            OpenBisSessionProvider.get().invalidate();
+        }
+        return downloadReports;
+    }
+
     private DownloadReport writeToDisk(DataFile dataFile, WriteProgressListener progressListener) {
-        Path outFile = toOutputPath(dataFile, outputDirectory);
+        try (AutoClosableDataSetFileDownloadReader reader = toReader(dataFile); //we need to reader here, so it is closed correctly
+            InputStream inputStream = toInputStream(reader)) {
+            return writeStreamToDisk(dataFile, inputStream, progressListener);
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            return new DownloadReport(dataFile.crc32(), 0, toOutputPath(dataFile, outputDirectory).toAbsolutePath());
+        } catch (ServerUnavailableException e) {
+            // the caller tries again once the datastore recovered
+            throw e;
+        } catch (RemoteAccessException | ConnectionException e) {
+            // a single unreachable datastore must not abort all other downloads
+            log.warn("Could not download %s: %s".formatted(dataFile.filePath(), e.getMessage()));
+            log.debug(e.getMessage(), e);
+            // the session might have expired
+            OpenBisSessionProvider.get().invalidate();
+            return new DownloadReport(dataFile.crc32(), 0, toOutputPath(dataFile, outputDirectory).toAbsolutePath());
+        }
+    }
 
-        Path crc32File = Path.of(outFile.toAbsolutePath() + ".crc32");
+    /**
+     * Writes the stream to a temporary file next to the output file. Only if the checksum matches,
+     * the temporary file is renamed to the output file. Thus, an existing output file is always
+     * complete.
+     */
+    private DownloadReport writeStreamToDisk(DataFile dataFile, InputStream inputStream,
+        WriteProgressListener progressListener) {
+        Path outFile = toOutputPath(dataFile, outputDirectory);
+        Path tempFile = temporaryFile(outFile);
         try {
             Files.createDirectories(outFile.getParent());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        try (AutoClosableDataSetFileDownloadReader reader = toReader(dataFile); //we need to reader here, so it is closed correctly
-            InputStream inputStream = toInputStream(reader);
-            FileOutputStream outputStream = new FileOutputStream(outFile.toFile());
-            BufferedWriter crc32FileWriter = new BufferedWriter(
-                new FileWriter(crc32File.toFile()))) {
+        long writtenCrc32;
+        try (FileChannel fileChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
             int bufferSize =
                 (dataFile.fileSize().bytes() < this.bufferSize) ? (int) dataFile.fileSize().bytes()
                     : this.bufferSize;
-            long writtenCrc32 = WriteUtils.write(bufferSize, inputStream, outputStream,
-                progressListener);
-            if (writtenCrc32 != dataFile.crc32()) {
-                return new DownloadReport(dataFile.crc32(), writtenCrc32, outFile.toAbsolutePath());
-            }
-            try {
-                Files.createDirectories(crc32File.getParent());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-            crc32FileWriter.write(Long.toHexString(writtenCrc32) + "\t" + dataFile.fileName());
-            crc32FileWriter.flush();
+            setExpectedSize(fileChannel, dataFile.fileSize().bytes());
+            writtenCrc32 = pipelined
+                ? PipelinedWrite.write(bufferSize, PipelinedWrite.DEFAULT_BUFFER_COUNT, inputStream,
+                    fileChannel, durabilityPolicy, bandwidthLimiter, progressListener)
+                : WriteUtils.write(bufferSize, inputStream, fileChannel, durabilityPolicy,
+                    bandwidthLimiter, progressListener);
+            // a shorter stream than announced must not leave the unwritten tail behind
+            fileChannel.truncate(fileChannel.position());
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            deleteQuietly(tempFile);
+            return new DownloadReport(dataFile.crc32(), 0, outFile.toAbsolutePath());
+        }
+        if (writtenCrc32 != dataFile.crc32()) {
+            deleteQuietly(tempFile);
             return new DownloadReport(dataFile.crc32(), writtenCrc32, outFile.toAbsolutePath());
+        }
+        try {
+            commit(dataFile, tempFile, outFile, writtenCrc32);
         } catch (IOException e) {
             log.error(e.getMessage(), e);
+            deleteQuietly(tempFile);
             return new DownloadReport(dataFile.crc32(), 0, outFile.toAbsolutePath());
         }
+        return new DownloadReport(dataFile.crc32(), writtenCrc32, outFile.toAbsolutePath());
     }
+
+    /**
+     * Moves a verified temporary file to its final location together with its checksum file and
+     * records the download in the journal.
+     */
+    private void commit(DataFile dataFile, Path tempFile, Path outFile, long crc32)
+        throws IOException {
+        commit(tempFile, outFile, crc32, dataFile.fileName(), WriteFileToDisk::moveAtomically);
+        downloadJournal.record(dataFile, outFile);
+    }
+
+    /**
+     * Moves a verified temporary file and its checksum file to their final location.
+     * <p>
+     * A checksum file is trusted without reading the file it belongs to, see
+     * {@link WriteUtils#doesExistWithCrc32(Path, long, int)}. Therefore, the checksum file of a
+     * previous download is removed first and the new checksum file is moved only after the output
+     * file. If the process dies in between, the output file has no checksum file and is hashed again
+     * by the next run.
+     */
+    static void commit(Path tempFile, Path outFile, long crc32, String fileName, FileMove fileMove)
+        throws IOException {
+        Path crc32File = Path.of(outFile.toAbsolutePath() + ".crc32");
+        Path tempCrc32File = temporaryFile(crc32File);
+        Files.writeString(tempCrc32File, Long.toHexString(crc32) + "\t" + fileName);
+        Files.deleteIfExists(crc32File);
+        fileMove.move(tempFile, outFile);
+        fileMove.move(tempCrc32File, crc32File);
+    }
+
+    /**
+     * Creates a hard link to an existing file, see {@link Files#createLink(Path, Path)}.
+     */
+    @FunctionalInterface
+    interface FileLink {
+
+        void link(Path link, Path existing) throws IOException;
+    }
+
+    /**
+     * Moves a file, replacing the target.
+     */
+    @FunctionalInterface
+    interface FileMove {
+
+        void move(Path source, Path target) throws IOException;
+    }
+
+    private static Path temporaryFile(Path file) {
+        return file.resolveSibling("." + file.getFileName() + ".part");
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sets the size of the file to its expected size with a single write of its last byte. The
+     * position of the channel is not changed.
+     * <p>
+     * This does not reserve disk space: NIO offers no access to fallocate, and file systems
+     * supporting sparse files leave the skipped range unallocated. Only file systems without sparse
+     * files allocate the whole file at once.
+     */
+    private static void setExpectedSize(FileChannel fileChannel, long expectedSize) throws IOException {
+        if (expectedSize > 0) {
+            fileChannel.write(ByteBuffer.wrap(new byte[1]), expectedSize - 1);
+        }
+    }
+
     // note: DataSetFileDownloadReader closes the input stream after it finished reading it.
-    private static class AutoClosableDataSetFileDownloadReader extends DataSetFileDownloadReader implements AutoCloseable {
+    static class AutoClosableDataSetFileDownloadReader extends DataSetFileDownloadReader implements AutoCloseable {
         public AutoClosableDataSetFileDownloadReader(InputStream in) {
             super(in);
         }
@@ -0,0 +1,127 @@
+package life.qbic.qpostman.download;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.function.Function;
+import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.download.WriteFileToDisk.AutoClosableDataSetFileDownloadReader;
+import life.qbic.qpostman.download.WriteFileToDisk.DownloadReport;
+import life.qbic.qpostman.openbis.ConnectionException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.remoting.RemoteAccessException;
+
+/**
+ * A function writing the content of a DataFile to an output stream and returning the write
+ * report. Files written one after the other are concatenated in the output stream.
+ * <p>
+ * The checksum is computed while the content is written. As written content cannot be taken
+ * back, a file is downloaded only once; a failed download is only reported.
+ */
+public class WriteFileToStream implements Function<DataFile, DownloadReport> {
+
+    private static final Logger log = LogManager.getLogger(WriteFileToStream.class);
+
+    private final int bufferSize;
+    private final OutputStream outputStream;
+    private final boolean ignoreDirectories;
+    private final Function<DataFile, WriteProgressListener> progressListenerFactory;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final Function<DataFile, AutoClosableDataSetFileDownloadReader> readerFactory;
+
+    /**
+     * @param bufferSize              the size of the read and write buffers in bytes
+     * @param outputStream            the stream the file content is written to
+     * @param ignoreDirectories       whether the directory structure on the server is dropped in
+     *                                the reported paths
+     * @param progressListenerFactory provides a progress listener for every written file
+     * @param bandwidthLimiter        the limiter every read is drawn from
+     */
+    public WriteFileToStream(int bufferSize, OutputStream outputStream, boolean ignoreDirectories,
+        Function<DataFile, WriteProgressListener> progressListenerFactory,
+        BandwidthLimiter bandwidthLimiter) {
+        this(bufferSize, outputStream, ignoreDirectories, progressListenerFactory, bandwidthLimiter,
+            WriteFileToDisk::toReader);
+    }
+
+    /**
+     * @param readerFactory requests a file from the datastore hosting it
+     */
+    WriteFileToStream(int bufferSize, OutputStream outputStream, boolean ignoreDirectories,
+        Function<DataFile, WriteProgressListener> progressListenerFactory,
+        BandwidthLimiter bandwidthLimiter,
+        Function<DataFile, AutoClosableDataSetFileDownloadReader> readerFactory) {
+        this.bufferSize = bufferSize;
+        this.outputStream = new BufferedOutputStream(outputStream, bufferSize);
+        this.ignoreDirectories = ignoreDirectories;
+        this.progressListenerFactory = progressListenerFactory;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.readerFactory = readerFactory;
+    }
+
+    /**
+     * Writes the content of the data file to the output stream.
+     *
+     * @param dataFile the data file to download
+     * @return the download report
+     * @throws UncheckedIOException in case writing to the output stream fails
+     */
+    @Override
+    public DownloadReport apply(DataFile dataFile) {
+        Path reportedPath = Path.of(WriteFileToDisk.toRelativePath(dataFile, ignoreDirectories));
+        OutputStream target = new UncheckedOutputStream(outputStream);
+        try (AutoClosableDataSetFileDownloadReader reader = readerFactory.apply(dataFile);
+            InputStream inputStream = WriteFileToDisk.toInputStream(reader)) {
+            long writtenCrc32 = WriteUtils.write(bufferSize, inputStream, target, bandwidthLimiter,
+                progressListenerFactory.apply(dataFile));
+            return new DownloadReport(dataFile.crc32(), writtenCrc32, reportedPath);
+        } catch (UncheckedIOException e) {
+            // the output stream can not be written
+            throw e;
+        } catch (IOException | RemoteAccessException | ConnectionException e) {
+            log.error("Could not download %s: %s".formatted(dataFile.filePath(), e.getMessage()));
+            log.debug(e.getMessage(), e);
+            return new DownloadReport(dataFile.crc32(), 0, reportedPath);
+        }
+    }
+
+    /**
+     * Throws failures of the output stream as {@link UncheckedIOException}, so they can be told
+     * apart from failures reading from the datastore.
+     */
+    private static class UncheckedOutputStream extends OutputStream {
+
+        private final OutputStream outputStream;
+
+        UncheckedOutputStream(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            try {
+                outputStream.write(b, off, len);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write to the output", e);
+            }
+        }
+
+        @Override
+        public void flush() {
+            try {
+                outputStream.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write to the output", e);
+            }
+        }
+    }
+}
@@ -20,4 +20,45 @@ public interface WriteProgressListener {
    * </p>
    */
   void finish();
+
+  /**
+   * Combines this listener with another listener. Both listeners receive all updates.
+   *
+   * @param other the listener to inform after this listener
+   * @return a listener informing both listeners
+   */
+  default WriteProgressListener andThen(WriteProgressListener other) {
+    WriteProgressListener self = this;
+    return new WriteProgressListener() {
+      @Override
+      public void update(long bytesWritten) {
+        self.update(bytesWritten);
+        other.update(bytesWritten);
+      }
+
+      @Override
+      public void finish() {
+        self.finish();
+        other.finish();
+      }
+    };
+  }
+
+  /**
+   * A listener ignoring all updates. Useful when progress can not be displayed, e.g. when
+   * multiple files are written at the same time.
+   *
+   * @return a listener that does nothing
+   */
+  static WriteProgressListener noOp() {
+    return new WriteProgressListener() {
+      @Override
+      public void update(long bytesWritten) {
+      }
+
+      @Override
+      public void finish() {
+      }
+    };
+  }
 }
@@ -5,6 +5,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
@@ -19,22 +23,120 @@ public class WriteUtils {
 
   private static final Logger log = LogManager.getLogger(WriteUtils.class);
 
+  private static final int DEFAULT_CHECKSUM_BUFFER_SIZE = 64 * 1024;
+
+  private static volatile long parallelChecksumThreshold = 1024L * 1024 * 1024;
+
+  /**
+   * The direct buffer of every writing thread. Allocating direct buffers is expensive, so every
+   * download thread keeps its largest buffer.
+   */
+  private static final ThreadLocal<ByteBuffer> DIRECT_BUFFER = new ThreadLocal<>();
+
+  /**
+   * Files of at least this size are checksummed in parallel, see {@link ParallelCrc32}.
+   *
+   * @param thresholdInBytes the minimal file size in bytes
+   */
+  public static void setParallelChecksumThreshold(long thresholdInBytes) {
+    parallelChecksumThreshold = thresholdInBytes;
+  }
+
   public static long write(int bufferSize, InputStream inputStream, OutputStream outputStream,
-      WriteProgressListener progressListener)
+      BandwidthLimiter bandwidthLimiter, WriteProgressListener progressListener)
       throws IOException {
     CRC32 crc32 = new CRC32();
     byte[] buffer = new byte[bufferSize];
     int bytesRead;
-    while ((bytesRead = inputStream.read(buffer)) > 0) {
-      crc32.update(buffer, 0, bytesRead);
-      outputStream.write(buffer, 0, bytesRead);
-      progressListener.update(bytesRead);
+    try {
+      while ((bytesRead = inputStream.read(buffer)) > 0) {
+        // reported before throttling, so throttling is not taken for latency of the server
+        progressListener.update(bytesRead);
+        bandwidthLimiter.acquire(bytesRead);
+        crc32.update(buffer, 0, bytesRead);
+        outputStream.write(buffer, 0, bytesRead);
+      }
       outputStream.flush();
+    } finally {
+      progressListener.finish();
+    }
+    return crc32.getValue();
+  }
+
+  /**
+   * Writes the input stream to the file channel starting at the current position of the channel.
+   * <p>
+   * Data is collected in a direct buffer of the given size and only written once the buffer is
+   * full, so the file system sees few large writes. The buffer is reused by later writes of the same
+   * thread. The durability policy decides when written data is forced to the storage device.
+   *
+   * @param bufferSize       the size of the direct buffer in bytes
+   * @param inputStream      the stream to read from
+   * @param fileChannel      the channel to write to
+   * @param durabilityPolicy when to force written data to the storage device
+   * @param bandwidthLimiter the limiter every read is drawn from
+   * @param progressListener the listener informed about read bytes, finished also if writing fails
+   * @return the CRC32 checksum of the written data
+   * @throws IOException in case reading or writing fails
+   */
+  public static long write(int bufferSize, InputStream inputStream, FileChannel fileChannel,
+      DurabilityPolicy durabilityPolicy, BandwidthLimiter bandwidthLimiter,
+      WriteProgressListener progressListener)
+      throws IOException {
+    CRC32 crc32 = new CRC32();
+    int capacity = Math.max(bufferSize, 1);
+    ByteBuffer buffer = directBuffer(capacity);
+    ReadableByteChannel source = Channels.newChannel(inputStream);
+    try {
+      long bytesSinceSync = 0;
+      boolean endOfStream = false;
+      while (!endOfStream) {
+        int bytesRead = source.read(buffer);
+        if (bytesRead < 0) {
+          endOfStream = true;
+        } else {
+          // reported before throttling, so throttling is not taken for latency of the server
+          progressListener.update(bytesRead);
+          bandwidthLimiter.acquire(bytesRead);
+        }
+        if (buffer.hasRemaining() && !endOfStream) {
+          continue;
+        }
+        buffer.flip();
+        crc32.update(buffer.duplicate());
+        bytesSinceSync += buffer.remaining();
+        while (buffer.hasRemaining()) {
+          fileChannel.write(buffer);
+        }
+        buffer.clear().limit(capacity);
+        if (durabilityPolicy == DurabilityPolicy.PERIODIC
+            && bytesSinceSync >= DurabilityPolicy.PERIODIC_SYNC_BYTES) {
+          fileChannel.force(false);
+          bytesSinceSync = 0;
+        }
+      }
+      if (durabilityPolicy != DurabilityPolicy.NONE) {
+        fileChannel.force(false);
+      }
+    } finally {
+      progressListener.finish();
     }
-    progressListener.finish();
     return crc32.getValue();
   }
 
+  /**
+   * @return the direct buffer of the current thread, limited to the buffer size
+   */
+  private static ByteBuffer directBuffer(int bufferSize) {
+    ByteBuffer buffer = DIRECT_BUFFER.get();
+    if (buffer == null || buffer.capacity() < bufferSize) {
+      buffer = ByteBuffer.allocateDirect(bufferSize);
+      DIRECT_BUFFER.set(buffer);
+    }
+    buffer.clear().limit(bufferSize);
+    return buffer;
+  }
+
   public static long readCrc32(Path file, int bufferSize) {
     if (!file.toFile().exists()) {
       throw new IllegalArgumentException("File " + file.toAbsolutePath() + " was expected but not found.");
@@ -46,7 +148,14 @@ public class WriteUtils {
     return file.toFile().exists() && expectedCrc32 == readCrc32(file, bufferSize);
   }
 
-  private static long calculateCrc32(Path file, int bufferSize) {
+  static long calculateCrc32(Path file) {
+    return calculateCrc32(file, DEFAULT_CHECKSUM_BUFFER_SIZE);
+  }
+
+  static long calculateCrc32(Path file, int bufferSize) {
+    if (file.toFile().length() >= parallelChecksumThreshold) {
+      return ParallelCrc32.calculate(file);
+    }
     byte[] buffer = new byte[bufferSize];
     try (InputStream inputStream = new FileInputStream(file.toFile())) {
       int bytesRead;
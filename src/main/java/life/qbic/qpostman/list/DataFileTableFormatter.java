@@ -5,6 +5,7 @@ import static java.util.Objects.requireNonNull;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import life.qbic.qpostman.common.FileSizeFormatter;
 import life.qbic.qpostman.common.structures.DataFile;
@@ -15,7 +16,7 @@ import life.qbic.qpostman.common.structures.DataFile;
  */
 public class DataFileTableFormatter {
 
-  private final List<Column<String>> columns;
+  private final List<Column> columns;
 
   public DataFileTableFormatter(boolean exactFileSize, boolean withChecksum) {
     columns = new ArrayList<>();
@@ -25,9 +26,13 @@ public class DataFileTableFormatter {
                 + ")"));
     columns.add(Column.create("Source", file -> file.dataSet().sourceSample().getCode()));
     columns.add(Column.create("Registration", file -> file.dataSet().registrationTime().toString()));
-    columns.add(Column.create("Size", file -> exactFileSize
-            ? String.valueOf(file.fileSize().bytes())
-            : FileSizeFormatter.format(file.fileSize(), 6)));
+    columns.add(Column.appending("Size", (row, file) -> {
+      if (exactFileSize) {
+        row.append(file.fileSize().bytes());
+      } else {
+        FileSizeFormatter.formatTo(row, file.fileSize().bytes(), 6);
+      }
+    }));
     if (withChecksum) {
       columns.add(Column.create("CRC32", file -> Long.toHexString(file.crc32())));
     }
@@ -43,32 +48,44 @@ public class DataFileTableFormatter {
       String headerRow = String.join(delimiter, columnNames) + "\n";
       result.append(headerRow);
     }
-    files.stream()
-        .map(file -> toRow(file, delimiter))
-        .forEach(result::append);
+    files.forEach(file -> appendRow(result, file, delimiter));
     return result.toString();
   }
 
-  private String toRow(DataFile file, String delimiter) {
-    List<String> values = columns.stream().map(c -> c.toValue(file)).toList();
-    return String.join(delimiter, values) + "\n";
+  private void appendRow(StringBuilder result, DataFile file, String delimiter) {
+    for (int i = 0; i < columns.size(); i++) {
+      if (i > 0) {
+        result.append(delimiter);
+      }
+      columns.get(i).appendValue(result, file);
+    }
+    result.append('\n');
   }
 
-  private record Column<T>(String name, Function<DataFile, T> valueProvider) {
+  /**
+   * A column of the table. The value of a row is appended to the table directly, so formatting a
+   * row does not create intermediate strings for every value.
+   */
+  private record Column(String name, BiConsumer<StringBuilder, DataFile> valueAppender) {
 
     Column {
-      requireNonNull(valueProvider, "valueProvider must not be null");
+      requireNonNull(valueAppender, "valueAppender must not be null");
       if (isNull(name)) {
         name = "";
       }
     }
 
-    public static Column<String> create(String name, Function<DataFile, String> valueProvider) {
-      return new Column<>(name, valueProvider);
+    public static Column create(String name, Function<DataFile, String> valueProvider) {
+      requireNonNull(valueProvider, "valueProvider must not be null");
+      return new Column(name, (row, dataFile) -> row.append(valueProvider.apply(dataFile)));
+    }
+
+    public static Column appending(String name, BiConsumer<StringBuilder, DataFile> valueAppender) {
+      return new Column(name, valueAppender);
     }
 
-    public T toValue(DataFile dataFile) {
-      return valueProvider.apply(dataFile);
+    public void appendValue(StringBuilder row, DataFile dataFile) {
+      valueAppender.accept(row, dataFile);
     }
   }
 }
@@ -28,15 +28,16 @@ public class LegacyOutputFormatter {
         ));
     StringBuilder result = new StringBuilder(summaryOutput);
     for (DataFile datafile : dataSetSummary.datafiles()) {
-      String fileOutput = withChecksum
-          ? "%s\t%s\t%s".formatted(exactFileSize ? datafile.fileSize().bytes()
-              : FileSizeFormatter.format(datafile.fileSize(), 6),
-          Long.toHexString(datafile.crc32()),
-          datafile.fileName())
-          : "%s\t%s".formatted(
-              exactFileSize ? datafile.fileSize().bytes() : FileSizeFormatter.format(datafile.fileSize(), 6),
-              datafile.fileName()) ;
-      result.append(fileOutput);
+      if (exactFileSize) {
+        result.append(datafile.fileSize().bytes());
+      } else {
+        FileSizeFormatter.formatTo(result, datafile.fileSize().bytes(), 6);
+      }
+      result.append('\t');
+      if (withChecksum) {
+        result.append(Long.toHexString(datafile.crc32())).append('\t');
+      }
+      result.append(datafile.fileName());
       result.append("\n");
     }
     return result.toString();
@@ -6,20 +6,28 @@ import static picocli.CommandLine.Mixin;
 import ch.ethz.sis.openbis.generic.asapi.v3.IApplicationServerApi;
 import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import life.qbic.qpostman.common.AuthenticationException;
+import life.qbic.qpostman.common.MetadataCache;
+import life.qbic.qpostman.common.MissingMetadataException;
+import life.qbic.qpostman.common.functions.CachedSearchDataSets;
+import life.qbic.qpostman.common.functions.CachedSearchFiles;
 import life.qbic.qpostman.common.functions.FileFilter;
+import life.qbic.qpostman.common.functions.FileSearch;
 import life.qbic.qpostman.common.functions.FindSourceSample;
 import life.qbic.qpostman.common.functions.SearchDataSets;
 import life.qbic.qpostman.common.functions.SearchFiles;
 import life.qbic.qpostman.common.functions.SortFiles;
 import life.qbic.qpostman.common.options.AuthenticationOptions;
+import life.qbic.qpostman.common.options.CacheOptions;
 import life.qbic.qpostman.common.options.FilterOptions;
 import life.qbic.qpostman.common.options.SampleIdentifierOptions;
 import life.qbic.qpostman.common.options.ServerOptions;
@@ -29,6 +37,7 @@ import life.qbic.qpostman.list.LegacyOutputFormatter.DataSetSummary;
 import life.qbic.qpostman.openbis.ConnectionException;
 import life.qbic.qpostman.openbis.OpenBisSessionProvider;
 import life.qbic.qpostman.openbis.ServerFactory;
+import life.qbic.qpostman.openbis.ServerUnavailableException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.remoting.RemoteAccessException;
@@ -37,6 +46,10 @@ import org.springframework.remoting.RemoteAccessException;
         description = "lists all the datasets found for the given identifiers")
 public class ListCommand implements Runnable {
     private static final Logger log = LogManager.getLogger(ListCommand.class);
+    /**
+     * How long the datasets found for an identifier are reused unless {@code --cache-ttl} is set.
+     */
+    private static final Duration DEFAULT_CACHE_TTL = Duration.ofMinutes(60);
     private static final String LOG_PATH = Optional.ofNullable(System.getProperty("log.path"))
         .orElse("logs");
     @Mixin
@@ -49,10 +62,16 @@ public class ListCommand implements Runnable {
     ServerOptions serverOptions;
     @Mixin
     ListOptions listOptions;
+    @Mixin
+    CacheOptions cacheOptions;
 
     @Override
     public void run() {
         try {
+            if (listOptions.offline && !cacheOptions.useCache) {
+                log.error("--offline can not be combined with --no-cache.");
+                System.exit(2);
+            }
             Functions functions = setupFunctions();
 
             Collection<DataFile> dataSetFiles = functions.searchDataSets()
@@ -81,6 +100,14 @@ public class ListCommand implements Runnable {
                     authenticationException.username()));
             log.debug(authenticationException.getMessage(), authenticationException);
             System.exit(1);
+        } catch (MissingMetadataException e) {
+            log.error(e.getMessage() + ". Please run without --offline to search openBIS.");
+            log.debug(e.getMessage(), e);
+            System.exit(1);
+        } catch (ServerUnavailableException e) {
+            log.error(e.getMessage() + " Requests to it were paused after repeated failures. Please try again later.");
+            log.debug(e.getMessage(), e);
+            System.exit(1);
         } catch (ConnectionException e) {
           log.error("Could not connect to QBiC's data source. Have you requested access to the "
               + "server? If not please write to support@qbic.zendesk.com");
@@ -116,23 +143,36 @@ public class ListCommand implements Runnable {
     private Functions setupFunctions() {
         IApplicationServerApi applicationServerApi = ServerFactory.applicationServer(
             serverOptions.as_url, serverOptions.timeoutInMillis);
-        OpenBisSessionProvider.init(applicationServerApi, authenticationOptions.user,
-            new String(authenticationOptions.getPassword()));
+        if (!listOptions.offline) {
+            OpenBisSessionProvider.init(applicationServerApi, authenticationOptions.user,
+                new String(authenticationOptions.getPassword()));
+        }
         Collection<IDataStoreServerApi> dataStoreServerApis = ServerFactory.dataStoreServers(
             serverOptions.dss_urls, serverOptions.timeoutInMillis);
-        SearchDataSets searchDataSets = new SearchDataSets(applicationServerApi);
+        // shared by all datasets, so every sample is resolved once
+        FindSourceSample findSourceSample = new FindSourceSample(serverOptions.sourceSampleType);
+        SearchDataSets searchOpenBis = new SearchDataSets(applicationServerApi, findSourceSample);
+        Function<Collection<String>, Collection<DataSetWrapper>> searchDataSets = searchOpenBis;
         FileFilter myAwesomeFileFilter = FileFilter.create()
             .withSuffixes(filterOptions.suffixes);
-        SearchFiles searchFiles = new SearchFiles(dataStoreServerApis, number -> {});
-        FindSourceSample findSourceSample = new FindSourceSample(serverOptions.sourceSampleType);
-
+        FileSearch searchFiles = new SearchFiles(dataStoreServerApis, number -> {});
+        if (cacheOptions.useCache) {
+            MetadataCache metadataCache = cacheOptions.metadataCache();
+            searchDataSets = new CachedSearchDataSets(searchOpenBis::searchByIdentifier, metadataCache,
+                authenticationOptions.user + "@" + serverOptions.as_url, cacheOptions.cacheTtl(DEFAULT_CACHE_TTL),
+                listOptions.offline, findSourceSample);
+            searchFiles = new CachedSearchFiles(searchFiles, dataStoreServerApis, metadataCache,
+                listOptions.offline);
+        }
         SortFiles sortFiles = new SortFiles();
 
-        DataSetWrapper.setFindSourceFunction(findSourceSample);
       return new Functions(searchDataSets, myAwesomeFileFilter, searchFiles, sortFiles);
     }
 
-    private record Functions(SearchDataSets searchDataSets, FileFilter fileFilter, SearchFiles searchFiles, SortFiles sortFiles) {
+    private record Functions(Function<Collection<String>, Collection<DataSetWrapper>> searchDataSets,
+                             FileFilter fileFilter,
+                             FileSearch searchFiles,
+                             SortFiles sortFiles) {
 
     }
 }
@@ -28,11 +28,17 @@ public class ListOptions {
         showDefaultValue = Visibility.ON_DEMAND)
     public boolean withoutHeader;
 
+    @Option(names = "--offline", defaultValue = "false",
+        description = "list the files using only the metadata cached by previous runs without connecting to openBIS",
+        showDefaultValue = Visibility.ON_DEMAND)
+    public boolean offline;
+
     @Override
     public String toString(){
         return new StringJoiner(", ", ListOptions.class.getSimpleName() + "[", "]")
             .add("withChecksum=" + withChecksum)
             .add("exactFilesize=" + exactFilesize)
+            .add("offline=" + offline)
             .toString();
     }
 }
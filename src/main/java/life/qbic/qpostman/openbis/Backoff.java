@@ -0,0 +1,43 @@
+package life.qbic.qpostman.openbis;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter.
+ * <p>
+ * The delay before attempt <i>n + 1</i> is chosen uniformly at random between zero and
+ * <code>min(maxDelay, baseDelay * 2^(n - 1))</code>, so clients retrying at the same time spread
+ * out instead of hitting a recovering server all at once.
+ */
+public record Backoff(long baseDelayMillis, long maxDelayMillis) {
+
+  public static final Backoff DEFAULT = new Backoff(500, 30_000);
+
+  public Backoff {
+    if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+      throw new IllegalArgumentException(
+          "expected 0 <= baseDelayMillis <= maxDelayMillis but was %s and %s".formatted(
+              baseDelayMillis, maxDelayMillis));
+    }
+  }
+
+  /**
+   * @param failedAttempts the number of attempts that failed so far, at least 1
+   * @return the delay in milliseconds to wait before the next attempt
+   */
+  public long delayMillis(int failedAttempts) {
+    int exponent = Math.min(Math.max(failedAttempts - 1, 0), 30);
+    long ceiling = Math.min(maxDelayMillis, baseDelayMillis * (1L << exponent));
+    return ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+
+  /**
+   * Waits before the next attempt.
+   *
+   * @param failedAttempts the number of attempts that failed so far, at least 1
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  public void await(int failedAttempts) throws InterruptedException {
+    Thread.sleep(delayMillis(failedAttempts));
+  }
+}
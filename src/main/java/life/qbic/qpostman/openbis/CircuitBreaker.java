@@ -0,0 +1,140 @@
+package life.qbic.qpostman.openbis;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Stops sending work to a server after repeated failures.
+ * <p>
+ * After {@link #FAILURE_THRESHOLD} consecutive failures the circuit opens. While it is open, calls
+ * fail immediately in {@link #checkClosed()} and a health probe checks the server periodically.
+ * As soon as the probe succeeds, the circuit closes. Callers are expected to put their work aside
+ * and try again later. Callers that can not put their work aside, e.g. searches whose results are
+ * needed to continue, wait for the circuit to close in {@link #awaitClosed()} instead.
+ */
+class CircuitBreaker {
+
+  private static final Logger log = LogManager.getLogger(CircuitBreaker.class);
+
+  static final int FAILURE_THRESHOLD = 5;
+  private static final Duration DEFAULT_PROBE_INTERVAL = Duration.ofSeconds(10);
+  private static final Duration DEFAULT_MAX_OPEN_DURATION = Duration.ofMinutes(10);
+
+  private static final ScheduledExecutorService PROBE_EXECUTOR =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "health-probe");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final String name;
+  private final Runnable healthProbe;
+  private final long probeIntervalMillis;
+  private final long maxOpenNanos;
+  private int consecutiveFailures = 0;
+  private boolean open = false;
+  private long openedAt = 0;
+  private ScheduledFuture<?> probe = null;
+
+  /**
+   * @param name        the name of the protected server used for logging
+   * @param healthProbe a lightweight call to the server; throws in case the server is unhealthy
+   */
+  CircuitBreaker(String name, Runnable healthProbe) {
+    this(name, healthProbe, DEFAULT_PROBE_INTERVAL, DEFAULT_MAX_OPEN_DURATION);
+  }
+
+  /**
+   * @param name            the name of the protected server used for logging
+   * @param healthProbe     a lightweight call to the server; throws in case the server is unhealthy
+   * @param probeInterval   the time between two health probes while the circuit is open
+   * @param maxOpenDuration the time after which an open circuit is not expected to close anymore
+   */
+  CircuitBreaker(String name, Runnable healthProbe, Duration probeInterval,
+      Duration maxOpenDuration) {
+    this.name = name;
+    this.healthProbe = healthProbe;
+    this.probeIntervalMillis = probeInterval.toMillis();
+    this.maxOpenNanos = maxOpenDuration.toNanos();
+  }
+
+  /**
+   * Fails if the circuit is open.
+   *
+   * @throws ServerUnavailableException if the circuit is open and the server might still recover
+   * @throws ConnectionException        if the circuit is open for longer than the maximal open
+   *                                    duration
+   */
+  synchronized void checkClosed() {
+    if (!open) {
+      return;
+    }
+    if (System.nanoTime() - openedAt < maxOpenNanos) {
+      throw new ServerUnavailableException(name + " is temporarily unavailable.");
+    }
+    throw new ConnectionException(name + " is unavailable.");
+  }
+
+  /**
+   * Blocks while the circuit is open, at most until the circuit is open for longer than the
+   * maximal open duration.
+   *
+   * @throws ConnectionException  if the circuit is open for longer than the maximal open duration
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  synchronized void awaitClosed() throws InterruptedException {
+    while (open) {
+      long remainingNanos = maxOpenNanos - (System.nanoTime() - openedAt);
+      if (remainingNanos <= 0) {
+        throw new ConnectionException(name + " is unavailable.");
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+    }
+  }
+
+  synchronized void recordSuccess() {
+    consecutiveFailures = 0;
+  }
+
+  synchronized void recordFailure() {
+    consecutiveFailures++;
+    if (!open && consecutiveFailures >= FAILURE_THRESHOLD) {
+      open = true;
+      openedAt = System.nanoTime();
+      log.warn("Pausing requests to %s after %s consecutive failures.".formatted(name,
+          consecutiveFailures));
+      probe = PROBE_EXECUTOR.scheduleWithFixedDelay(this::probe, probeIntervalMillis,
+          probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void probe() {
+    try {
+      healthProbe.run();
+    } catch (RuntimeException e) {
+      log.debug("Health probe for %s failed: %s".formatted(name, e.getMessage()));
+      return;
+    }
+    close();
+  }
+
+  private synchronized void close() {
+    if (!open) {
+      return;
+    }
+    open = false;
+    consecutiveFailures = 0;
+    if (Objects.nonNull(probe)) {
+      probe.cancel(false);
+      probe = null;
+    }
+    notifyAll();
+    log.info("Resuming requests to " + name);
+  }
+}
@@ -0,0 +1,107 @@
+package life.qbic.qpostman.openbis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Sends independent requests to openBIS servers concurrently on a bounded number of threads.
+ */
+public final class ConcurrentRequests {
+
+  private ConcurrentRequests() {
+  }
+
+  /**
+   * Applies the request function to every input using at most {@code parallelism} threads.
+   * <p>
+   * The results are in the order of the inputs regardless of the order in which the requests
+   * finished. If a request fails, the remaining requests are cancelled and its exception is
+   * thrown.
+   *
+   * @param inputs      the inputs to send requests for
+   * @param request     the function sending a single request
+   * @param parallelism the maximal number of concurrent requests
+   * @param threadName  the name prefix of the request threads
+   * @param <T>         the type of the inputs
+   * @param <R>         the type of the results
+   * @return the results in the order of the inputs
+   */
+  public static <T, R> List<R> apply(List<T> inputs, Function<T, R> request, int parallelism,
+      String threadName) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1 but was " + parallelism);
+    }
+    if (parallelism == 1 || inputs.size() <= 1) {
+      return inputs.stream().map(request).toList();
+    }
+    AtomicInteger threadCount = new AtomicInteger(0);
+    ExecutorService executorService = Executors.newFixedThreadPool(
+        Math.min(parallelism, inputs.size()), runnable -> {
+          Thread thread = new Thread(runnable, threadName + "-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    try {
+      List<Future<R>> futures = new ArrayList<>(inputs.size());
+      for (T input : inputs) {
+        futures.add(executorService.submit(() -> request.apply(input)));
+      }
+      List<R> results = new ArrayList<>(inputs.size());
+      for (Future<R> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for requests to finish.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  /**
+   * Sends the request for every input using at most {@code parallelism} threads without keeping
+   * any results. Failures are handled as in {@link #apply(List, Function, int, String)}.
+   *
+   * @param inputs      the inputs to send requests for
+   * @param request     the request consuming its own result
+   * @param parallelism the maximal number of concurrent requests
+   * @param threadName  the name prefix of the request threads
+   * @param <T>         the type of the inputs
+   */
+  public static <T> void run(List<T> inputs, Consumer<T> request, int parallelism,
+      String threadName) {
+    apply(inputs, input -> {
+      request.accept(input);
+      return null;
+    }, parallelism, threadName);
+  }
+
+  /**
+   * Splits the elements into consecutive chunks of at most {@code chunkSize} elements.
+   *
+   * @param elements  the elements to split
+   * @param chunkSize the maximal number of elements per chunk
+   * @param <T>       the type of the elements
+   * @return the chunks in order
+   */
+  public static <T> List<List<T>> chunks(List<T> elements, int chunkSize) {
+    List<List<T>> chunks = new ArrayList<>((elements.size() + chunkSize - 1) / chunkSize);
+    for (int start = 0; start < elements.size(); start += chunkSize) {
+      chunks.add(List.copyOf(elements.subList(start, Math.min(start + chunkSize, elements.size()))));
+    }
+    return chunks;
+  }
+}
@@ -1,48 +1,119 @@
 package life.qbic.qpostman.openbis;
 
 import ch.ethz.sis.openbis.generic.asapi.v3.IApplicationServerApi;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 import life.qbic.qpostman.common.AuthenticationException;
 
+/**
+ * An authenticated session with the openBIS application server.
+ * <p>
+ * Instances are safe to be shared between threads. The session token is cached and checked with
+ * the application server at most once per revalidation interval, or at the next request after
+ * {@link #invalidate()}. Only one thread checks the token at a time; all other threads keep using
+ * the cached token meanwhile. Re-authentication happens at most once at a time.
+ */
 public class OpenBisSession {
+
+    private static final Duration DEFAULT_REVALIDATION_INTERVAL = Duration.ofSeconds(60);
+
     private final String username;
     private final String password;
     private final IApplicationServerApi applicationServerApi;
-    private String token;
+    private final long revalidationIntervalNanos;
+    private final AtomicReference<Token> token = new AtomicReference<>();
 
     public OpenBisSession(IApplicationServerApi applicationServerApi, String username, String password) {
+        this(applicationServerApi, username, password, DEFAULT_REVALIDATION_INTERVAL);
+    }
+
+    OpenBisSession(IApplicationServerApi applicationServerApi, String username, String password,
+        Duration revalidationInterval) {
         this.applicationServerApi = applicationServerApi;
         this.username = username;
         this.password = password;
-        token = login();
+        this.revalidationIntervalNanos = revalidationInterval.toNanos();
+        login(null);
     }
 
-    public void logout() {
-        applicationServerApi.logout(token);
-        token = null;
+    public synchronized void logout() {
+        Token current = token.getAndSet(null);
+        if (Objects.nonNull(current)) {
+            applicationServerApi.logout(current.value());
+        }
     }
 
+    /**
+     * Checks the session with the application server.
+     *
+     * @return true if the session is active; false otherwise
+     */
     public boolean isLoggedIn() {
-        return Objects.nonNull(token) && !token.isBlank() && applicationServerApi.isSessionActive(token);
+        Token current = token.get();
+        return Objects.nonNull(current) && applicationServerApi.isSessionActive(current.value());
     }
 
+    /**
+     * @return the session token, logging in again if the session is not active anymore
+     */
     public String getToken() {
-        return isLoggedIn() ? token : login();
+        Token current = token.get();
+        if (Objects.isNull(current)) {
+            return login(null);
+        }
+        long now = System.nanoTime();
+        if (now - current.validatedAt() < revalidationIntervalNanos
+            || !token.compareAndSet(current, new Token(current.value(), now))) {
+            // recently checked or checked by another thread right now
+            return current.value();
+        }
+        if (applicationServerApi.isSessionActive(current.value())) {
+            return current.value();
+        }
+        return login(current.value());
+    }
+
+    /**
+     * Makes the next request check the session token with the application server, e.g. after a
+     * request failed.
+     */
+    public void invalidate() {
+        Token current = token.get();
+        if (Objects.nonNull(current)) {
+            token.compareAndSet(current, new Token(current.value(), System.nanoTime() - revalidationIntervalNanos));
+        }
     }
 
-    private String login() throws AuthenticationException {
-        if (isLoggedIn()) {
-            logout();
+    /**
+     * Logs in unless another thread replaced the expired token already.
+     *
+     * @param expiredToken the token found to be inactive, null if there was none
+     * @return the new token
+     */
+    private synchronized String login(String expiredToken) throws AuthenticationException {
+        Token current = token.get();
+        if (Objects.nonNull(current) && !current.value().equals(expiredToken)) {
+            return current.value();
         }
+        String newToken;
         try {
-            token = applicationServerApi.login(username, password);
+            newToken = applicationServerApi.login(username, password);
         } catch (Exception e) {
             throw new ConnectionException("Connection to openBIS server failed.", e);
         }
-        if (Objects.isNull(token)) {
+        if (Objects.isNull(newToken) || newToken.isBlank()) {
             throw new AuthenticationException("openbis application server did not produce a session token for " + username, username);
         }
-        return token;
+        token.set(new Token(newToken, System.nanoTime()));
+        return newToken;
     }
 
+    /**
+     * @param value       the session token
+     * @param validatedAt the {@link System#nanoTime()} the token was last known to be active
+     */
+    private record Token(String value, long validatedAt) {
+
+    }
 }
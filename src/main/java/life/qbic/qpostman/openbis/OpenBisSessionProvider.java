@@ -5,9 +5,9 @@ import java.util.Objects;
 
 public class OpenBisSessionProvider {
 
-    private static OpenBisSession openBisSession;
+    private static volatile OpenBisSession openBisSession;
 
-    public static OpenBisSession init(IApplicationServerApi applicationServerApi, String username, String password) {
+    public static synchronized OpenBisSession init(IApplicationServerApi applicationServerApi, String username, String password) {
         openBisSession = new OpenBisSession(applicationServerApi, username, password);
         return openBisSession;
     }
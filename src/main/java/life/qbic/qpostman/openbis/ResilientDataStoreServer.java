@@ -0,0 +1,196 @@
+package life.qbic.qpostman.openbis;
+
+import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.remoting.RemoteAccessException;
+
+/**
+ * Protects a datastore server stub against transient failures.
+ * <p>
+ * Searching and downloading files is retried with jittered exponential backoff in case the server
+ * can not be reached. Repeated failures, including download streams breaking while they are read,
+ * open a {@link CircuitBreaker}. While it is open, downloads fail immediately with a
+ * {@link ServerUnavailableException} until a health probe succeeds, so the caller can download
+ * files from other servers meanwhile. Searches wait for the probe to succeed instead, as their
+ * results are needed to continue. All other methods are passed to the stub directly.
+ */
+public class ResilientDataStoreServer implements InvocationHandler {
+
+  private static final Logger log = LogManager.getLogger(ResilientDataStoreServer.class);
+
+  static final int MAX_ATTEMPTS = 5;
+
+  private static final Set<String> PROTECTED_METHODS = Set.of("searchFiles", "downloadFiles");
+
+  private final IDataStoreServerApi dataStoreServerApi;
+  private final String url;
+  private final CircuitBreaker circuitBreaker;
+  private final Backoff backoff;
+
+  private ResilientDataStoreServer(IDataStoreServerApi dataStoreServerApi, String url,
+      CircuitBreaker circuitBreaker, Backoff backoff) {
+    this.dataStoreServerApi = dataStoreServerApi;
+    this.url = url;
+    this.circuitBreaker = circuitBreaker;
+    this.backoff = backoff;
+  }
+
+  /**
+   * @param dataStoreServerApi the stub to protect
+   * @param url                the url of the datastore server
+   * @return a datastore server delegating to the stub
+   */
+  public static IDataStoreServerApi wrap(IDataStoreServerApi dataStoreServerApi, String url) {
+    return wrap(dataStoreServerApi, url,
+        new CircuitBreaker(url, dataStoreServerApi::getMajorVersion), Backoff.DEFAULT);
+  }
+
+  static IDataStoreServerApi wrap(IDataStoreServerApi dataStoreServerApi, String url,
+      CircuitBreaker circuitBreaker, Backoff backoff) {
+    return (IDataStoreServerApi) Proxy.newProxyInstance(
+        IDataStoreServerApi.class.getClassLoader(),
+        new Class<?>[]{IDataStoreServerApi.class},
+        new ResilientDataStoreServer(dataStoreServerApi, url, circuitBreaker, backoff));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return switch (method.getName()) {
+        case "equals" -> proxy == args[0];
+        case "hashCode" -> System.identityHashCode(proxy);
+        default -> url;
+      };
+    }
+    if (!PROTECTED_METHODS.contains(method.getName())) {
+      return invokeStub(method, args);
+    }
+    for (int attempt = 1; ; attempt++) {
+      awaitClosedCircuit(method);
+      try {
+        Object result = invokeStub(method, args);
+        if (result instanceof InputStream inputStream) {
+          // the download only succeeded once the stream was read completely
+          return new GuardedInputStream(inputStream);
+        }
+        circuitBreaker.recordSuccess();
+        return result;
+      } catch (RemoteAccessException e) {
+        circuitBreaker.recordFailure();
+        if (attempt >= MAX_ATTEMPTS) {
+          throw e;
+        }
+        log.warn("%s on %s failed (attempt %s / %s): %s".formatted(method.getName(), url, attempt,
+            MAX_ATTEMPTS, e.getMessage()));
+        try {
+          backoff.await(attempt);
+        } catch (InterruptedException interruptedException) {
+          Thread.currentThread().interrupt();
+          throw new ConnectionException("Interrupted while retrying %s on %s.".formatted(
+              method.getName(), url), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits for an open circuit to close before searching. Downloads fail immediately instead.
+   *
+   * @throws ServerUnavailableException if the circuit is open and the method is a download
+   * @throws ConnectionException        if the circuit is open for too long or the thread was
+   *                                    interrupted while waiting
+   */
+  private void awaitClosedCircuit(Method method) {
+    if (!method.getName().equals("searchFiles")) {
+      circuitBreaker.checkClosed();
+      return;
+    }
+    try {
+      circuitBreaker.awaitClosed();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ConnectionException("Interrupted while waiting for %s to recover.".formatted(url), e);
+    }
+  }
+
+  /**
+   * Reports the outcome of reading a download stream to the circuit breaker.
+   * <p>
+   * A download succeeded once the stream was read to its end or was closed without a failure. The
+   * reader of a single file only reads up to the end of that file and closes the stream before its
+   * end.
+   */
+  private class GuardedInputStream extends FilterInputStream {
+
+    private boolean reported = false;
+
+    private GuardedInputStream(InputStream inputStream) {
+      super(inputStream);
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        int value = super.read();
+        if (value < 0) {
+          reportSuccess();
+        }
+        return value;
+      } catch (IOException | RuntimeException e) {
+        reportFailure();
+        throw e;
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      try {
+        int bytesRead = super.read(b, off, len);
+        if (bytesRead < 0) {
+          reportSuccess();
+        }
+        return bytesRead;
+      } catch (IOException | RuntimeException e) {
+        reportFailure();
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      reportSuccess();
+      super.close();
+    }
+
+    private void reportSuccess() {
+      if (!reported) {
+        reported = true;
+        circuitBreaker.recordSuccess();
+      }
+    }
+
+    private void reportFailure() {
+      if (!reported) {
+        reported = true;
+        circuitBreaker.recordFailure();
+      }
+    }
+  }
+
+  private Object invokeStub(Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(dataStoreServerApi, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+}
@@ -8,13 +8,17 @@ import java.util.List;
 
 /**
  * Creates server instances given urls
+ * <p>
+ * Datastore servers are protected against transient failures, see {@link ResilientDataStoreServer}.
  */
 public class ServerFactory {
     public static Collection<IDataStoreServerApi> dataStoreServers(List<String> dataStoreServerUrls, long serverTimeoutInMillis) {
         return dataStoreServerUrls.stream()
                 .filter(dataStoreServerUrl -> !dataStoreServerUrl.isEmpty())
-                .map(dataStoreServerUrl -> HttpInvokerUtils.createStreamSupportingServiceStub(IDataStoreServerApi.class,
-                        dataStoreServerUrl + IDataStoreServerApi.SERVICE_URL, serverTimeoutInMillis))
+                .map(dataStoreServerUrl -> ResilientDataStoreServer.wrap(
+                        HttpInvokerUtils.createStreamSupportingServiceStub(IDataStoreServerApi.class,
+                                dataStoreServerUrl + IDataStoreServerApi.SERVICE_URL, serverTimeoutInMillis),
+                        dataStoreServerUrl))
                 .toList();
     }
 
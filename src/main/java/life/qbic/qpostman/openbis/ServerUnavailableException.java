@@ -0,0 +1,14 @@
+package life.qbic.qpostman.openbis;
+
+/**
+ * ServerUnavailableException indicates that requests to a server are paused after repeated
+ * failures, see {@link CircuitBreaker}. The server is expected to recover, so the request can be
+ * tried again later.
+ */
+public class ServerUnavailableException extends ConnectionException {
+
+  ServerUnavailableException(String msg) {
+    super(msg);
+  }
+
+}
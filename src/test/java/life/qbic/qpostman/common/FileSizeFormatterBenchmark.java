@@ -0,0 +1,94 @@
+package life.qbic.qpostman.common;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import life.qbic.qpostman.common.structures.FileSize;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the file size formatting with the previous implementation based on BigDecimal,
+ * DecimalFormat and String.format.
+ * <p>
+ * Run after {@code mvn test-compile} with the main method of this class, or from the IDE. Use the
+ * JMH option {@code -prof gc} to see the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileSizeFormatterBenchmark {
+
+  private static final int SIZES = 1024;
+
+  private final long[] sizes = new long[SIZES];
+  private final StringBuilder row = new StringBuilder(64);
+  private int next = 0;
+
+  @Setup
+  public void createSizes() {
+    Random random = new Random(42);
+    for (int i = 0; i < SIZES; i++) {
+      sizes[i] = random.nextLong() >>> (21 + random.nextInt(43));
+    }
+  }
+
+  private long nextSize() {
+    next = (next + 1) & (SIZES - 1);
+    return sizes[next];
+  }
+
+  @Benchmark
+  public String previousFormat() {
+    return previousFormat(nextSize(), 6);
+  }
+
+  @Benchmark
+  public String format() {
+    return FileSizeFormatter.format(FileSize.of(nextSize()), 6);
+  }
+
+  @Benchmark
+  public void formatTo(Blackhole blackhole) {
+    row.setLength(0);
+    blackhole.consume(FileSizeFormatter.formatTo(row, nextSize(), 6));
+  }
+
+  private static String previousFormat(long bytes, int minWidth) {
+    String[] symbols = {"B", "KB", "MB", "GB", "TB"};
+    int power = 0;
+    while (power < symbols.length - 1 && bytes >= BigDecimal.valueOf(1000).pow(power + 1)
+        .longValueExact()) {
+      power++;
+    }
+    DecimalFormat decimalFormat = new DecimalFormat("#0.00");
+    decimalFormat.setRoundingMode(RoundingMode.HALF_UP);
+    BigDecimal scaled = BigDecimal.valueOf(bytes)
+        .divide(BigDecimal.valueOf(1000).pow(power), 32, RoundingMode.HALF_UP);
+    return String.format("%" + minWidth + "s %2s", decimalFormat.format(scaled), symbols[power]);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(FileSizeFormatterBenchmark.class.getSimpleName())
+        .build())
+        .run();
+  }
+}
@@ -0,0 +1,88 @@
+package life.qbic.qpostman.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.util.Locale;
+import java.util.Random;
+import life.qbic.qpostman.common.structures.FileSize;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+
+public class FileSizeFormatterTest {
+
+  private static final Locale DEFAULT_LOCALE = Locale.getDefault();
+
+  @AfterEach
+  void restoreLocale() {
+    Locale.setDefault(DEFAULT_LOCALE);
+  }
+
+  @ParameterizedTest(name = "{0} bytes, width {1} = ''{2}''")
+  @CsvSource(delimiter = '|', value = {
+      "0|1|0.00  B",
+      "999|1|999.00  B",
+      "1000|1|1.00 KB",
+      "1005|1|1.01 KB",
+      "1004|6|'  1.00 KB'",
+      "999995|1|1000.00 KB",
+      "1000000|6|'  1.00 MB'",
+      "1234567890123|1|1.23 TB"})
+  @DisplayName("format writes the expected output")
+  void formatWritesTheExpectedOutput(long bytes, int minWidth, String expected) {
+    Locale.setDefault(Locale.US);
+    assertEquals(expected, FileSizeFormatter.format(FileSize.of(bytes), minWidth));
+  }
+
+  @ParameterizedTest(name = "locale = {0}")
+  @ValueSource(strings = {"en-US", "de-DE", "sv-SE", "fa-IR", "ar-EG-u-nu-arab"})
+  @DisplayName("formatTo writes the same output as DecimalFormat")
+  void formatToWritesTheSameOutputAsDecimalFormat(String languageTag) {
+    Locale.setDefault(Locale.forLanguageTag(languageTag));
+    Random random = new Random(42);
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 10_000; i++) {
+      long bytes = random.nextLong() >>> random.nextInt(64);
+      for (int minWidth : new int[]{0, 1, 6, 12}) {
+        builder.setLength(0);
+        assertEquals(decimalFormat(bytes, minWidth),
+            FileSizeFormatter.formatTo(builder, bytes, minWidth).toString(),
+            "bytes = " + bytes + ", width = " + minWidth);
+      }
+    }
+  }
+
+  @ParameterizedTest(name = "bytes = {0}")
+  @ValueSource(longs = {Long.MIN_VALUE, -1000, -1, 0, 999_999_999_999_999L, Long.MAX_VALUE})
+  @DisplayName("formatTo writes the same output as DecimalFormat for extreme values")
+  void formatToWritesTheSameOutputForExtremeValues(long bytes) {
+    Locale.setDefault(Locale.US);
+    assertEquals(decimalFormat(bytes, 6),
+        FileSizeFormatter.formatTo(new StringBuilder(), bytes, 6).toString());
+  }
+
+  /**
+   * The formatting using BigDecimal and DecimalFormat that FileSizeFormatter is expected to
+   * reproduce.
+   */
+  private static String decimalFormat(long bytes, int minWidth) {
+    String[] symbols = {"B", "KB", "MB", "GB", "TB"};
+    int power = 0;
+    while (power < symbols.length - 1 && bytes >= BigDecimal.valueOf(1000).pow(power + 1)
+        .longValueExact()) {
+      power++;
+    }
+    DecimalFormat decimalFormat = new DecimalFormat("#0.00");
+    decimalFormat.setRoundingMode(RoundingMode.HALF_UP);
+    BigDecimal scaled = BigDecimal.valueOf(bytes)
+        .divide(BigDecimal.valueOf(1000).pow(power), 32, RoundingMode.HALF_UP);
+    return String.format("%" + Math.max(minWidth, 1) + "s %2s", decimalFormat.format(scaled),
+        symbols[power]);
+  }
+}
@@ -0,0 +1,102 @@
+package life.qbic.qpostman.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import javax.security.auth.x500.X500Principal;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class MetadataCacheTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  @DisplayName("read returns the written value")
+  void readReturnsTheWrittenValue() {
+    MetadataCache metadataCache = new MetadataCache(tempDir, Long.MAX_VALUE);
+    metadataCache.write("samples", "QTEST*", new ArrayList<>(List.of("a", "b")));
+    assertEquals(Optional.of(List.of("a", "b")),
+        metadataCache.read("samples", "QTEST*", ArrayList.class, Optional.empty()));
+  }
+
+  @Test
+  @DisplayName("read ignores missing, expired and differently typed entries")
+  void readIgnoresMissingExpiredAndDifferentlyTypedEntries() {
+    MetadataCache metadataCache = new MetadataCache(tempDir, Long.MAX_VALUE);
+    metadataCache.write("samples", "QTEST*", "value");
+    assertEquals(Optional.empty(),
+        metadataCache.read("samples", "QOTHER*", String.class, Optional.empty()));
+    assertEquals(Optional.empty(),
+        metadataCache.read("files", "QTEST*", String.class, Optional.empty()));
+    assertEquals(Optional.empty(),
+        metadataCache.read("samples", "QTEST*", String.class, Optional.of(Duration.ofNanos(-1))));
+    assertEquals(Optional.empty(),
+        metadataCache.read("samples", "QTEST*", Integer.class, Optional.empty()));
+  }
+
+  @Test
+  @DisplayName("read ignores unreadable entries")
+  void readIgnoresUnreadableEntries() throws IOException {
+    MetadataCache metadataCache = new MetadataCache(tempDir, Long.MAX_VALUE);
+    metadataCache.write("samples", "QTEST*", "value");
+    for (Path entry : entries()) {
+      Files.writeString(entry, "not serialized");
+    }
+    assertEquals(Optional.empty(),
+        metadataCache.read("samples", "QTEST*", String.class, Optional.empty()));
+  }
+
+  @Test
+  @DisplayName("read ignores entries containing classes outside of the allowed packages")
+  void readIgnoresEntriesContainingClassesOutsideOfTheAllowedPackages() {
+    MetadataCache metadataCache = new MetadataCache(tempDir, Long.MAX_VALUE);
+    metadataCache.write("samples", "QTEST*",
+        new ArrayList<>(List.of(new X500Principal("CN=QTEST"))));
+    assertEquals(Optional.empty(),
+        metadataCache.read("samples", "QTEST*", ArrayList.class, Optional.empty()));
+  }
+
+  @Test
+  @DisplayName("evict deletes the least recently used entries")
+  void evictDeletesTheLeastRecentlyUsedEntries() throws IOException {
+    MetadataCache metadataCache = new MetadataCache(tempDir, Long.MAX_VALUE);
+    for (int i = 0; i < 10; i++) {
+      metadataCache.write("files", "dataset-" + i, new byte[1000]);
+    }
+    for (Path entry : entries()) {
+      Files.setLastModifiedTime(entry, FileTime.from(Instant.now().minusSeconds(100)));
+    }
+    for (int i = 7; i < 10; i++) {
+      metadataCache.read("files", "dataset-" + i, byte[].class, Optional.empty());
+    }
+    long entrySize = Files.size(entries().get(0));
+
+    new MetadataCache(tempDir, 3 * entrySize).evict();
+
+    assertEquals(3, entries().size());
+    for (int i = 7; i < 10; i++) {
+      assertTrue(metadataCache.read("files", "dataset-" + i, byte[].class, Optional.empty())
+          .isPresent(), "dataset-" + i);
+    }
+  }
+
+  private List<Path> entries() throws IOException {
+    try (Stream<Path> files = Files.walk(tempDir)) {
+      return files.filter(Files::isRegularFile).toList();
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package life.qbic.qpostman.common.functions;
+
+import static life.qbic.qpostman.common.functions.CachedSearchFilesTest.dataSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import life.qbic.qpostman.common.MetadataCache;
+import life.qbic.qpostman.common.MissingMetadataException;
+import life.qbic.qpostman.common.structures.DataSetWrapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class CachedSearchDataSetsTest {
+
+  @TempDir
+  Path tempDir;
+
+  private final List<List<String>> searches = new ArrayList<>();
+
+  @Test
+  @DisplayName("apply searches only the identifiers without cached datasets")
+  void applySearchesOnlyTheIdentifiersWithoutCachedDatasets() {
+    cachedSearchDataSets(Duration.ofHours(1), false).apply(List.of("QTEST001A", "QTEST002A"));
+    Collection<DataSetWrapper> dataSets = cachedSearchDataSets(Duration.ofHours(1), false)
+        .apply(List.of("QTEST001A", "QTEST003A"));
+    assertEquals(List.of(List.of("QTEST001A", "QTEST002A"), List.of("QTEST003A")), searches);
+    assertEquals(List.of("QTEST001A", "QTEST003A"), permIds(dataSets));
+  }
+
+  @Test
+  @DisplayName("apply searches identifiers again once their datasets expired")
+  void applySearchesIdentifiersAgainOnceTheirDatasetsExpired() {
+    cachedSearchDataSets(Duration.ZERO, false).apply(List.of("QTEST001A"));
+    cachedSearchDataSets(Duration.ZERO, false).apply(List.of("QTEST001A"));
+    assertEquals(2, searches.size());
+  }
+
+  @Test
+  @DisplayName("apply uses cached datasets of any age offline and fails for other identifiers")
+  void applyUsesCachedDatasetsOfAnyAgeOfflineAndFailsForOtherIdentifiers() {
+    cachedSearchDataSets(Duration.ZERO, false).apply(List.of("QTEST001A"));
+    CachedSearchDataSets offline = cachedSearchDataSets(Duration.ZERO, true);
+    assertEquals(List.of("QTEST001A"), permIds(offline.apply(List.of("QTEST001A"))));
+    assertThrows(MissingMetadataException.class,
+        () -> offline.apply(List.of("QTEST001A", "QTEST002A")));
+    assertEquals(1, searches.size());
+  }
+
+  @Test
+  @DisplayName("apply caches identifiers without datasets")
+  void applyCachesIdentifiersWithoutDatasets() {
+    cachedSearchDataSets(Duration.ofHours(1), false).apply(List.of("QEMPTY"));
+    assertEquals(List.of(), permIds(cachedSearchDataSets(Duration.ofHours(1), false)
+        .apply(List.of("QEMPTY"))));
+    assertEquals(1, searches.size());
+  }
+
+  private CachedSearchDataSets cachedSearchDataSets(Duration timeToLive, boolean offline) {
+    // every identifier has a dataset with the identifier as perm id, except for QEMPTY
+    return new CachedSearchDataSets(sampleIdentifiers -> {
+      searches.add(List.copyOf(sampleIdentifiers));
+      Map<String, Collection<DataSetWrapper>> dataSets = new HashMap<>();
+      sampleIdentifiers.forEach(it -> dataSets.put(it,
+          it.equals("QEMPTY") ? List.of() : List.of(dataSet(it, 0))));
+      return dataSets;
+    }, new MetadataCache(tempDir, Long.MAX_VALUE), "user@https://as", timeToLive, offline,
+        new FindSourceSample("Q_BIOLOGICAL_ENTITY"));
+  }
+
+  private static List<String> permIds(Collection<DataSetWrapper> dataSets) {
+    return dataSets.stream().map(dataSet -> dataSet.dataSetPermId().getPermId()).sorted().toList();
+  }
+}
@@ -0,0 +1,158 @@
+package life.qbic.qpostman.common.functions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.id.DataSetPermId;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.Sample;
+import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+import life.qbic.qpostman.common.MetadataCache;
+import life.qbic.qpostman.common.MissingMetadataException;
+import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.common.structures.DataSetWrapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class CachedSearchFilesTest {
+
+  private static final IDataStoreServerApi DATA_STORE_SERVER = dataStoreServer("https://dss-1");
+
+  @TempDir
+  Path tempDir;
+
+  private final List<Collection<DataSetWrapper>> searches = new ArrayList<>();
+
+  @Test
+  @DisplayName("apply reuses the cached files of unchanged datasets")
+  void applyReusesTheCachedFilesOfUnchangedDatasets() {
+    cachedSearchFiles(List.of(DATA_STORE_SERVER), false).apply(List.of(dataSet("1", 100)));
+    Collection<DataFile> dataFiles = cachedSearchFiles(List.of(DATA_STORE_SERVER), false)
+        .apply(List.of(dataSet("1", 100)));
+    assertEquals(1, searches.size());
+    assertEquals(List.of("1/file.txt"), paths(dataFiles));
+    assertEquals(DATA_STORE_SERVER, dataFiles.iterator().next().dataStoreServer());
+  }
+
+  @Test
+  @DisplayName("apply searches the files of modified datasets again")
+  void applySearchesTheFilesOfModifiedDatasetsAgain() {
+    cachedSearchFiles(List.of(DATA_STORE_SERVER), false).apply(List.of(dataSet("1", 100)));
+    cachedSearchFiles(List.of(DATA_STORE_SERVER), false).apply(List.of(dataSet("1", 200), dataSet("2", 100)));
+    assertEquals(2, searches.size());
+    assertEquals(List.of("1", "2"), permIds(searches.get(1)));
+  }
+
+  @Test
+  @DisplayName("apply searches the files again if their datastore server is not configured")
+  void applySearchesTheFilesAgainIfTheirDatastoreServerIsNotConfigured() {
+    cachedSearchFiles(List.of(DATA_STORE_SERVER), false).apply(List.of(dataSet("1", 100)));
+    IDataStoreServerApi otherServer = dataStoreServer("https://dss-2");
+    Collection<DataFile> dataFiles = cachedSearchFiles(List.of(otherServer), false)
+        .apply(List.of(dataSet("1", 100)));
+    assertEquals(2, searches.size());
+    assertEquals(otherServer, dataFiles.iterator().next().dataStoreServer());
+  }
+
+  @Test
+  @DisplayName("apply fails offline if files are not cached")
+  void applyFailsOfflineIfFilesAreNotCached() {
+    cachedSearchFiles(List.of(DATA_STORE_SERVER), false).apply(List.of(dataSet("1", 100)));
+    CachedSearchFiles offline = cachedSearchFiles(List.of(DATA_STORE_SERVER), true);
+    assertEquals(List.of("1/file.txt"), paths(offline.apply(List.of(dataSet("1", 100)))));
+    assertThrows(MissingMetadataException.class,
+        () -> offline.apply(List.of(dataSet("1", 100), dataSet("2", 100))));
+    assertEquals(1, searches.size());
+  }
+
+  @Test
+  @DisplayName("publish caches the files of a dataset as soon as they are published")
+  void publishCachesTheFilesOfADatasetAsSoonAsTheyArePublished() {
+    FileSearch searchFiles = new FileSearch() {
+      @Override
+      public Collection<DataFile> apply(Collection<DataSetWrapper> dataSets) {
+        throw new AssertionError("unexpected call of apply");
+      }
+
+      @Override
+      public void publish(Collection<DataSetWrapper> dataSets, Consumer<List<DataFile>> consumer) {
+        // dataset 2 has no files
+        dataSets.stream()
+            .filter(dataSet -> dataSet.dataSetPermId().getPermId().equals("1"))
+            .forEach(dataSet -> consumer.accept(
+                List.of(new DataFile(dataSetFile(dataSet), dataSet, DATA_STORE_SERVER))));
+      }
+    };
+    CachedSearchFiles offline = cachedSearchFiles(List.of(DATA_STORE_SERVER), true);
+    List<String> cachedWhilePublishing = new ArrayList<>();
+
+    new CachedSearchFiles(searchFiles, List.of(DATA_STORE_SERVER), new MetadataCache(tempDir, Long.MAX_VALUE), false)
+        .publish(List.of(dataSet("1", 100), dataSet("2", 100)), dataFiles -> {
+          if (!dataFiles.isEmpty()) {
+            cachedWhilePublishing.addAll(paths(offline.apply(List.of(dataSet("1", 100)))));
+          }
+        });
+
+    assertEquals(List.of("1/file.txt"), cachedWhilePublishing);
+    assertEquals(List.of("1/file.txt"),
+        paths(offline.apply(List.of(dataSet("1", 100), dataSet("2", 100)))));
+  }
+
+  private CachedSearchFiles cachedSearchFiles(List<IDataStoreServerApi> dataStoreServers,
+      boolean offline) {
+    FileSearch searchFiles = dataSets -> {
+      searches.add(dataSets);
+      return dataSets.stream()
+          .map(dataSet -> new DataFile(dataSetFile(dataSet), dataSet, dataStoreServers.get(0)))
+          .toList();
+    };
+    return new CachedSearchFiles(searchFiles, dataStoreServers,
+        new MetadataCache(tempDir, Long.MAX_VALUE), offline);
+  }
+
+  private static DataSetFile dataSetFile(DataSetWrapper dataSet) {
+    DataSetFile dataSetFile = new DataSetFile();
+    dataSetFile.setDataSetPermId(dataSet.dataSetPermId());
+    dataSetFile.setPath("original/" + dataSet.dataSetPermId().getPermId() + "/file.txt");
+    return dataSetFile;
+  }
+
+  static DataSetWrapper dataSet(String permId, long modification) {
+    Sample sample = new Sample();
+    sample.setCode("QTEST001A" + permId);
+    DataSet dataSet = new DataSet();
+    dataSet.setPermId(new DataSetPermId(permId));
+    dataSet.setSample(sample);
+    dataSet.setRegistrationDate(new Date(0));
+    dataSet.setModificationDate(new Date(modification));
+    return new DataSetWrapper(dataSet, it -> it);
+  }
+
+  private static IDataStoreServerApi dataStoreServer(String url) {
+    return (IDataStoreServerApi) Proxy.newProxyInstance(IDataStoreServerApi.class.getClassLoader(),
+        new Class<?>[]{IDataStoreServerApi.class}, (proxy, method, args) -> switch (method.getName()) {
+          case "toString" -> url;
+          case "hashCode" -> url.hashCode();
+          case "equals" -> proxy == args[0];
+          default -> throw new AssertionError("unexpected call of " + method.getName());
+        });
+  }
+
+  private static List<String> paths(Collection<DataFile> dataFiles) {
+    return dataFiles.stream().map(DataFile::filePath).toList();
+  }
+
+  private static List<String> permIds(Collection<DataSetWrapper> dataSets) {
+    return dataSets.stream().map(dataSet -> dataSet.dataSetPermId().getPermId()).sorted().toList();
+  }
+}
@@ -0,0 +1,73 @@
+package life.qbic.qpostman.common.functions;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.Sample;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.SampleType;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.fetchoptions.SampleFetchOptions;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.id.SamplePermId;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class FindSourceSampleTest {
+
+  private static final String SOURCE_TYPE = "Q_BIOLOGICAL_ENTITY";
+  private static final String OTHER_TYPE = "Q_TEST_SAMPLE";
+
+  @Test
+  @DisplayName("apply returns the first source sample searching the parents depth first")
+  void applyReturnsTheFirstSourceSampleSearchingTheParentsDepthFirst() {
+    Sample firstSource = sample("1", SOURCE_TYPE);
+    Sample secondSource = sample("2", SOURCE_TYPE);
+    Sample intermediate = sample("3", OTHER_TYPE, sample("4", OTHER_TYPE), firstSource);
+    Sample sample = sample("5", OTHER_TYPE, intermediate, secondSource);
+    assertSame(firstSource, new FindSourceSample(SOURCE_TYPE).apply(sample));
+  }
+
+  @Test
+  @DisplayName("apply returns the sample if no ancestor is a source sample")
+  void applyReturnsTheSampleIfNoAncestorIsASourceSample() {
+    Sample sample = sample("1", OTHER_TYPE, sample("2", OTHER_TYPE, sample("3", OTHER_TYPE)));
+    assertSame(sample, new FindSourceSample(SOURCE_TYPE).apply(sample));
+  }
+
+  @Test
+  @DisplayName("apply resolves deep lineages")
+  void applyResolvesDeepLineages() {
+    Sample source = sample("0", SOURCE_TYPE);
+    Sample sample = source;
+    for (int i = 1; i <= 100_000; i++) {
+      sample = sample(String.valueOf(i), OTHER_TYPE, sample);
+    }
+    assertSame(source, new FindSourceSample(SOURCE_TYPE).apply(sample));
+  }
+
+  @Test
+  @DisplayName("apply reuses the source samples of shared ancestors")
+  void applyReusesTheSourceSamplesOfSharedAncestors() {
+    Sample source = sample("1", SOURCE_TYPE);
+    Sample ancestor = sample("2", OTHER_TYPE, source);
+    FindSourceSample findSourceSample = new FindSourceSample(SOURCE_TYPE);
+    assertSame(source, findSourceSample.apply(sample("3", OTHER_TYPE, ancestor)));
+    // the parents of the ancestor are not needed anymore
+    ancestor.setParents(new ArrayList<>());
+    assertSame(source, findSourceSample.apply(sample("4", OTHER_TYPE, ancestor)));
+  }
+
+  private static Sample sample(String permId, String typeCode, Sample... parents) {
+    SampleFetchOptions fetchOptions = new SampleFetchOptions();
+    fetchOptions.withType();
+    fetchOptions.withParents();
+    SampleType sampleType = new SampleType();
+    sampleType.setCode(typeCode);
+    Sample sample = new Sample();
+    sample.setFetchOptions(fetchOptions);
+    sample.setPermId(new SamplePermId(permId));
+    sample.setType(sampleType);
+    sample.setParents(new ArrayList<>(List.of(parents)));
+    return sample;
+  }
+}
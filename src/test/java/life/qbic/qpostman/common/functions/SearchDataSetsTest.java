@@ -0,0 +1,27 @@
+package life.qbic.qpostman.common.functions;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class SearchDataSetsTest {
+
+  @Test
+  @DisplayName("codePattern matches the codes an identifier is searched for")
+  void codePatternMatchesTheCodesAnIdentifierIsSearchedFor() {
+    Pattern project = SearchDataSets.codePattern("QTEST*");
+    assertTrue(project.matcher("QTEST001AE").matches());
+    assertTrue(project.matcher("QTEST").matches());
+    assertFalse(project.matcher("NGSQTEST001").matches());
+
+    Pattern sample = SearchDataSets.codePattern("qtest001ae");
+    assertTrue(sample.matcher("QTEST001AE").matches());
+    assertFalse(sample.matcher("QTEST001AE1").matches());
+
+    assertFalse(SearchDataSets.codePattern("QTE.T*").matcher("QTEST001").matches());
+  }
+}
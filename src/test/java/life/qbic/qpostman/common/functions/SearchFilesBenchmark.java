@@ -0,0 +1,97 @@
+package life.qbic.qpostman.common.functions;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.id.DataSetPermId;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import life.qbic.qpostman.common.functions.SearchFiles.HostedFile;
+import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.common.structures.DataSetWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares joining files to their datasets using a permId index with the previous linear search
+ * over all datasets for every file. Every dataset has the same number of files, so the index join
+ * is expected to grow linearly with the number of datasets while the linear search grows
+ * quadratically.
+ * <p>
+ * Run after {@code mvn test-compile} with the main method of this class, or from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SearchFilesBenchmark {
+
+  @Param({"100", "1000", "10000"})
+  private int dataSetCount;
+
+  @Param({"20"})
+  private int filesPerDataSet;
+
+  private Collection<DataSetWrapper> dataSets;
+  private List<HostedFile> hostedFiles;
+
+  @Setup
+  public void createDataSets() {
+    List<DataSetWrapper> wrappers = new ArrayList<>(dataSetCount);
+    List<HostedFile> files = new ArrayList<>(dataSetCount * filesPerDataSet);
+    for (int i = 0; i < dataSetCount; i++) {
+      String permId = "20240101000000000-" + i;
+      DataSet dataSet = new DataSet();
+      dataSet.setPermId(new DataSetPermId(permId));
+      wrappers.add(new DataSetWrapper(dataSet, sample -> sample));
+      for (int j = 0; j < filesPerDataSet; j++) {
+        DataSetFile dataSetFile = new DataSetFile();
+        dataSetFile.setDataSetPermId(new DataSetPermId(permId));
+        dataSetFile.setPath("original/file-" + j);
+        files.add(new HostedFile(dataSetFile, null));
+      }
+    }
+    dataSets = wrappers;
+    hostedFiles = files;
+  }
+
+  @Benchmark
+  public List<DataFile> indexJoin() {
+    return SearchFiles.toDataFiles(hostedFiles.stream(), dataSets);
+  }
+
+  @Benchmark
+  public List<DataFile> linearJoin() {
+    return hostedFiles.stream()
+        .map(hostedFile -> {
+          DataSetPermId dataSetPermId = hostedFile.dataSetFile().getDataSetPermId();
+          DataSetWrapper dataSet = dataSets.stream()
+              .filter(ds -> ds.dataSetPermId().equals(dataSetPermId)).findFirst()
+              .orElseThrow();
+          return new DataFile(hostedFile.dataSetFile(), dataSet, hostedFile.dataStoreServerApi());
+        })
+        .toList();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(SearchFilesBenchmark.class.getSimpleName())
+        .build())
+        .run();
+  }
+}
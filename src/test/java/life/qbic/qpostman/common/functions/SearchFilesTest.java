@@ -0,0 +1,139 @@
+package life.qbic.qpostman.common.functions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.IApplicationServerApi;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.common.search.SearchResult;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.fetchoptions.DataSetFetchOptions;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.id.DataSetPermId;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.datastore.DataStore;
+import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.common.structures.DataSetWrapper;
+import life.qbic.qpostman.openbis.OpenBisSessionProvider;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class SearchFilesTest {
+
+  private final Map<String, AtomicInteger> searchesByServer = new ConcurrentHashMap<>();
+  private final Map<String, List<DataSetFile>> filesByServer = new ConcurrentHashMap<>();
+  private final List<IDataStoreServerApi> dataStoreServers = List.of(
+      dataStoreServer("https://openbis.example.org/datastore_server"),
+      dataStoreServer("https://openbis.example.org/datastore_server2"));
+
+  @Test
+  @DisplayName("normalizeUrl ignores the case of the host, default ports and trailing slashes")
+  void normalizeUrlIgnoresTheCaseOfTheHostDefaultPortsAndTrailingSlashes() {
+    assertEquals("https://openbis.example.org/datastore_server",
+        SearchFiles.normalizeUrl("HTTPS://OpenBIS.example.org:443/datastore_server/"));
+    assertEquals("https://openbis.example.org:8444",
+        SearchFiles.normalizeUrl("https://openbis.example.org:8444"));
+  }
+
+  @Test
+  @DisplayName("datasets are searched on the datastore server matching the url of their data store")
+  void datasetsAreSearchedOnTheDatastoreServerMatchingTheUrlOfTheirDataStore() {
+    searchFiles(List.of(dataSet("1", dataStore("DSS2", "https://openbis.example.org:443/datastore_server2/", null)),
+        dataSet("2", dataStore("DSS2", null, "https://openbis.example.org/datastore_server2"))));
+
+    assertEquals(0, searches("https://openbis.example.org/datastore_server"));
+    assertEquals(1, searches("https://openbis.example.org/datastore_server2"));
+  }
+
+  @Test
+  @DisplayName("datasets of a data store without matching url are searched on every datastore server")
+  void datasetsOfADataStoreWithoutMatchingUrlAreSearchedOnEveryDatastoreServer() {
+    searchFiles(List.of(dataSet("1", dataStore("DSS3", "https://other.example.org", null))));
+
+    assertEquals(1, searches("https://openbis.example.org/datastore_server"));
+    assertEquals(1, searches("https://openbis.example.org/datastore_server2"));
+  }
+
+  @Test
+  @DisplayName("publish passes the files of a dataset found on several datastore servers at once")
+  void publishPassesTheFilesOfADatasetFoundOnSeveralDatastoreServersAtOnce() {
+    filesByServer.put("https://openbis.example.org/datastore_server", List.of(dataSetFile("1", "original/a.txt")));
+    filesByServer.put("https://openbis.example.org/datastore_server2", List.of(dataSetFile("1", "original/b.txt")));
+    List<List<DataFile>> published = new CopyOnWriteArrayList<>();
+
+    searchFiles().publish(List.of(dataSet("1", dataStore("DSS3", "https://other.example.org", null))),
+        published::add);
+
+    assertEquals(1, published.size());
+    assertEquals(List.of("a.txt", "b.txt"),
+        published.get(0).stream().map(DataFile::filePath).sorted().toList());
+  }
+
+  private void searchFiles(List<DataSetWrapper> dataSets) {
+    searchFiles().apply(dataSets);
+  }
+
+  private SearchFiles searchFiles() {
+    OpenBisSessionProvider.init(applicationServer(), "user", "password");
+    return new SearchFiles(dataStoreServers, number -> {});
+  }
+
+  private int searches(String url) {
+    return searchesByServer.getOrDefault(url, new AtomicInteger()).get();
+  }
+
+  private static DataSetWrapper dataSet(String permId, DataStore dataStore) {
+    DataSetFetchOptions fetchOptions = new DataSetFetchOptions();
+    fetchOptions.withDataStore();
+    DataSet dataSet = new DataSet();
+    dataSet.setFetchOptions(fetchOptions);
+    dataSet.setPermId(new DataSetPermId(permId));
+    dataSet.setDataStore(dataStore);
+    return new DataSetWrapper(dataSet, it -> it);
+  }
+
+  private static DataSetFile dataSetFile(String permId, String path) {
+    DataSetFile dataSetFile = new DataSetFile();
+    dataSetFile.setDataSetPermId(new DataSetPermId(permId));
+    dataSetFile.setPath(path);
+    return dataSetFile;
+  }
+
+  private static DataStore dataStore(String code, String downloadUrl, String remoteUrl) {
+    DataStore dataStore = new DataStore();
+    dataStore.setCode(code);
+    dataStore.setDownloadUrl(downloadUrl);
+    dataStore.setRemoteUrl(remoteUrl);
+    return dataStore;
+  }
+
+  private IDataStoreServerApi dataStoreServer(String url) {
+    return (IDataStoreServerApi) Proxy.newProxyInstance(IDataStoreServerApi.class.getClassLoader(),
+        new Class<?>[]{IDataStoreServerApi.class}, (proxy, method, args) -> switch (method.getName()) {
+          case "toString" -> url;
+          case "hashCode" -> url.hashCode();
+          case "equals" -> proxy == args[0];
+          case "searchFiles" -> {
+            searchesByServer.computeIfAbsent(url, it -> new AtomicInteger()).incrementAndGet();
+            List<DataSetFile> files = filesByServer.getOrDefault(url, List.of());
+            yield new SearchResult<>(files, files.size());
+          }
+          default -> throw new AssertionError("unexpected call of " + method.getName());
+        });
+  }
+
+  private static IApplicationServerApi applicationServer() {
+    return (IApplicationServerApi) Proxy.newProxyInstance(
+        IApplicationServerApi.class.getClassLoader(), new Class<?>[]{IApplicationServerApi.class},
+        (proxy, method, args) -> switch (method.getName()) {
+          case "login" -> "token";
+          case "isSessionActive" -> true;
+          default -> throw new AssertionError("unexpected call of " + method.getName());
+        });
+  }
+}
@@ -0,0 +1,96 @@
+package life.qbic.qpostman.common.functions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.id.DataSetPermId;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.Sample;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import java.util.Date;
+import java.util.List;
+import life.qbic.qpostman.common.functions.SortFiles.SchedulingPolicy;
+import life.qbic.qpostman.common.functions.SortFiles.SchedulingPolicy.SchedulingPolicyConverter;
+import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.common.structures.DataSetWrapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class SortFilesTest {
+
+  private static final DataSetWrapper OLD_DATASET = dataSet("1", 1_000);
+  private static final DataSetWrapper NEW_DATASET = dataSet("2", 2_000);
+
+  private final List<DataFile> dataFiles = List.of(
+      dataFile(OLD_DATASET, "c.txt", 30),
+      dataFile(OLD_DATASET, "A.txt", 50),
+      dataFile(NEW_DATASET, "b.txt", 10),
+      dataFile(NEW_DATASET, "a.txt", 20),
+      dataFile(OLD_DATASET, "b.txt", 40));
+
+  @Test
+  @DisplayName("the default order is by dataset registration, newest first, and then by path")
+  void theDefaultOrderIsByDatasetRegistrationNewestFirstAndThenByPath() {
+    assertEquals(List.of("2/a.txt", "2/b.txt", "1/A.txt", "1/b.txt", "1/c.txt"),
+        paths(new SortFiles().apply(dataFiles)));
+  }
+
+  @Test
+  @DisplayName("largest first orders the files by size")
+  void largestFirstOrdersTheFilesBySize() {
+    assertEquals(List.of("1/A.txt", "1/b.txt", "1/c.txt", "2/a.txt", "2/b.txt"),
+        paths(new SortFiles(SchedulingPolicy.LARGEST_FIRST).apply(dataFiles)));
+  }
+
+  @Test
+  @DisplayName("interleaved alternates between the largest and the smallest remaining file")
+  void interleavedAlternatesBetweenTheLargestAndTheSmallestRemainingFile() {
+    assertEquals(List.of("1/A.txt", "2/b.txt", "1/b.txt", "2/a.txt", "1/c.txt"),
+        paths(new SortFiles(SchedulingPolicy.INTERLEAVED).apply(dataFiles)));
+  }
+
+  @Test
+  @DisplayName("per dataset keeps the files of a dataset together, datasets with the most data first")
+  void perDatasetKeepsTheFilesOfADatasetTogetherDatasetsWithTheMostDataFirst() {
+    assertEquals(List.of("1/A.txt", "1/b.txt", "1/c.txt", "2/a.txt", "2/b.txt"),
+        paths(new SortFiles(SchedulingPolicy.PER_DATASET).apply(dataFiles)));
+    List<DataFile> largeNewDataset = List.of(dataFile(OLD_DATASET, "a.txt", 10),
+        dataFile(NEW_DATASET, "b.txt", 5), dataFile(NEW_DATASET, "a.txt", 10));
+    assertEquals(List.of("2/a.txt", "2/b.txt", "1/a.txt"),
+        paths(new SortFiles(SchedulingPolicy.PER_DATASET).apply(largeNewDataset)));
+  }
+
+  @Test
+  @DisplayName("scheduling policies are converted ignoring case and with dashes")
+  void schedulingPoliciesAreConvertedIgnoringCaseAndWithDashes() {
+    SchedulingPolicyConverter converter = new SchedulingPolicyConverter();
+    assertEquals(SchedulingPolicy.LARGEST_FIRST, converter.convert("largest-first"));
+    assertEquals(SchedulingPolicy.PER_DATASET, converter.convert("PER_DATASET"));
+    assertThrows(IllegalArgumentException.class, () -> converter.convert("smallest-first"));
+  }
+
+  private static List<String> paths(List<DataFile> dataFiles) {
+    return dataFiles.stream()
+        .map(dataFile -> dataFile.dataSet().dataSetPermId().getPermId() + "/" + dataFile.fileName())
+        .toList();
+  }
+
+  private static DataFile dataFile(DataSetWrapper dataSet, String path, long size) {
+    DataSetFile dataSetFile = new DataSetFile();
+    dataSetFile.setDataSetPermId(dataSet.dataSetPermId());
+    dataSetFile.setPath("original/" + path);
+    dataSetFile.setFileLength(size);
+    return new DataFile(dataSetFile, dataSet, null);
+  }
+
+  private static DataSetWrapper dataSet(String permId, long registration) {
+    Sample sample = new Sample();
+    sample.setCode("QTEST001A" + permId);
+    DataSet dataSet = new DataSet();
+    dataSet.setPermId(new DataSetPermId(permId));
+    dataSet.setSample(sample);
+    dataSet.setRegistrationDate(new Date(registration));
+    return new DataSetWrapper(dataSet, it -> it);
+  }
+}
@@ -0,0 +1,70 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class AdaptiveConcurrencyTest {
+
+  // latencies close to zero would be dominated by scheduling noise
+  private static final long LATENCY_MILLIS = 50;
+
+  private final AdaptiveConcurrency adaptiveConcurrency = new AdaptiveConcurrency(8);
+
+  @AfterEach
+  void closeController() {
+    adaptiveConcurrency.close();
+  }
+
+  @Test
+  @DisplayName("the limit grows while the throughput improves")
+  void theLimitGrowsWhileTheThroughputImproves() throws InterruptedException {
+    transfer(1_000, LATENCY_MILLIS);
+    adaptiveConcurrency.sample();
+    assertEquals(2, adaptiveConcurrency.limit());
+    transfer(2_000, LATENCY_MILLIS);
+    adaptiveConcurrency.sample();
+    assertEquals(3, adaptiveConcurrency.limit());
+  }
+
+  @Test
+  @DisplayName("the limit shrinks when the latency rises")
+  void theLimitShrinksWhenTheLatencyRises() throws InterruptedException {
+    transfer(1_000, LATENCY_MILLIS);
+    adaptiveConcurrency.sample();
+    transfer(2_000, LATENCY_MILLIS);
+    adaptiveConcurrency.sample();
+    assertEquals(3, adaptiveConcurrency.limit());
+    // the throughput still improves
+    transfer(3_000, 4 * LATENCY_MILLIS);
+    adaptiveConcurrency.sample();
+    assertEquals(2, adaptiveConcurrency.limit());
+  }
+
+  @Test
+  @DisplayName("only the first transfer after acquire measures the latency")
+  void onlyTheFirstTransferAfterAcquireMeasuresTheLatency() throws InterruptedException {
+    transfer(1_000, LATENCY_MILLIS);
+    adaptiveConcurrency.sample();
+    transfer(1_000, LATENCY_MILLIS);
+    // e.g. the second file of a batch, which waits for the first file
+    WriteProgressListener secondFile = adaptiveConcurrency.progressListener();
+    Thread.sleep(4 * LATENCY_MILLIS);
+    secondFile.update(1_000);
+    adaptiveConcurrency.sample();
+    assertEquals(3, adaptiveConcurrency.limit());
+  }
+
+  /**
+   * Starts a transfer that receives its first byte after the given latency.
+   */
+  private void transfer(long bytes, long latencyMillis) throws InterruptedException {
+    adaptiveConcurrency.acquire();
+    WriteProgressListener progressListener = adaptiveConcurrency.progressListener();
+    Thread.sleep(latencyMillis);
+    progressListener.update(bytes);
+  }
+}
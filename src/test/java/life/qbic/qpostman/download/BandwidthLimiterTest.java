@@ -0,0 +1,98 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class BandwidthLimiterTest {
+
+  @Test
+  @DisplayName("acquire waits until the bytes are paid for at the rate")
+  void acquireWaitsUntilTheBytesArePaidForAtTheRate() throws InterruptedIOException {
+    BandwidthLimiter bandwidthLimiter = BandwidthLimiter.of(100_000);
+    // the bucket starts with one second worth of bytes
+    bandwidthLimiter.acquire(100_000);
+    long start = System.nanoTime();
+    bandwidthLimiter.acquire(20_000);
+    assertTrue(millisSince(start) >= 150, "expected to wait about 200 ms");
+  }
+
+  @Test
+  @DisplayName("a changed rate applies to waiting transfers")
+  void aChangedRateAppliesToWaitingTransfers() throws InterruptedIOException {
+    BandwidthLimiter bandwidthLimiter = BandwidthLimiter.of(1_000);
+    bandwidthLimiter.acquire(1_000);
+    // waits for a minute at the current rate
+    CompletableFuture<Void> transfer = CompletableFuture.runAsync(() -> acquire(bandwidthLimiter,
+        60_000));
+    sleep(100);
+    // changing the rate does not wait for the waiting transfer
+    assertTimeoutPreemptively(Duration.ofSeconds(1), () -> bandwidthLimiter.setBytesPerSecond(0));
+    assertTimeoutPreemptively(Duration.ofSeconds(5), transfer::get);
+  }
+
+  @Test
+  @DisplayName("a lower rate slows down waiting transfers")
+  void aLowerRateSlowsDownWaitingTransfers() throws InterruptedIOException {
+    BandwidthLimiter bandwidthLimiter = BandwidthLimiter.of(100_000);
+    bandwidthLimiter.acquire(100_000);
+    long start = System.nanoTime();
+    CompletableFuture<Void> transfer = CompletableFuture.runAsync(() -> acquire(bandwidthLimiter,
+        10_000));
+    sleep(20);
+    bandwidthLimiter.setBytesPerSecond(10_000);
+    assertTimeoutPreemptively(Duration.ofSeconds(5), transfer::get);
+    // about 2 KB were paid at the previous rate, the rest takes most of a second
+    assertTrue(millisSince(start) >= 500, "expected the lower rate to apply");
+  }
+
+  @Test
+  @DisplayName("waiting transfers can be interrupted")
+  void waitingTransfersCanBeInterrupted() throws InterruptedIOException {
+    BandwidthLimiter bandwidthLimiter = BandwidthLimiter.of(1_000);
+    bandwidthLimiter.acquire(1_000);
+    Thread.currentThread().interrupt();
+    try {
+      bandwidthLimiter.acquire(60_000);
+      throw new AssertionError("expected the transfer to be interrupted");
+    } catch (InterruptedIOException e) {
+      assertTrue(Thread.interrupted());
+    }
+  }
+
+  @Test
+  @DisplayName("BandwidthConverter parses bandwidths with units")
+  void bandwidthConverterParsesBandwidthsWithUnits() {
+    assertEquals(500_000L, BandwidthLimiter.BandwidthConverter.parse("500K"));
+    assertEquals(1_500_000L, BandwidthLimiter.BandwidthConverter.parse("1.5m"));
+    assertEquals(0L, BandwidthLimiter.BandwidthConverter.parse("unlimited"));
+  }
+
+  private static void acquire(BandwidthLimiter bandwidthLimiter, long bytes) {
+    try {
+      bandwidthLimiter.acquire(bytes);
+    } catch (InterruptedIOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static long millisSince(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
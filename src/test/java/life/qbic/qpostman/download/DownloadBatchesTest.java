@@ -0,0 +1,85 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import life.qbic.qpostman.common.structures.DataFile;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class DownloadBatchesTest {
+
+  private static final long LARGE = DownloadBatches.SMALL_FILE_THRESHOLD;
+  private static final long SMALL = 1024;
+
+  @Test
+  @DisplayName("a batch takes the place of its first file")
+  void aBatchTakesThePlaceOfItsFirstFile() {
+    IDataStoreServerApi dataStoreServer = dataStoreServer();
+    List<DataFile> interleaved = List.of(dataFile("large1", LARGE, dataStoreServer),
+        dataFile("small1", SMALL, dataStoreServer), dataFile("large2", LARGE, dataStoreServer),
+        dataFile("small2", SMALL, dataStoreServer));
+
+    List<List<DataFile>> batches = new DownloadBatches().apply(interleaved);
+
+    assertEquals(List.of(List.of("large1"), List.of("small1", "small2"), List.of("large2")),
+        paths(batches));
+  }
+
+  @Test
+  @DisplayName("a full batch is followed by a new batch in place of its next file")
+  void aFullBatchIsFollowedByANewBatchInPlaceOfItsNextFile() {
+    IDataStoreServerApi dataStoreServer = dataStoreServer();
+    List<DataFile> dataFiles = new ArrayList<>();
+    for (int i = 0; i < DownloadBatches.MAX_BATCH_FILES; i++) {
+      dataFiles.add(dataFile("small" + i, SMALL, dataStoreServer));
+    }
+    dataFiles.add(dataFile("large", LARGE, dataStoreServer));
+    dataFiles.add(dataFile("last", SMALL, dataStoreServer));
+
+    List<List<String>> batches = paths(new DownloadBatches().apply(dataFiles));
+
+    assertEquals(3, batches.size());
+    assertEquals(DownloadBatches.MAX_BATCH_FILES, batches.get(0).size());
+    assertEquals(List.of("large"), batches.get(1));
+    assertEquals(List.of("last"), batches.get(2));
+  }
+
+  @Test
+  @DisplayName("batches contain files of a single datastore server")
+  void batchesContainFilesOfASingleDatastoreServer() {
+    IDataStoreServerApi first = dataStoreServer();
+    IDataStoreServerApi second = dataStoreServer();
+    List<DataFile> dataFiles = List.of(dataFile("a1", SMALL, first), dataFile("b1", SMALL, second),
+        dataFile("a2", SMALL, first), dataFile("b2", SMALL, second));
+
+    List<List<DataFile>> batches = new DownloadBatches().apply(dataFiles);
+
+    assertEquals(List.of(List.of("a1", "a2"), List.of("b1", "b2")), paths(batches));
+  }
+
+  private static List<List<String>> paths(List<List<DataFile>> batches) {
+    return batches.stream()
+        .map(batch -> batch.stream().map(DataFile::filePath).toList())
+        .toList();
+  }
+
+  private static DataFile dataFile(String path, long size, IDataStoreServerApi dataStoreServer) {
+    DataSetFile dataSetFile = new DataSetFile();
+    dataSetFile.setPath("original/" + path);
+    dataSetFile.setFileLength(size);
+    return new DataFile(dataSetFile, null, dataStoreServer);
+  }
+
+  private static IDataStoreServerApi dataStoreServer() {
+    return (IDataStoreServerApi) Proxy.newProxyInstance(IDataStoreServerApi.class.getClassLoader(),
+        new Class<?>[]{IDataStoreServerApi.class}, (proxy, method, args) -> {
+          throw new AssertionError("unexpected call of " + method.getName());
+        });
+  }
+}
@@ -0,0 +1,94 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import life.qbic.qpostman.common.structures.DataFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class DownloadProgressTest {
+
+  @TempDir
+  Path tempDir;
+
+  private final DownloadProgress downloadProgress = new DownloadProgress(1, 100,
+      new PrintStream(new ByteArrayOutputStream()), false);
+
+  @AfterEach
+  void closeProgress() {
+    downloadProgress.close();
+  }
+
+  @Test
+  @DisplayName("a transfer is active from its first update until it is finished")
+  void aTransferIsActiveFromItsFirstUpdateUntilItIsFinished() {
+    WriteProgressListener listener = downloadProgress.listener(dataFile(100));
+    assertEquals(0, downloadProgress.activeTransfers());
+
+    listener.update(40);
+    assertEquals(1, downloadProgress.activeTransfers());
+    assertEquals(40, downloadProgress.inFlightBytes());
+
+    listener.finish();
+    assertEquals(0, downloadProgress.activeTransfers());
+    assertEquals(0, downloadProgress.inFlightBytes());
+  }
+
+  @Test
+  @DisplayName("a failed write finishes its transfer")
+  void aFailedWriteFinishesItsTransfer() throws IOException {
+    InputStream brokenStream = new SequenceInputStream(new ByteArrayInputStream(new byte[40]),
+        new InputStream() {
+          @Override
+          public int read() throws IOException {
+            throw new IOException("connection reset");
+          }
+        });
+    try (FileChannel fileChannel = FileChannel.open(tempDir.resolve("file.txt"),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      assertThrows(IOException.class, () -> WriteUtils.write(16, brokenStream, fileChannel,
+          DurabilityPolicy.NONE, BandwidthLimiter.unlimited(),
+          downloadProgress.listener(dataFile(100))));
+    }
+
+    assertEquals(0, downloadProgress.activeTransfers());
+    assertEquals(0, downloadProgress.inFlightBytes());
+  }
+
+  @Test
+  @DisplayName("retries of a failed transfer are not counted twice")
+  void retriesOfAFailedTransferAreNotCountedTwice() {
+    DataFile dataFile = dataFile(100);
+    for (int attempt = 0; attempt < 3; attempt++) {
+      WriteProgressListener listener = downloadProgress.listener(dataFile);
+      listener.update(60);
+      listener.finish();
+    }
+    WriteProgressListener listener = downloadProgress.listener(dataFile);
+    listener.update(30);
+
+    assertEquals(1, downloadProgress.activeTransfers());
+    assertEquals(30, downloadProgress.inFlightBytes());
+  }
+
+  private static DataFile dataFile(long size) {
+    DataSetFile dataSetFile = new DataSetFile();
+    dataSetFile.setPath("original/file.txt");
+    dataSetFile.setFileLength(size);
+    return new DataFile(dataSetFile, null, null);
+  }
+}
@@ -0,0 +1,76 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import java.util.List;
+import life.qbic.qpostman.common.structures.DataFile;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class DuplicateFilesTest {
+
+  @Test
+  @DisplayName("files with equal size and checksum are duplicates of the first one")
+  void filesWithEqualSizeAndChecksumAreDuplicatesOfTheFirstOne() {
+    DataFile original = dataFile("a.txt", 100, 1);
+    DataFile duplicate = dataFile("b.txt", 100, 1);
+    DataFile otherDuplicate = dataFile("c.txt", 100, 1);
+
+    DuplicateFiles duplicateFiles = DuplicateFiles.find(List.of(original, duplicate, otherDuplicate));
+
+    assertEquals(List.of(original), duplicateFiles.uniqueFiles());
+    assertEquals(2, duplicateFiles.originalsByDuplicate().size());
+    assertSame(original, duplicateFiles.originalsByDuplicate().get(duplicate));
+    assertSame(original, duplicateFiles.originalsByDuplicate().get(otherDuplicate));
+    assertEquals(200, duplicateFiles.duplicateBytes());
+  }
+
+  @Test
+  @DisplayName("files differing in size or checksum are unique")
+  void filesDifferingInSizeOrChecksumAreUnique() {
+    List<DataFile> dataFiles = List.of(dataFile("a.txt", 100, 1), dataFile("b.txt", 200, 1),
+        dataFile("c.txt", 100, 2));
+
+    DuplicateFiles duplicateFiles = DuplicateFiles.find(dataFiles);
+
+    assertEquals(dataFiles, duplicateFiles.uniqueFiles());
+    assertTrue(duplicateFiles.originalsByDuplicate().isEmpty());
+    assertEquals(0, duplicateFiles.duplicateBytes());
+  }
+
+  @Test
+  @DisplayName("empty files are never duplicates")
+  void emptyFilesAreNeverDuplicates() {
+    List<DataFile> dataFiles = List.of(dataFile("a.txt", 0, 0), dataFile("b.txt", 0, 0));
+
+    DuplicateFiles duplicateFiles = DuplicateFiles.find(dataFiles);
+
+    assertEquals(dataFiles, duplicateFiles.uniqueFiles());
+    assertTrue(duplicateFiles.originalsByDuplicate().isEmpty());
+  }
+
+  @Test
+  @DisplayName("unique files keep the download order")
+  void uniqueFilesKeepTheDownloadOrder() {
+    DataFile first = dataFile("a.txt", 100, 1);
+    DataFile second = dataFile("b.txt", 200, 2);
+    DataFile third = dataFile("c.txt", 300, 3);
+
+    DuplicateFiles duplicateFiles = DuplicateFiles.find(
+        List.of(first, second, dataFile("d.txt", 100, 1), third, dataFile("e.txt", 200, 2)));
+
+    assertEquals(List.of(first, second, third), duplicateFiles.uniqueFiles());
+  }
+
+  private static DataFile dataFile(String path, long size, int crc32) {
+    DataSetFile dataSetFile = new DataSetFile();
+    dataSetFile.setPath("original/" + path);
+    dataSetFile.setFileLength(size);
+    dataSetFile.setChecksumCRC32(crc32);
+    return new DataFile(dataSetFile, null, null);
+  }
+}
@@ -0,0 +1,73 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+
+public class ParallelCrc32Test {
+
+  @TempDir
+  Path tempDir;
+
+  @ParameterizedTest(name = "length = {0}, split at {1}")
+  @CsvSource({
+      "0, 0",
+      "1, 0",
+      "1, 1",
+      "1000, 1",
+      "1000, 500",
+      "4099, 4096"})
+  @DisplayName("combine yields the checksum of the concatenated data")
+  void combineYieldsChecksumOfConcatenatedData(int length, int splitIndex) {
+    byte[] data = randomBytes(length);
+    CRC32 first = new CRC32();
+    first.update(data, 0, splitIndex);
+    CRC32 second = new CRC32();
+    second.update(data, splitIndex, length - splitIndex);
+
+    long combined = ParallelCrc32.combine(first.getValue(), second.getValue(), length - splitIndex);
+
+    assertEquals(crc32(data), combined);
+  }
+
+  @ParameterizedTest(name = "chunk size = {0}")
+  @ValueSource(longs = {997, 4096, 100_000})
+  @DisplayName("calculate yields the same checksum as a sequential computation")
+  void calculateYieldsSameChecksumAsSequentialComputation(long chunkSize) throws IOException {
+    byte[] data = randomBytes(50_000);
+    Path file = Files.write(tempDir.resolve("data.bin"), data);
+
+    assertEquals(crc32(data), ParallelCrc32.calculate(file, chunkSize));
+  }
+
+  @Test
+  @DisplayName("calculate yields the checksum of an empty file")
+  void calculateYieldsChecksumOfEmptyFile() throws IOException {
+    Path file = Files.write(tempDir.resolve("empty.bin"), new byte[0]);
+
+    assertEquals(crc32(new byte[0]), ParallelCrc32.calculate(file, 1024));
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] data = new byte[length];
+    new Random(length).nextBytes(data);
+    return data;
+  }
+
+  private static long crc32(byte[] data) {
+    CRC32 crc32 = new CRC32();
+    crc32.update(data);
+    return crc32.getValue();
+  }
+}
@@ -0,0 +1,87 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class PipelinedWriteTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  @DisplayName("write produces the content and checksum")
+  void writeProducesTheContentAndChecksum() throws IOException {
+    String content = "a content longer than all buffers together";
+    Path file = tempDir.resolve("file.txt");
+    long crc32;
+    try (FileChannel fileChannel = open(file)) {
+      crc32 = PipelinedWrite.write(4, 2,
+          new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), fileChannel,
+          DurabilityPolicy.NONE, BandwidthLimiter.unlimited(), WriteProgressListener.noOp());
+    }
+    assertEquals(content, Files.readString(file));
+    assertEquals(crc32(content), crc32);
+  }
+
+  @Test
+  @DisplayName("a failed read leaves the file channel open")
+  void aFailedReadLeavesTheFileChannelOpen() throws IOException {
+    InputStream brokenStream = new SequenceInputStream(new ByteArrayInputStream(new byte[1 << 20]),
+        new InputStream() {
+          @Override
+          public int read() throws IOException {
+            throw new IOException("connection reset");
+          }
+        });
+    try (FileChannel fileChannel = open(tempDir.resolve("file.txt"))) {
+      assertThrows(IOException.class, () -> PipelinedWrite.write(256, 4, brokenStream, fileChannel,
+          DurabilityPolicy.NONE, BandwidthLimiter.unlimited(), WriteProgressListener.noOp()));
+
+      assertTrue(fileChannel.isOpen());
+      fileChannel.write(ByteBuffer.wrap(new byte[1]));
+    }
+  }
+
+  @Test
+  @DisplayName("an interrupted caller leaves the file channel open")
+  void anInterruptedCallerLeavesTheFileChannelOpen() throws IOException {
+    try (FileChannel fileChannel = open(tempDir.resolve("file.txt"))) {
+      Thread.currentThread().interrupt();
+      assertThrows(IOException.class, () -> PipelinedWrite.write(256, 4,
+          new ByteArrayInputStream(new byte[1 << 20]), fileChannel, DurabilityPolicy.NONE,
+          BandwidthLimiter.unlimited(), WriteProgressListener.noOp()));
+
+      assertTrue(Thread.interrupted());
+      assertTrue(fileChannel.isOpen());
+      fileChannel.write(ByteBuffer.wrap(new byte[1]));
+    }
+  }
+
+  private static FileChannel open(Path file) throws IOException {
+    return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  private static long crc32(String content) {
+    CRC32 crc32 = new CRC32();
+    crc32.update(content.getBytes(StandardCharsets.UTF_8));
+    return crc32.getValue();
+  }
+}
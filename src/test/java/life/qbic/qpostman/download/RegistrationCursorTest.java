@@ -0,0 +1,101 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+import life.qbic.qpostman.download.RegistrationCursor.Since;
+import life.qbic.qpostman.download.RegistrationCursor.SinceConverter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class RegistrationCursorTest {
+
+  private static final Instant EARLIER = Instant.parse("2024-05-01T12:00:00Z");
+  private static final Instant LATER = Instant.parse("2024-06-01T12:00:00Z");
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  @DisplayName("parse accepts auto in any case")
+  void parseAcceptsAutoInAnyCase() {
+    assertTrue(SinceConverter.parse("auto").isAuto());
+    assertTrue(SinceConverter.parse(" AUTO ").isAuto());
+  }
+
+  @Test
+  @DisplayName("parse accepts instants and times with offset")
+  void parseAcceptsInstantsAndTimesWithOffset() {
+    assertEquals(Optional.of(EARLIER), SinceConverter.parse("2024-05-01T12:00:00Z").timestamp());
+    assertEquals(Optional.of(EARLIER), SinceConverter.parse("2024-05-01T14:00:00+02:00").timestamp());
+  }
+
+  @Test
+  @DisplayName("parse interprets local times and dates in the system time zone")
+  void parseInterpretsLocalTimesAndDatesInTheSystemTimeZone() {
+    ZoneId zone = ZoneId.systemDefault();
+    assertEquals(Optional.of(LocalDateTime.of(2024, 5, 1, 12, 0).atZone(zone).toInstant()),
+        SinceConverter.parse("2024-05-01T12:00").timestamp());
+    assertEquals(Optional.of(LocalDate.of(2024, 5, 1).atStartOfDay(zone).toInstant()),
+        SinceConverter.parse("2024-05-01").timestamp());
+  }
+
+  @Test
+  @DisplayName("parse rejects unknown timestamps")
+  void parseRejectsUnknownTimestamps() {
+    assertThrows(IllegalArgumentException.class, () -> SinceConverter.parse("yesterday"));
+    assertThrows(IllegalArgumentException.class, () -> SinceConverter.parse("01.05.2024"));
+  }
+
+  @Test
+  @DisplayName("a cursor without previous download is empty")
+  void aCursorWithoutPreviousDownloadIsEmpty() {
+    assertEquals(Optional.empty(), RegistrationCursor.of(tempDir, List.of("QTEST*")).lastRegistration());
+  }
+
+  @Test
+  @DisplayName("advance keeps the latest registration time")
+  void advanceKeepsTheLatestRegistrationTime() {
+    RegistrationCursor cursor = RegistrationCursor.of(tempDir, List.of("QTEST*"));
+
+    cursor.advance(LATER);
+    cursor.advance(EARLIER);
+
+    assertEquals(Optional.of(LATER), RegistrationCursor.of(tempDir, List.of("QTEST*")).lastRegistration());
+  }
+
+  @Test
+  @DisplayName("cursors are kept per set of sample identifiers")
+  void cursorsAreKeptPerSetOfSampleIdentifiers() {
+    RegistrationCursor.of(tempDir, List.of("QTEST001AE", "QTEST002AE")).advance(EARLIER);
+    RegistrationCursor.of(tempDir, List.of("QOTHR*")).advance(LATER);
+
+    assertEquals(Optional.of(EARLIER),
+        RegistrationCursor.of(tempDir, List.of("QTEST002AE", "QTEST001AE")).lastRegistration());
+    assertEquals(Optional.of(LATER), RegistrationCursor.of(tempDir, List.of("QOTHR*")).lastRegistration());
+    assertEquals(Optional.empty(), RegistrationCursor.of(tempDir, List.of("QTEST001AE")).lastRegistration());
+  }
+
+  @Test
+  @DisplayName("an unreadable cursor file is ignored")
+  void anUnreadableCursorFileIsIgnored() throws IOException {
+    Files.writeString(tempDir.resolve(RegistrationCursor.CURSOR_FILE_NAME), "QTEST*\tyesterday\n");
+    RegistrationCursor cursor = RegistrationCursor.of(tempDir, List.of("QTEST*"));
+
+    assertEquals(Optional.empty(), cursor.lastRegistration());
+    cursor.advance(EARLIER);
+    assertEquals(Optional.of(EARLIER), cursor.lastRegistration());
+  }
+}
@@ -0,0 +1,212 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class TarArchiveWriterTest {
+
+  private static final int BLOCK_SIZE = 512;
+
+  @Test
+  @DisplayName("entries are written as ustar headers followed by the zero padded content")
+  void entriesAreWrittenAsUstarHeadersFollowedByTheZeroPaddedContent() throws IOException {
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (TarArchiveWriter writer = new TarArchiveWriter(archive, 1024)) {
+      writer.putEntry("QTEST001AE/a.txt", 5, 1_700_000_000).write(bytes("hello"));
+      writer.closeEntry();
+    }
+
+    byte[] bytes = archive.toByteArray();
+    // header, content block and the two blocks of the end-of-archive marker
+    assertEquals(4 * BLOCK_SIZE, bytes.length);
+    assertEquals("QTEST001AE/a.txt", string(bytes, 0, 100));
+    assertEquals(0644, octal(bytes, 100, 8));
+    assertEquals(5, octal(bytes, 124, 12));
+    assertEquals(1_700_000_000, octal(bytes, 136, 12));
+    assertEquals('0', bytes[156]);
+    assertArrayEquals(new byte[BLOCK_SIZE - 5], Arrays.copyOfRange(bytes, BLOCK_SIZE + 5, 2 * BLOCK_SIZE));
+    assertEquals(List.of(new TarEntry("QTEST001AE/a.txt", "hello")), entries(readArchive(bytes)));
+  }
+
+  @Test
+  @DisplayName("long and non-ASCII names are written to a PAX header")
+  void longAndNonAsciiNamesAreWrittenToAPaxHeader() throws IOException {
+    String longName = "QTEST001AE/" + "d".repeat(120) + "/a.txt";
+    String nonAsciiName = "QTEST001AE/M\u00fcller/gr\u00f6\u00dfe.txt";
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (TarArchiveWriter writer = new TarArchiveWriter(archive, 1024)) {
+      writer.putEntry(longName, 1, 0).write(bytes("a"));
+      writer.closeEntry();
+      writer.putEntry(nonAsciiName, 1, 0).write(bytes("b"));
+      writer.closeEntry();
+    }
+
+    byte[] bytes = archive.toByteArray();
+    assertEquals('x', bytes[156]);
+    assertEquals(List.of(new TarEntry(longName, "a"), new TarEntry(nonAsciiName, "b")),
+        entries(readArchive(bytes)));
+  }
+
+  @Test
+  @DisplayName("the length of a PAX record includes its own digits")
+  void theLengthOfAPaxRecordIncludesItsOwnDigits() throws IOException {
+    // the path records of these names are 89 to 109 bytes long, some with two, some with three digits
+    List<TarEntry> written = new ArrayList<>();
+    for (int length = 80; length < 100; length++) {
+      written.add(new TarEntry("\u00e4".repeat(length / 2) + "a".repeat(length % 2), "content"));
+    }
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (TarArchiveWriter writer = new TarArchiveWriter(archive, 1024)) {
+      for (TarEntry entry : written) {
+        writer.putEntry(entry.name(), entry.content().length(), 0).write(bytes(entry.content()));
+        writer.closeEntry();
+      }
+    }
+
+    assertEquals(written, entries(readArchive(archive.toByteArray())));
+  }
+
+  @Test
+  @DisplayName("sizes larger than 8 GiB are written to a PAX header")
+  void sizesLargerThan8GibAreWrittenToAPaxHeader() {
+    long size = 9L * 1024 * 1024 * 1024;
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    // the headers are written through without buffering, the content is never written
+    TarArchiveWriter writer = new TarArchiveWriter(archive, 1);
+    writer.putEntry("QTEST001AE/large.raw", size, 0);
+
+    byte[] bytes = archive.toByteArray();
+    assertEquals('x', bytes[156]);
+    Map<String, String> paxRecords = paxRecords(
+        Arrays.copyOfRange(bytes, BLOCK_SIZE, BLOCK_SIZE + (int) octal(bytes, 124, 12)));
+    assertEquals(Long.toString(size), paxRecords.get("size"));
+    assertEquals("QTEST001AE/large.raw", paxRecords.get("path"));
+    byte[] header = Arrays.copyOfRange(bytes, 2 * BLOCK_SIZE, 3 * BLOCK_SIZE);
+    assertEquals(checksum(header), octal(header, 148, 8));
+    assertEquals('0', header[156]);
+    assertEquals(0, octal(header, 124, 12));
+  }
+
+  @Test
+  @DisplayName("an entry falling short of its size is padded with zeros and content beyond it is dropped")
+  void anEntryFallingShortOfItsSizeIsPaddedWithZerosAndContentBeyondItIsDropped()
+      throws IOException {
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (TarArchiveWriter writer = new TarArchiveWriter(archive, 1024)) {
+      writer.putEntry("short.txt", 1000, 0).write(bytes("interrupted"));
+      writer.closeEntry();
+      writer.putEntry("long.txt", 4, 0).write(bytes("too long"));
+      writer.closeEntry();
+    }
+
+    List<ArchiveEntry> entries = readArchive(archive.toByteArray());
+    byte[] expected = Arrays.copyOf(bytes("interrupted"), 1000);
+    assertArrayEquals(expected, entries.get(0).content());
+    assertEquals(new TarEntry("long.txt", "too "), entries(entries).get(1));
+  }
+
+  /**
+   * An entry of the archive with the name of its PAX header, if present.
+   */
+  record ArchiveEntry(String name, byte[] content) {
+
+  }
+
+  private record TarEntry(String name, String content) {
+
+  }
+
+  /**
+   * Reads a tar archive and verifies the header checksums, the length of every PAX record, the
+   * padding of the content and the end-of-archive marker.
+   */
+  static List<ArchiveEntry> readArchive(byte[] archive) {
+    List<ArchiveEntry> entries = new ArrayList<>();
+    Map<String, String> paxRecords = Map.of();
+    int offset = 0;
+    while (true) {
+      byte[] header = Arrays.copyOfRange(archive, offset, offset + BLOCK_SIZE);
+      offset += BLOCK_SIZE;
+      if (Arrays.equals(new byte[BLOCK_SIZE], header)) {
+        assertArrayEquals(new byte[BLOCK_SIZE], Arrays.copyOfRange(archive, offset, archive.length));
+        return entries;
+      }
+      assertEquals(checksum(header), octal(header, 148, 8));
+      assertEquals("ustar", string(header, 257, 6));
+      assertEquals("00", new String(header, 263, 2, StandardCharsets.US_ASCII));
+      int size = (int) octal(header, 124, 12);
+      byte[] content = Arrays.copyOfRange(archive, offset, offset + size);
+      offset += size;
+      int padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+      assertArrayEquals(new byte[padding], Arrays.copyOfRange(archive, offset, offset + padding));
+      offset += padding;
+      if (header[156] == 'x') {
+        paxRecords = paxRecords(content);
+        continue;
+      }
+      assertTrue(string(header, 0, 100).chars().allMatch(character -> character < 0x80));
+      entries.add(new ArchiveEntry(paxRecords.getOrDefault("path", string(header, 0, 100)), content));
+      paxRecords = Map.of();
+    }
+  }
+
+  private static Map<String, String> paxRecords(byte[] content) {
+    Map<String, String> records = new HashMap<>();
+    int offset = 0;
+    while (offset < content.length) {
+      int space = offset;
+      while (content[space] != ' ') {
+        space++;
+      }
+      int length = Integer.parseInt(new String(content, offset, space - offset, StandardCharsets.US_ASCII));
+      assertEquals('\n', content[offset + length - 1]);
+      String record = new String(content, space + 1, offset + length - space - 2, StandardCharsets.UTF_8);
+      records.put(record.substring(0, record.indexOf('=')), record.substring(record.indexOf('=') + 1));
+      offset += length;
+    }
+    return records;
+  }
+
+  private static List<TarEntry> entries(List<ArchiveEntry> entries) {
+    return entries.stream()
+        .map(entry -> new TarEntry(entry.name(), new String(entry.content(), StandardCharsets.UTF_8)))
+        .toList();
+  }
+
+  private static long checksum(byte[] header) {
+    long checksum = 0;
+    for (int i = 0; i < BLOCK_SIZE; i++) {
+      checksum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+    }
+    return checksum;
+  }
+
+  private static long octal(byte[] header, int offset, int length) {
+    return Long.parseLong(string(header, offset, length).strip(), 8);
+  }
+
+  private static String string(byte[] header, int offset, int length) {
+    int end = offset;
+    while (end < offset + length && header[end] != 0) {
+      end++;
+    }
+    return new String(header, offset, end - offset, StandardCharsets.US_ASCII);
+  }
+
+  private static byte[] bytes(String content) {
+    return content.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,191 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.id.DataSetPermId;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.Sample;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.download.DataSetFileDownload;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.common.structures.DataSetWrapper;
+import life.qbic.qpostman.download.TarArchiveWriterTest.ArchiveEntry;
+import life.qbic.qpostman.download.WriteFileToDisk.AutoClosableDataSetFileDownloadReader;
+import life.qbic.qpostman.download.WriteFileToDisk.DownloadReport;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class WriteFileToArchiveTest {
+
+  private static final DataFile FILE_A = dataFile("a.txt", "content");
+  private static final DataFile FILE_B = dataFile("b.txt", "other");
+
+  private final Map<String, AtomicInteger> downloadsByFile = new ConcurrentHashMap<>();
+
+  @Test
+  @DisplayName("a file failing verification is added again after its corrupt entry")
+  void aFileFailingVerificationIsAddedAgainAfterItsCorruptEntry() {
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+    List<DownloadReport> reports = writeFileToArchive(archive, dataFile -> {
+      if (dataFile == FILE_A && downloads(dataFile) == 1) {
+        return new ByteArrayInputStream(bytes("c0ntent"));
+      }
+      return new ByteArrayInputStream(bytes(content(dataFile)));
+    }).apply(List.of(FILE_A, FILE_B));
+
+    List<ArchiveEntry> entries = TarArchiveWriterTest.readArchive(archive.toByteArray());
+    assertEquals(List.of("QTEST001AE/a.txt", "QTEST001AE/b.txt", "QTEST001AE/a.txt",
+        WriteFileToArchive.MANIFEST_NAME), names(entries));
+    assertEquals("c0ntent", string(entries.get(0)));
+    // the later entry replaces the earlier one when the archive is extracted
+    assertEquals("content", string(entries.get(2)));
+    assertTrue(reports.stream().allMatch(DownloadReport::isSuccess));
+    assertEquals(manifest(reports), string(entries.get(3)));
+  }
+
+  @Test
+  @DisplayName("an interrupted download leaves a complete entry and is downloaded again")
+  void anInterruptedDownloadLeavesACompleteEntryAndIsDownloadedAgain() {
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+    List<DownloadReport> reports = writeFileToArchive(archive, dataFile -> {
+      if (dataFile == FILE_A && downloads(dataFile) == 1) {
+        return interrupted("con");
+      }
+      return new ByteArrayInputStream(bytes(content(dataFile)));
+    }).apply(List.of(FILE_A, FILE_B));
+
+    List<ArchiveEntry> entries = TarArchiveWriterTest.readArchive(archive.toByteArray());
+    // the interrupted batch is retried file by file
+    assertEquals(List.of("QTEST001AE/a.txt", "QTEST001AE/a.txt", "QTEST001AE/b.txt",
+        WriteFileToArchive.MANIFEST_NAME), names(entries));
+    assertEquals("con\0\0\0\0", string(entries.get(0)));
+    assertEquals("content", string(entries.get(1)));
+    assertEquals("other", string(entries.get(2)));
+    assertEquals(List.of(FILE_A.crc32(), FILE_B.crc32()),
+        reports.stream().map(DownloadReport::actualCrc32).toList());
+    assertEquals(manifest(reports), string(entries.get(3)));
+  }
+
+  @Test
+  @DisplayName("the manifest lists files failing every attempt")
+  void theManifestListsFilesFailingEveryAttempt() {
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+    List<DownloadReport> reports = writeFileToArchive(archive, dataFile -> {
+      downloads(dataFile);
+      return new ByteArrayInputStream(bytes(dataFile == FILE_A ? "c0ntent" : content(dataFile)));
+    }).apply(List.of(FILE_A, FILE_B));
+
+    assertEquals(2, downloadsByFile.get(FILE_A.filePermId()).get());
+    assertTrue(reports.get(0).isFailure());
+    assertTrue(reports.get(1).isSuccess());
+    List<ArchiveEntry> entries = TarArchiveWriterTest.readArchive(archive.toByteArray());
+    assertEquals(manifest(reports), string(entries.get(entries.size() - 1)));
+  }
+
+  /**
+   * @param contents provides the content the datastore sends for a file
+   */
+  private WriteFileToArchive writeFileToArchive(ByteArrayOutputStream archive,
+      Function<DataFile, InputStream> contents) {
+    return new WriteFileToArchive(1024, archive, 2, false, dataFile -> WriteProgressListener.noOp(),
+        BandwidthLimiter.unlimited(), batch -> new FakeReader(batch.stream()
+        .map(dataFile -> new DataSetFileDownload(dataFile.dataSetFile(), contents.apply(dataFile)))
+        .toList()));
+  }
+
+  /**
+   * @return the number of downloads of the file including this one
+   */
+  private int downloads(DataFile dataFile) {
+    return downloadsByFile.computeIfAbsent(dataFile.filePermId(), it -> new AtomicInteger())
+        .incrementAndGet();
+  }
+
+  /**
+   * Passes on the downloads without reading a stream from the datastore.
+   */
+  static class FakeReader extends AutoClosableDataSetFileDownloadReader {
+
+    private final Iterator<DataSetFileDownload> downloads;
+
+    FakeReader(List<DataSetFileDownload> downloads) {
+      super(InputStream.nullInputStream());
+      this.downloads = downloads.iterator();
+    }
+
+    @Override
+    public DataSetFileDownload read() {
+      return downloads.hasNext() ? downloads.next() : null;
+    }
+  }
+
+  private static InputStream interrupted(String content) {
+    return new SequenceInputStream(new ByteArrayInputStream(bytes(content)), new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("connection reset");
+      }
+    });
+  }
+
+  private static String manifest(List<DownloadReport> reports) {
+    return reports.stream().map(report -> report + "\n").collect(Collectors.joining());
+  }
+
+  private static List<String> names(List<ArchiveEntry> entries) {
+    return entries.stream().map(ArchiveEntry::name).toList();
+  }
+
+  private static String string(ArchiveEntry entry) {
+    return new String(entry.content(), StandardCharsets.UTF_8);
+  }
+
+  private static String content(DataFile dataFile) {
+    return dataFile == FILE_A ? "content" : "other";
+  }
+
+  private static DataFile dataFile(String path, String content) {
+    Sample sample = new Sample();
+    sample.setCode("QTEST001AE");
+    DataSet dataSet = new DataSet();
+    dataSet.setPermId(new DataSetPermId("20240101000000000-1"));
+    dataSet.setSample(sample);
+    dataSet.setRegistrationDate(new Date(0));
+    DataSetFile dataSetFile = new DataSetFile();
+    dataSetFile.setDataSetPermId(dataSet.getPermId());
+    dataSetFile.setPath("original/" + path);
+    dataSetFile.setFileLength(content.length());
+    dataSetFile.setChecksumCRC32((int) crc32(content));
+    return new DataFile(dataSetFile, new DataSetWrapper(dataSet, it -> it), null);
+  }
+
+  private static byte[] bytes(String content) {
+    return content.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static long crc32(String content) {
+    CRC32 crc32 = new CRC32();
+    crc32.update(bytes(content));
+    return crc32.getValue();
+  }
+}
@@ -0,0 +1,218 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.IApplicationServerApi;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.id.DataSetPermId;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.Sample;
+import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.common.structures.DataSetWrapper;
+import life.qbic.qpostman.download.DownloadJournal.VerificationPolicy;
+import life.qbic.qpostman.download.WriteFileToDisk.DownloadReport;
+import life.qbic.qpostman.download.WriteFileToDisk.FileMove;
+import life.qbic.qpostman.openbis.OpenBisSessionProvider;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class WriteFileToDiskTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  @DisplayName("commit moves the output file and its checksum file")
+  void commitMovesTheOutputFileAndItsChecksumFile() throws IOException {
+    Path outFile = tempDir.resolve("file.txt");
+    Path tempFile = write(tempDir.resolve(".file.txt.part"), "new");
+
+    WriteFileToDisk.commit(tempFile, outFile, crc32("new"), "file.txt", WriteFileToDiskTest::move);
+
+    assertEquals("new", Files.readString(outFile));
+    assertTrue(WriteUtils.doesExistWithCrc32(outFile, crc32("new"), 1024));
+  }
+
+  @Test
+  @DisplayName("a stale output file is not accepted if commit fails after the first move")
+  void aStaleOutputFileIsNotAcceptedIfCommitFailsAfterTheFirstMove() throws IOException {
+    Path outFile = write(tempDir.resolve("file.txt"), "old");
+    write(tempDir.resolve("file.txt.crc32"), Long.toHexString(crc32("old")) + "\tfile.txt");
+    Path tempFile = write(tempDir.resolve(".file.txt.part"), "new");
+
+    assertThrows(IOException.class, () -> WriteFileToDisk.commit(tempFile, outFile, crc32("new"),
+        "file.txt", failingMove(1)));
+
+    // the output file is complete and is hashed again
+    assertEquals("new", Files.readString(outFile));
+    assertFalse(Files.exists(tempDir.resolve("file.txt.crc32")));
+    assertTrue(WriteUtils.doesExistWithCrc32(outFile, crc32("new"), 1024));
+  }
+
+  @Test
+  @DisplayName("a stale output file is not accepted if commit fails before the first move")
+  void aStaleOutputFileIsNotAcceptedIfCommitFailsBeforeTheFirstMove() throws IOException {
+    Path outFile = write(tempDir.resolve("file.txt"), "old");
+    write(tempDir.resolve("file.txt.crc32"), Long.toHexString(crc32("old")) + "\tfile.txt");
+    Path tempFile = write(tempDir.resolve(".file.txt.part"), "new");
+
+    assertThrows(IOException.class, () -> WriteFileToDisk.commit(tempFile, outFile, crc32("new"),
+        "file.txt", failingMove(0)));
+
+    assertEquals("old", Files.readString(outFile));
+    assertFalse(WriteUtils.doesExistWithCrc32(outFile, crc32("new"), 1024));
+  }
+
+  @Test
+  @DisplayName("a duplicate is linked to its downloaded identical file")
+  void aDuplicateIsLinkedToItsDownloadedIdenticalFile() throws IOException {
+    Path outputDirectory = tempDir.resolve("out");
+    DataFile original = dataFile("a.txt", "content", null);
+    DataFile duplicate = dataFile("b.txt", "content", null);
+    Path originalFile = write(Files.createDirectories(outputDirectory.resolve("QTEST001AE"))
+        .resolve("a.txt"), "content");
+    DownloadReport originalReport = new DownloadReport(original.crc32(), original.crc32(), originalFile);
+
+    DownloadReport report;
+    try (DownloadJournal journal = DownloadJournal.open(outputDirectory, VerificationPolicy.TRUST)) {
+      report = writeFileToDisk(outputDirectory, journal).applyDuplicate(duplicate, originalReport);
+    }
+
+    Path duplicateFile = outputDirectory.resolve("QTEST001AE").resolve("b.txt");
+    assertTrue(report.isSuccess());
+    assertEquals(duplicateFile.toAbsolutePath(), report.outputPath());
+    assertTrue(Files.isSameFile(originalFile, duplicateFile));
+    assertTrue(WriteUtils.doesExistWithCrc32(duplicateFile, crc32("content"), 1024));
+  }
+
+  @Test
+  @DisplayName("a duplicate of a failed download is downloaded on its own")
+  void aDuplicateOfAFailedDownloadIsDownloadedOnItsOwn() throws IOException {
+    OpenBisSessionProvider.init(applicationServer(), "user", "password");
+    Path outputDirectory = tempDir.resolve("out");
+    AtomicInteger downloads = new AtomicInteger();
+    IDataStoreServerApi dataStoreServer = dataStoreServer(downloads);
+    DataFile original = dataFile("a.txt", "content", dataStoreServer);
+    DataFile duplicate = dataFile("b.txt", "content", dataStoreServer);
+    DownloadReport originalReport = new DownloadReport(original.crc32(), 0,
+        outputDirectory.resolve("QTEST001AE").resolve("a.txt"));
+
+    try (DownloadJournal journal = DownloadJournal.open(outputDirectory, VerificationPolicy.TRUST)) {
+      WriteFileToDisk writeFileToDisk = writeFileToDisk(outputDirectory, journal);
+      assertThrows(DownloadRequested.class, () -> writeFileToDisk.applyDuplicate(duplicate, originalReport));
+    }
+
+    assertEquals(1, downloads.get());
+    assertFalse(Files.exists(outputDirectory.resolve("QTEST001AE").resolve("b.txt")));
+  }
+
+  @Test
+  @DisplayName("linkOrCopy copies the file if it cannot be linked")
+  void linkOrCopyCopiesTheFileIfItCannotBeLinked() throws IOException {
+    Path source = write(tempDir.resolve("source.txt"), "content");
+    Path unsupportedTarget = tempDir.resolve("unsupported.txt");
+    Path failedTarget = tempDir.resolve("failed.txt");
+
+    WriteFileToDisk.linkOrCopy(source, unsupportedTarget, (link, existing) -> {
+      throw new UnsupportedOperationException("links are not supported");
+    });
+    WriteFileToDisk.linkOrCopy(source, failedTarget, (link, existing) -> {
+      throw new FileSystemException(link.toString(), existing.toString(), "cross-device link");
+    });
+
+    assertEquals("content", Files.readString(unsupportedTarget));
+    assertFalse(Files.isSameFile(source, unsupportedTarget));
+    assertEquals("content", Files.readString(failedTarget));
+    assertFalse(Files.isSameFile(source, failedTarget));
+  }
+
+  private static WriteFileToDisk writeFileToDisk(Path outputDirectory, DownloadJournal journal) {
+    return new WriteFileToDisk(1024, outputDirectory, 1, false,
+        dataFile -> WriteProgressListener.noOp(), journal, DurabilityPolicy.NONE, false,
+        BandwidthLimiter.unlimited());
+  }
+
+  private static DataFile dataFile(String path, String content, IDataStoreServerApi dataStoreServer) {
+    Sample sample = new Sample();
+    sample.setCode("QTEST001AE");
+    DataSet dataSet = new DataSet();
+    dataSet.setPermId(new DataSetPermId("20240101000000000-1"));
+    dataSet.setSample(sample);
+    DataSetFile dataSetFile = new DataSetFile();
+    dataSetFile.setDataSetPermId(dataSet.getPermId());
+    dataSetFile.setPath("original/" + path);
+    dataSetFile.setFileLength(content.length());
+    dataSetFile.setChecksumCRC32((int) crc32(content));
+    return new DataFile(dataSetFile, new DataSetWrapper(dataSet, it -> it), dataStoreServer);
+  }
+
+  /**
+   * @return a datastore server counting the download requests and failing them
+   */
+  private static IDataStoreServerApi dataStoreServer(AtomicInteger downloads) {
+    return (IDataStoreServerApi) Proxy.newProxyInstance(IDataStoreServerApi.class.getClassLoader(),
+        new Class<?>[]{IDataStoreServerApi.class}, (proxy, method, args) -> {
+          if (method.getName().equals("downloadFiles")) {
+            downloads.incrementAndGet();
+            throw new DownloadRequested();
+          }
+          throw new AssertionError("unexpected call of " + method.getName());
+        });
+  }
+
+  private static IApplicationServerApi applicationServer() {
+    return (IApplicationServerApi) Proxy.newProxyInstance(
+        IApplicationServerApi.class.getClassLoader(), new Class<?>[]{IApplicationServerApi.class},
+        (proxy, method, args) -> switch (method.getName()) {
+          case "login" -> "token";
+          case "isSessionActive" -> true;
+          default -> throw new AssertionError("unexpected call of " + method.getName());
+        });
+  }
+
+  private static class DownloadRequested extends RuntimeException {
+
+  }
+
+  /**
+   * @return a move failing after the given number of successful moves
+   */
+  private static FileMove failingMove(int successfulMoves) {
+    int[] moves = {0};
+    return (source, target) -> {
+      if (moves[0]++ >= successfulMoves) {
+        throw new IOException("process died");
+      }
+      move(source, target);
+    };
+  }
+
+  private static void move(Path source, Path target) throws IOException {
+    Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static Path write(Path file, String content) throws IOException {
+    return Files.writeString(file, content);
+  }
+
+  private static long crc32(String content) {
+    CRC32 crc32 = new CRC32();
+    crc32.update(content.getBytes(StandardCharsets.UTF_8));
+    return crc32.getValue();
+  }
+}
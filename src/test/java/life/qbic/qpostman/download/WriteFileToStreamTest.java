@@ -0,0 +1,131 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.DataSet;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.dataset.id.DataSetPermId;
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.sample.Sample;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.DataSetFile;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.download.DataSetFileDownload;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import life.qbic.qpostman.common.structures.DataFile;
+import life.qbic.qpostman.common.structures.DataSetWrapper;
+import life.qbic.qpostman.download.WriteFileToArchiveTest.FakeReader;
+import life.qbic.qpostman.download.WriteFileToDisk.DownloadReport;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class WriteFileToStreamTest {
+
+  private static final DataFile FILE_A = dataFile("a.txt", "content");
+  private static final DataFile FILE_B = dataFile("b.txt", "other");
+
+  @Test
+  @DisplayName("files written one after the other are concatenated")
+  void filesWrittenOneAfterTheOtherAreConcatenated() {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    WriteFileToStream writeFileToStream = writeFileToStream(output,
+        dataFile -> new ByteArrayInputStream(bytes(dataFile == FILE_A ? "content" : "other")));
+
+    List<DownloadReport> reports = List.of(writeFileToStream.apply(FILE_A), writeFileToStream.apply(FILE_B));
+
+    assertEquals("contentother", output.toString(StandardCharsets.UTF_8));
+    assertTrue(reports.stream().allMatch(DownloadReport::isSuccess));
+    assertEquals(Path.of("QTEST001AE", "a.txt"), reports.get(0).outputPath());
+  }
+
+  @Test
+  @DisplayName("a failed download is reported once and the next file is written")
+  void aFailedDownloadIsReportedOnceAndTheNextFileIsWritten() {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    AtomicInteger downloads = new AtomicInteger();
+    WriteFileToStream writeFileToStream = writeFileToStream(output, dataFile -> {
+      downloads.incrementAndGet();
+      return dataFile == FILE_A ? interrupted("con") : new ByteArrayInputStream(bytes("other"));
+    });
+
+    DownloadReport failed = writeFileToStream.apply(FILE_A);
+    DownloadReport written = writeFileToStream.apply(FILE_B);
+
+    assertTrue(failed.isFailure());
+    assertTrue(written.isSuccess());
+    assertEquals(2, downloads.get());
+    // written content cannot be taken back
+    assertEquals("conother", output.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  @DisplayName("failures of the output stream are thrown")
+  void failuresOfTheOutputStreamAreThrown() {
+    OutputStream brokenPipe = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("broken pipe");
+      }
+    };
+    WriteFileToStream writeFileToStream = writeFileToStream(brokenPipe,
+        dataFile -> new ByteArrayInputStream(bytes("content")));
+
+    assertThrows(UncheckedIOException.class, () -> writeFileToStream.apply(FILE_A));
+  }
+
+  /**
+   * @param contents provides the content the datastore sends for a file
+   */
+  private static WriteFileToStream writeFileToStream(OutputStream outputStream,
+      Function<DataFile, InputStream> contents) {
+    return new WriteFileToStream(1024, outputStream, false, dataFile -> WriteProgressListener.noOp(),
+        BandwidthLimiter.unlimited(), dataFile -> new FakeReader(
+        List.of(new DataSetFileDownload(dataFile.dataSetFile(), contents.apply(dataFile)))));
+  }
+
+  private static InputStream interrupted(String content) {
+    return new SequenceInputStream(new ByteArrayInputStream(bytes(content)), new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("connection reset");
+      }
+    });
+  }
+
+  private static DataFile dataFile(String path, String content) {
+    Sample sample = new Sample();
+    sample.setCode("QTEST001AE");
+    DataSet dataSet = new DataSet();
+    dataSet.setPermId(new DataSetPermId("20240101000000000-1"));
+    dataSet.setSample(sample);
+    dataSet.setRegistrationDate(new Date(0));
+    DataSetFile dataSetFile = new DataSetFile();
+    dataSetFile.setDataSetPermId(dataSet.getPermId());
+    dataSetFile.setPath("original/" + path);
+    dataSetFile.setFileLength(content.length());
+    dataSetFile.setChecksumCRC32((int) crc32(content));
+    return new DataFile(dataSetFile, new DataSetWrapper(dataSet, it -> it), null);
+  }
+
+  private static byte[] bytes(String content) {
+    return content.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static long crc32(String content) {
+    CRC32 crc32 = new CRC32();
+    crc32.update(bytes(content));
+    return crc32.getValue();
+  }
+}
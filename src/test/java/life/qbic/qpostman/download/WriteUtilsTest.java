@@ -0,0 +1,86 @@
+package life.qbic.qpostman.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class WriteUtilsTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  @DisplayName("write produces the content and checksum with buffers of any size")
+  void writeProducesTheContentAndChecksumWithBuffersOfAnySize() throws IOException {
+    // the buffer of the thread is reused by the smaller writes
+    assertWritten("a longer content than the buffer", 8);
+    assertWritten("small", 2);
+    assertWritten("content", 64);
+    assertWritten("", 0);
+  }
+
+  @Test
+  @DisplayName("written bytes are reported before the bandwidth is throttled")
+  void writtenBytesAreReportedBeforeTheBandwidthIsThrottled() throws IOException {
+    BandwidthLimiter bandwidthLimiter = BandwidthLimiter.of(1_000);
+    // the bucket starts with one second worth of bytes
+    bandwidthLimiter.acquire(1_000);
+    long[] firstUpdateNanos = {0};
+    WriteProgressListener progressListener = new WriteProgressListener() {
+      @Override
+      public void update(long bytesWritten) {
+        if (firstUpdateNanos[0] == 0) {
+          firstUpdateNanos[0] = System.nanoTime();
+        }
+      }
+
+      @Override
+      public void finish() {
+      }
+    };
+    long start = System.nanoTime();
+    try (FileChannel fileChannel = FileChannel.open(tempDir.resolve("file.txt"),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      // paying for the bytes takes about 300 ms
+      WriteUtils.write(300, new ByteArrayInputStream(new byte[300]), fileChannel,
+          DurabilityPolicy.NONE, bandwidthLimiter, progressListener);
+    }
+    long finished = System.nanoTime();
+    assertTrue(firstUpdateNanos[0] - start < TimeUnit.MILLISECONDS.toNanos(100),
+        "expected the first bytes to be reported right away");
+    assertTrue(finished - start >= TimeUnit.MILLISECONDS.toNanos(200),
+        "expected the write to be throttled");
+  }
+
+  private void assertWritten(String content, int bufferSize) throws IOException {
+    Path file = tempDir.resolve("file.txt");
+    long crc32;
+    try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      crc32 = WriteUtils.write(bufferSize,
+          new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), fileChannel,
+          DurabilityPolicy.NONE, BandwidthLimiter.unlimited(), WriteProgressListener.noOp());
+    }
+    assertEquals(content, Files.readString(file));
+    assertEquals(crc32(content), crc32);
+  }
+
+  private static long crc32(String content) {
+    CRC32 crc32 = new CRC32();
+    crc32.update(content.getBytes(StandardCharsets.UTF_8));
+    return crc32.getValue();
+  }
+}
@@ -0,0 +1,61 @@
+package life.qbic.qpostman.openbis;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class BackoffTest {
+
+  @Test
+  @DisplayName("the delay doubles with every failed attempt")
+  void theDelayDoublesWithEveryFailedAttempt() {
+    Backoff backoff = new Backoff(100, 100_000);
+    for (int failedAttempts = 1; failedAttempts <= 5; failedAttempts++) {
+      assertDelaysReach(backoff, failedAttempts, 100L << (failedAttempts - 1));
+    }
+  }
+
+  @Test
+  @DisplayName("the delay does not exceed the maximal delay")
+  void theDelayDoesNotExceedTheMaximalDelay() {
+    Backoff backoff = new Backoff(100, 1_000);
+    assertDelaysReach(backoff, 5, 1_000);
+    assertDelaysReach(backoff, Integer.MAX_VALUE, 1_000);
+  }
+
+  @Test
+  @DisplayName("the delay is jittered")
+  void theDelayIsJittered() {
+    Backoff backoff = new Backoff(1_000, 1_000);
+    long minDelay = Long.MAX_VALUE;
+    for (int i = 0; i < 1_000; i++) {
+      minDelay = Math.min(minDelay, backoff.delayMillis(1));
+    }
+    assertTrue(minDelay < 500, "expected delays spread below the ceiling but got " + minDelay);
+  }
+
+  @Test
+  @DisplayName("invalid delays are rejected")
+  void invalidDelaysAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> new Backoff(-1, 100));
+    assertThrows(IllegalArgumentException.class, () -> new Backoff(100, 10));
+  }
+
+  /**
+   * Asserts that sampled delays stay between zero and the ceiling and come close to the ceiling.
+   */
+  private static void assertDelaysReach(Backoff backoff, int failedAttempts, long ceiling) {
+    long maxDelay = 0;
+    for (int i = 0; i < 1_000; i++) {
+      long delay = backoff.delayMillis(failedAttempts);
+      assertTrue(delay >= 0 && delay <= ceiling,
+          "expected a delay between 0 and %s but got %s".formatted(ceiling, delay));
+      maxDelay = Math.max(maxDelay, delay);
+    }
+    assertTrue(maxDelay > ceiling / 2,
+        "expected delays close to %s but the largest was %s".formatted(ceiling, maxDelay));
+  }
+}
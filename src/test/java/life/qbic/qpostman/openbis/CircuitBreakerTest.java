@@ -0,0 +1,91 @@
+package life.qbic.qpostman.openbis;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class CircuitBreakerTest {
+
+  private final AtomicBoolean healthy = new AtomicBoolean(false);
+
+  @Test
+  @DisplayName("the circuit opens after the failure threshold is reached")
+  void theCircuitOpensAfterTheFailureThresholdIsReached() {
+    CircuitBreaker circuitBreaker = circuitBreaker(Duration.ofHours(1), Duration.ofHours(1));
+    for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+      circuitBreaker.recordFailure();
+    }
+    assertDoesNotThrow(circuitBreaker::checkClosed);
+    circuitBreaker.recordFailure();
+    assertThrows(ServerUnavailableException.class, circuitBreaker::checkClosed);
+  }
+
+  @Test
+  @DisplayName("a success resets the consecutive failures")
+  void aSuccessResetsTheConsecutiveFailures() {
+    CircuitBreaker circuitBreaker = circuitBreaker(Duration.ofHours(1), Duration.ofHours(1));
+    for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+      circuitBreaker.recordFailure();
+    }
+    circuitBreaker.recordSuccess();
+    circuitBreaker.recordFailure();
+    assertDoesNotThrow(circuitBreaker::checkClosed);
+  }
+
+  @Test
+  @DisplayName("a successful health probe closes the circuit")
+  void aSuccessfulHealthProbeClosesTheCircuit() {
+    CircuitBreaker circuitBreaker = circuitBreaker(Duration.ofMillis(10), Duration.ofHours(1));
+    open(circuitBreaker);
+    assertThrows(ServerUnavailableException.class, circuitBreaker::checkClosed);
+    healthy.set(true);
+    assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+      while (!isClosed(circuitBreaker)) {
+        Thread.sleep(10);
+      }
+    });
+  }
+
+  @Test
+  @DisplayName("the server is reported as unavailable once the circuit is open for too long")
+  void theServerIsReportedAsUnavailableOnceTheCircuitIsOpenForTooLong()
+      throws InterruptedException {
+    CircuitBreaker circuitBreaker = circuitBreaker(Duration.ofHours(1), Duration.ofMillis(50));
+    open(circuitBreaker);
+    assertThrows(ServerUnavailableException.class, circuitBreaker::checkClosed);
+    Thread.sleep(100);
+    ConnectionException exception = assertThrows(ConnectionException.class,
+        circuitBreaker::checkClosed);
+    assertSame(ConnectionException.class, exception.getClass());
+  }
+
+  private CircuitBreaker circuitBreaker(Duration probeInterval, Duration maxOpenDuration) {
+    return new CircuitBreaker("dss", () -> {
+      if (!healthy.get()) {
+        throw new ConnectionException("dss is down");
+      }
+    }, probeInterval, maxOpenDuration);
+  }
+
+  private static void open(CircuitBreaker circuitBreaker) {
+    for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+      circuitBreaker.recordFailure();
+    }
+  }
+
+  private static boolean isClosed(CircuitBreaker circuitBreaker) {
+    try {
+      circuitBreaker.checkClosed();
+      return true;
+    } catch (ConnectionException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package life.qbic.qpostman.openbis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.IApplicationServerApi;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+
+public class OpenBisSessionTest {
+
+  private final AtomicInteger logins = new AtomicInteger();
+  private final AtomicInteger sessionChecks = new AtomicInteger();
+  private final AtomicBoolean sessionActive = new AtomicBoolean(true);
+
+  @Test
+  @DisplayName("getToken uses the cached token within the revalidation interval")
+  void getTokenUsesTheCachedTokenWithinTheRevalidationInterval() {
+    OpenBisSession session = new OpenBisSession(applicationServer(), "user", "password",
+        Duration.ofHours(1));
+    for (int i = 0; i < 100; i++) {
+      assertEquals("token-1", session.getToken());
+    }
+    assertEquals(1, logins.get());
+    assertEquals(0, sessionChecks.get());
+  }
+
+  @Test
+  @DisplayName("getToken checks the token after invalidate")
+  void getTokenChecksTheTokenAfterInvalidate() {
+    OpenBisSession session = new OpenBisSession(applicationServer(), "user", "password",
+        Duration.ofHours(1));
+    session.invalidate();
+    assertEquals("token-1", session.getToken());
+    assertEquals("token-1", session.getToken());
+    assertEquals(1, sessionChecks.get());
+  }
+
+  @Test
+  @DisplayName("getToken logs in again once the session is inactive")
+  void getTokenLogsInAgainOnceTheSessionIsInactive() {
+    OpenBisSession session = new OpenBisSession(applicationServer(), "user", "password",
+        Duration.ZERO);
+    assertEquals("token-1", session.getToken());
+    sessionActive.set(false);
+    assertEquals("token-2", session.getToken());
+    sessionActive.set(true);
+    assertEquals("token-2", session.getToken());
+    assertEquals(2, logins.get());
+  }
+
+  private IApplicationServerApi applicationServer() {
+    return (IApplicationServerApi) Proxy.newProxyInstance(
+        IApplicationServerApi.class.getClassLoader(), new Class<?>[]{IApplicationServerApi.class},
+        (proxy, method, args) -> switch (method.getName()) {
+          case "login" -> "token-" + logins.incrementAndGet();
+          case "isSessionActive" -> {
+            sessionChecks.incrementAndGet();
+            yield sessionActive.get();
+          }
+          default -> throw new AssertionError("unexpected call of " + method.getName());
+        });
+  }
+}
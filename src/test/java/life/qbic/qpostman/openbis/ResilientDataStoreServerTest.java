@@ -0,0 +1,170 @@
+package life.qbic.qpostman.openbis;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.ethz.sis.openbis.generic.asapi.v3.dto.common.search.SearchResult;
+import ch.ethz.sis.openbis.generic.dssapi.v3.IDataStoreServerApi;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.fetchoptions.DataSetFileFetchOptions;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.search.DataSetFileSearchCriteria;
+import ch.ethz.sis.openbis.generic.dssapi.v3.dto.datasetfile.download.DataSetFileDownloadOptions;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.remoting.RemoteAccessException;
+
+
+public class ResilientDataStoreServerTest {
+
+  private static final int FILE_LENGTH = 16;
+  private static final int CONCURRENT_SEARCHES = 8;
+
+  private final AtomicBoolean streamBreaks = new AtomicBoolean(true);
+  private final AtomicBoolean searchFails = new AtomicBoolean(false);
+  // the first searches fail together, as during a short outage
+  private final CountDownLatch concurrentSearches = new CountDownLatch(CONCURRENT_SEARCHES);
+  private final AtomicInteger failedSearches = new AtomicInteger();
+  private final IDataStoreServerApi dataStoreServer = ResilientDataStoreServer.wrap(
+      dataStoreServer(), "dss", new CircuitBreaker("dss", this::probe, Duration.ofMillis(20),
+          Duration.ofHours(1)), new Backoff(1, 10));
+
+  @Test
+  @DisplayName("download streams breaking while they are read open the circuit")
+  void downloadStreamsBreakingWhileTheyAreReadOpenTheCircuit() {
+    for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+      assertThrows(IOException.class, this::download);
+    }
+    assertThrows(ServerUnavailableException.class, this::download);
+  }
+
+  @Test
+  @DisplayName("downloads of single files reset the consecutive failures")
+  void downloadsOfSingleFilesResetTheConsecutiveFailures() {
+    for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+      assertThrows(IOException.class, this::download);
+    }
+    streamBreaks.set(false);
+    assertDoesNotThrow(this::downloadSingleFile);
+    streamBreaks.set(true);
+    for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+      assertThrows(IOException.class, this::download);
+    }
+    streamBreaks.set(false);
+    assertDoesNotThrow(this::download);
+  }
+
+  @Test
+  @DisplayName("concurrent searches wait for the server to recover")
+  void concurrentSearchesWaitForTheServerToRecover() throws Exception {
+    searchFails.set(true);
+    ExecutorService executorService = Executors.newFixedThreadPool(CONCURRENT_SEARCHES);
+    try {
+      List<Future<?>> searches = new ArrayList<>();
+      for (int i = 0; i < CONCURRENT_SEARCHES; i++) {
+        searches.add(executorService.submit(() -> dataStoreServer.searchFiles("token",
+            new DataSetFileSearchCriteria(), new DataSetFileFetchOptions())));
+      }
+      assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+        while (failedSearches.get() < CONCURRENT_SEARCHES) {
+          Thread.sleep(10);
+        }
+      });
+      // the circuit is open, as more searches failed than the failure threshold
+      Thread.sleep(100);
+      searchFails.set(false);
+      for (Future<?> search : searches) {
+        assertDoesNotThrow(() -> search.get(5, TimeUnit.SECONDS));
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  @Test
+  @DisplayName("an interrupted retry fails with a connection exception")
+  void anInterruptedRetryFailsWithAConnectionException() {
+    IDataStoreServerApi failingServer = ResilientDataStoreServer.wrap(
+        (IDataStoreServerApi) Proxy.newProxyInstance(IDataStoreServerApi.class.getClassLoader(),
+            new Class<?>[]{IDataStoreServerApi.class}, (proxy, method, args) -> {
+              throw new RemoteAccessException("dss is overloaded");
+            }), "dss", new CircuitBreaker("dss", this::probe), new Backoff(60_000, 60_000));
+    Thread.currentThread().interrupt();
+    try {
+      assertThrows(ConnectionException.class, () -> failingServer.searchFiles("token",
+          new DataSetFileSearchCriteria(), new DataSetFileFetchOptions()));
+    } finally {
+      assertTrue(Thread.interrupted());
+    }
+  }
+
+  private void download() throws IOException {
+    try (InputStream inputStream = dataStoreServer.downloadFiles("token", List.of(),
+        new DataSetFileDownloadOptions())) {
+      inputStream.transferTo(OutputStream.nullOutputStream());
+    }
+  }
+
+  /**
+   * Reads the content of a single file and closes the stream like the download reader does,
+   * without reading to the end of the stream.
+   */
+  private void downloadSingleFile() throws IOException {
+    try (InputStream inputStream = dataStoreServer.downloadFiles("token", List.of(),
+        new DataSetFileDownloadOptions())) {
+      assertEquals(FILE_LENGTH, inputStream.readNBytes(FILE_LENGTH).length);
+    }
+  }
+
+  private void probe() {
+    if (searchFails.get()) {
+      throw new ConnectionException("dss is down");
+    }
+  }
+
+  private SearchResult<?> searchFiles() throws InterruptedException {
+    if (!searchFails.get()) {
+      return new SearchResult<>(List.of(), 0);
+    }
+    concurrentSearches.countDown();
+    concurrentSearches.await();
+    failedSearches.incrementAndGet();
+    throw new RemoteAccessException("dss is overloaded");
+  }
+
+  private IDataStoreServerApi dataStoreServer() {
+    return (IDataStoreServerApi) Proxy.newProxyInstance(IDataStoreServerApi.class.getClassLoader(),
+        new Class<?>[]{IDataStoreServerApi.class}, (proxy, method, args) -> switch (method.getName()) {
+          // more content follows the first file, e.g. the next file of the download
+          case "downloadFiles" -> streamBreaks.get() ? brokenStream() : new ByteArrayInputStream(new byte[4 * FILE_LENGTH]);
+          case "searchFiles" -> searchFiles();
+          case "getMajorVersion" -> 3;
+          default -> throw new AssertionError("unexpected call of " + method.getName());
+        });
+  }
+
+  private static InputStream brokenStream() {
+    return new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("connection reset");
+      }
+    };
+  }
+}